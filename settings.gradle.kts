@@ -1 +1 @@
-include(":termux-api", ":termux-app", ":terminal-emulator", ":terminal-view", ":termux-style")
+include(":termux-api", ":termux-app", ":terminal-emulator", ":terminal-emulator-benchmark", ":terminal-view", ":termux-style")
@@ -0,0 +1,53 @@
+import java.util.Properties
+
+// JMH benchmarks of the terminal-emulator hot paths, run on the host JVM with:
+//
+//     ./gradlew :terminal-emulator-benchmark:jmh
+//
+// JMH options may be given with -PjmhArgs, e.g. -PjmhArgs="AppendBenchmark -p corpus=CJK -f 1".
+plugins {
+    java
+}
+
+// The terminal-emulator sources are compiled against android.jar, but benchmarks only exercise code not needing it
+// at runtime.
+val androidJar: File = run {
+    val localProperties = Properties()
+    val localPropertiesFile = rootProject.file("local.properties")
+    if (localPropertiesFile.exists()) localPropertiesFile.inputStream().use { localProperties.load(it) }
+    val sdkDir = localProperties.getProperty("sdk.dir") ?: System.getenv("ANDROID_HOME")
+        ?: throw GradleException("Android SDK not found, set sdk.dir in local.properties or ANDROID_HOME")
+    val compileSdkVersion: String by project
+    File(sdkDir, "platforms/android-$compileSdkVersion/android.jar")
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_21
+    targetCompatibility = JavaVersion.VERSION_21
+}
+
+sourceSets {
+    main {
+        java.srcDir(rootProject.file("terminal-emulator/src/main/java"))
+    }
+}
+
+val jmhVersion = "1.37"
+
+dependencies {
+    compileOnly(files(androidJar))
+    implementation("androidx.annotation:annotation:1.9.1")
+    implementation("org.openjdk.jmh:jmh-core:$jmhVersion")
+    annotationProcessor("org.openjdk.jmh:jmh-generator-annprocess:$jmhVersion")
+}
+
+tasks.register<JavaExec>("jmh") {
+    description = "Runs the JMH benchmarks."
+    group = "verification"
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass = "org.openjdk.jmh.Main"
+    val jmhArgs = providers.gradleProperty("jmhArgs")
+    argumentProviders.add(CommandLineArgumentProvider {
+        jmhArgs.orNull?.split(" ")?.filter { it.isNotEmpty() } ?: emptyList()
+    })
+}
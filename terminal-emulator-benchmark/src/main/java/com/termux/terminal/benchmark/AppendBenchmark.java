@@ -0,0 +1,49 @@
+package com.termux.terminal.benchmark;
+
+import com.termux.terminal.TerminalEmulator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** Feeding process output to {@link TerminalEmulator#append(byte[], int)}, the cost of which dominates busy sessions. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AppendBenchmark {
+
+    @Param
+    Corpus corpus;
+
+    @Param({"2000"})
+    int transcriptRows;
+
+    private TerminalEmulator mEmulator;
+    private byte[] mBytes;
+
+    @Setup
+    public void setup() {
+        mEmulator = BenchmarkTerminalOutput.newEmulator(transcriptRows);
+        mBytes = corpus.getBytes();
+    }
+
+    @Benchmark
+    public int append() {
+        mEmulator.append(mBytes, mBytes.length);
+        return mEmulator.getCursorRow();
+    }
+
+}
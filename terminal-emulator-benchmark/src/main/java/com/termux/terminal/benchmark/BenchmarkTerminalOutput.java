@@ -0,0 +1,38 @@
+package com.termux.terminal.benchmark;
+
+import com.termux.terminal.TerminalEmulator;
+import com.termux.terminal.TerminalOutput;
+
+/** A {@link TerminalOutput} discarding everything, as benchmarks are only interested in the emulator state. */
+final class BenchmarkTerminalOutput extends TerminalOutput {
+
+    /** Create an emulator of the {@link Corpus} screen size with the specified number of transcript rows. */
+    static TerminalEmulator newEmulator(int transcriptRows) {
+        return new TerminalEmulator(new BenchmarkTerminalOutput(), Corpus.COLUMNS, Corpus.ROWS, 12, 12, transcriptRows, null);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int count) {
+    }
+
+    @Override
+    public void titleChanged(String oldTitle, String newTitle) {
+    }
+
+    @Override
+    public void onCopyTextToClipboard(String text) {
+    }
+
+    @Override
+    public void onPasteTextFromClipboard() {
+    }
+
+    @Override
+    public void onBell() {
+    }
+
+    @Override
+    public void onColorsChanged() {
+    }
+
+}
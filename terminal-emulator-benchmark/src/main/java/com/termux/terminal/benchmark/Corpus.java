@@ -0,0 +1,151 @@
+package com.termux.terminal.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Representative terminal output used as benchmark input, generated deterministically so that results are comparable
+ * between runs.
+ */
+public enum Corpus {
+
+    /** Plain ASCII log lines, as from a build or a server log. */
+    ASCII_LOG {
+        @Override
+        void generate(StringBuilder out, Random random) {
+            String[] levels = {"DEBUG", "INFO ", "WARN ", "ERROR"};
+            for (int line = 0; out.length() < SIZE; line++) {
+                out.append(String.format(Locale.US, "2026-01-01 12:%02d:%02d.%03d %s [worker-%d] Processed request id=%d in %d ms\r\n",
+                    (line / 60) % 60, line % 60, random.nextInt(1000), levels[random.nextInt(levels.length)],
+                    random.nextInt(16), random.nextInt(1_000_000), random.nextInt(500)));
+            }
+        }
+    },
+
+    /** Lines of wide CJK ideographs separated by spaces and punctuation. */
+    CJK {
+        @Override
+        void generate(StringBuilder out, Random random) {
+            while (out.length() < SIZE) {
+                int lineLength = 10 + random.nextInt(60);
+                for (int i = 0; i < lineLength; i++) {
+                    if (random.nextInt(8) == 0) out.append(random.nextBoolean() ? ' ' : '。');
+                    else out.append((char) (0x4E00 + random.nextInt(0x9FFF - 0x4E00)));
+                }
+                out.append("\r\n");
+            }
+        }
+    },
+
+    /** ASCII words mixed with emoji, which are surrogate pairs, some followed by a variation selector. */
+    EMOJI {
+        @Override
+        void generate(StringBuilder out, Random random) {
+            while (out.length() < SIZE) {
+                int words = 3 + random.nextInt(12);
+                for (int i = 0; i < words; i++) {
+                    if (random.nextInt(3) == 0) {
+                        out.appendCodePoint(0x1F600 + random.nextInt(0x50));
+                        if (random.nextInt(4) == 0) out.append('\uFE0F');
+                    } else {
+                        out.append("word").append(i);
+                    }
+                    out.append(' ');
+                }
+                out.append("\r\n");
+            }
+        }
+    },
+
+    /** The output of ls --color, which changes the SGR attributes for each file name. */
+    SGR_LS_COLOR {
+        @Override
+        void generate(StringBuilder out, Random random) {
+            String[] colors = {"01;34", "01;32", "01;36", "00;31", "01;35", "40;33;01", "38;5;208", "38;2;255;128;0"};
+            while (out.length() < SIZE) {
+                for (int column = 0; column < 4; column++) {
+                    out.append("\033[0m\033[").append(colors[random.nextInt(colors.length)]).append('m')
+                        .append("file-").append(random.nextInt(100_000)).append(".txt")
+                        .append("\033[0m  ");
+                }
+                out.append("\r\n");
+            }
+        }
+    },
+
+    /** Full screen redraws and scrolling of a text editor such as vim, using a scroll region and line deletion. */
+    VIM_REDRAW {
+        @Override
+        void generate(StringBuilder out, Random random) {
+            while (out.length() < SIZE) {
+                out.append("\033[?25l\033[H\033[2J\033[1;23r");
+                for (int row = 1; row < ROWS; row++) {
+                    out.append("\033[").append(row).append(";1H\033[38;5;130m").append(String.format(Locale.US, "%4d ", row))
+                        .append("\033[m");
+                    appendCode(out, random);
+                    out.append("\033[K");
+                }
+                // Scroll down a few lines, as when moving the cursor past the bottom of the screen.
+                for (int i = 0; i < 5; i++) {
+                    out.append("\033[1;1H\033[M\033[23;1H\033[38;5;130m").append(String.format(Locale.US, "%4d ", ROWS + i))
+                        .append("\033[m");
+                    appendCode(out, random);
+                }
+                out.append("\033[r\033[24;1H\033[1m-- INSERT --\033[m\033[24;63H").append(random.nextInt(1000)).append(",1")
+                    .append("\033[5;10H\033[?25h");
+            }
+        }
+
+        private void appendCode(StringBuilder out, Random random) {
+            out.append("    \033[38;5;28mif\033[m (value").append(random.nextInt(100)).append(" \033[38;5;88m==\033[m ")
+                .append("\033[38;5;125m\"string\"\033[m) { \033[38;5;20mreturn\033[m; }");
+        }
+    },
+
+    /** A process monitor like htop, updating individual fields on the screen using cursor addressing. */
+    HTOP_CURSOR_ADDRESSING {
+        @Override
+        void generate(StringBuilder out, Random random) {
+            while (out.length() < SIZE) {
+                for (int cpu = 0; cpu < 8; cpu++) {
+                    int usage = random.nextInt(100);
+                    out.append("\033[").append(cpu + 1).append(";3H\033[1m").append(cpu).append("\033[m[\033[32m");
+                    for (int i = 0; i < 30; i++) out.append(i < usage * 30 / 100 ? '|' : ' ');
+                    out.append(String.format(Locale.US, "\033[m%5.1f%%]", usage + random.nextInt(10) / 10f));
+                }
+                for (int process = 0; process < 14; process++) {
+                    out.append("\033[").append(process + 10).append(";1H");
+                    if (process == 0) out.append("\033[30;46m");
+                    out.append(String.format(Locale.US, "%7d root      20   0 %6dM %5dM S %4.1f  0.3  0:%02d.%02d command-%d",
+                        random.nextInt(100_000), random.nextInt(10_000), random.nextInt(1000), random.nextInt(100) / 10f,
+                        random.nextInt(60), random.nextInt(100), process));
+                    out.append("\033[K\033[m");
+                }
+            }
+        }
+    };
+
+    /** The approximate number of chars in each corpus. */
+    static final int SIZE = 256 * 1024;
+
+    /** The screen size the corpora are generated for. */
+    public static final int COLUMNS = 80;
+    public static final int ROWS = 24;
+
+    private byte[] mBytes;
+
+    abstract void generate(StringBuilder out, Random random);
+
+    /** The corpus encoded as UTF-8, as received from the process. */
+    public synchronized byte[] getBytes() {
+        if (mBytes == null) {
+            StringBuilder out = new StringBuilder(SIZE + 1024);
+            generate(out, new Random(ordinal()));
+            mBytes = out.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        return mBytes;
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.termux.terminal.benchmark;
+
+import com.termux.terminal.TerminalEmulator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reflowing a full transcript when the terminal is resized, as on rotation or when the soft keyboard is shown. Each
+ * invocation resizes to a narrower width and back, which reflows the transcript twice.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResizeBenchmark {
+
+    @Param({"ASCII_LOG", "CJK", "SGR_LS_COLOR"})
+    Corpus corpus;
+
+    @Param({"2000"})
+    int transcriptRows;
+
+    @Param({"57"})
+    int narrowColumns;
+
+    private TerminalEmulator mEmulator;
+
+    @Setup
+    public void setup() {
+        mEmulator = BenchmarkTerminalOutput.newEmulator(transcriptRows);
+        byte[] bytes = corpus.getBytes();
+        mEmulator.append(bytes, bytes.length);
+    }
+
+    @Benchmark
+    public int resize() {
+        mEmulator.resize(narrowColumns, Corpus.ROWS, 12, 12);
+        mEmulator.resize(Corpus.COLUMNS, Corpus.ROWS, 12, 12);
+        return mEmulator.getScreen().getActiveTranscriptRows();
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.termux.terminal.benchmark;
+
+import com.termux.terminal.TerminalBuffer;
+import com.termux.terminal.TerminalEmulator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** Extracting text from the terminal, as done for selections, sharing the transcript and URL selection. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TranscriptBenchmark {
+
+    @Param({"ASCII_LOG", "CJK", "EMOJI"})
+    Corpus corpus;
+
+    @Param({"2000"})
+    int transcriptRows;
+
+    private TerminalBuffer mScreen;
+
+    @Setup
+    public void setup() {
+        TerminalEmulator emulator = BenchmarkTerminalOutput.newEmulator(transcriptRows);
+        byte[] bytes = corpus.getBytes();
+        emulator.append(bytes, bytes.length);
+        mScreen = emulator.getScreen();
+    }
+
+    @Benchmark
+    public String getTranscriptText() {
+        return mScreen.getTranscriptText();
+    }
+
+    @Benchmark
+    public String getSelectedTextOfScreen() {
+        return mScreen.getSelectedText(0, 0, Corpus.COLUMNS, Corpus.ROWS - 1);
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.termux.terminal.benchmark;
+
+import com.termux.terminal.WcWidth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Looking up the display width of code points with {@link WcWidth#width(int)}, reported per lookup. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WcWidthBenchmark {
+
+    private static final int CODE_POINTS = 4096;
+
+    /** Ranges of code points to look up. */
+    public enum CodePoints {
+        ASCII(0x20, 0x7F),
+        /** Latin, Greek and Cyrillic letters, including combining diacritical marks. */
+        ALPHABETIC(0xC0, 0x500),
+        CJK(0x4E00, 0xA000),
+        EMOJI(0x1F300, 0x1FA00),
+        ALL(0, 0x110000);
+
+        final int mStart;
+        final int mEnd;
+
+        CodePoints(int start, int end) {
+            mStart = start;
+            mEnd = end;
+        }
+    }
+
+    @Param
+    CodePoints codePoints;
+
+    private int[] mCodePoints;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        mCodePoints = new int[CODE_POINTS];
+        for (int i = 0; i < CODE_POINTS; i++)
+            mCodePoints[i] = codePoints.mStart + random.nextInt(codePoints.mEnd - codePoints.mStart);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CODE_POINTS)
+    public int width() {
+        int sum = 0;
+        for (int codePoint : mCodePoints) sum += WcWidth.width(codePoint);
+        return sum;
+    }
+
+}
@@ -1,54 +1,129 @@
 package com.termux.terminal;
 
-/** A circular byte buffer allowing one producer and one consumer thread. */
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A circular byte buffer allowing one producer and one consumer thread.
+ * <p/>
+ * The queue is lock free: the producer only advances {@link #mTail} and the consumer only advances {@link #mHead}, with
+ * the volatile writes of these publishing the bytes written or the space freed to the other thread. A thread only parks
+ * when the queue is empty (consumer) or full (producer), and is then unparked by the other thread.
+ */
 final class ByteQueue {
 
+    /** Receiver of bytes drained from the queue by {@link #drainTo(Consumer, int, boolean)}. */
+    interface Consumer {
+        /** Consume the specified bytes, which are only valid until this method returns. */
+        void accept(byte[] buffer, int offset, int length);
+    }
+
     private final byte[] mBuffer;
-    private int mHead;
-    private int mStoredBytes;
-    private boolean mOpen = true;
+    /** The total number of bytes read from the queue, only written by the consumer. */
+    private volatile long mHead;
+    /** The total number of bytes written to the queue, only written by the producer. */
+    private volatile long mTail;
+    private volatile boolean mOpen = true;
+    /** The consumer if parked waiting for the queue to be non-empty. */
+    private volatile Thread mParkedConsumer;
+    /** The producer if parked waiting for the queue to be non-full. */
+    private volatile Thread mParkedProducer;
+    /** A thread parked in {@link #awaitFreeSpace()}, which is not required to be the producer. */
+    private volatile Thread mParkedSpaceWaiter;
 
     public ByteQueue(int size) {
         mBuffer = new byte[size];
     }
 
-    public synchronized void close() {
+    public void close() {
         mOpen = false;
-        notify();
+        unpark(mParkedConsumer);
+        unpark(mParkedProducer);
+        unpark(mParkedSpaceWaiter);
     }
 
-    public synchronized int read(byte[] buffer, boolean block) {
-        while (mStoredBytes == 0 && mOpen) {
-            if (block) {
-                try {
-                    wait();
-                } catch (InterruptedException e) {
-                    // Ignore.
-                }
-            } else {
-                return 0;
-            }
+    /** The number of bytes in the queue, which may be outdated by the time it is used if called by another thread. */
+    public int getStoredBytes() {
+        return (int) (mTail - mHead);
+    }
+
+    public int read(byte[] buffer, boolean block) {
+        return read(buffer, buffer.length, block);
+    }
+
+    /** Read at most the specified number of bytes into the start of the buffer. */
+    public int read(byte[] buffer, int maxLength, boolean block) {
+        final int storedBytes = awaitStoredBytes(block);
+        if (storedBytes <= 0) return storedBytes;
+
+        final int bufferLength = mBuffer.length;
+        final long head = mHead;
+        final int length = Math.min(storedBytes, Math.min(maxLength, buffer.length));
+        final int headIndex = (int) (head % bufferLength);
+        final int firstRun = Math.min(length, bufferLength - headIndex);
+        System.arraycopy(mBuffer, headIndex, buffer, 0, firstRun);
+        System.arraycopy(mBuffer, 0, buffer, firstRun, length - firstRun);
+        release(head + length);
+        return length;
+    }
+
+    /**
+     * Hand at most the specified number of bytes to the consumer directly from the queue storage, as at most two
+     * contiguous slices (when wrapping around the end of the storage), avoiding a copy into an intermediate buffer.
+     *
+     * @return the number of bytes drained, 0 if non-blocking and the queue is empty, or -1 if the queue is closed.
+     */
+    public int drainTo(Consumer consumer, int maxLength, boolean block) {
+        final int storedBytes = awaitStoredBytes(block);
+        if (storedBytes <= 0) return storedBytes;
+
+        final int bufferLength = mBuffer.length;
+        final long head = mHead;
+        final int length = Math.min(storedBytes, maxLength);
+        final int headIndex = (int) (head % bufferLength);
+        final int firstRun = Math.min(length, bufferLength - headIndex);
+        consumer.accept(mBuffer, headIndex, firstRun);
+        release(head + firstRun);
+        if (firstRun < length) {
+            consumer.accept(mBuffer, 0, length - firstRun);
+            release(head + length);
         }
-        if (!mOpen) return -1;
+        return length;
+    }
 
-        int totalRead = 0;
-        int bufferLength = mBuffer.length;
-        boolean wasFull = bufferLength == mStoredBytes;
-        int length = buffer.length;
-        int offset = 0;
-        while (length > 0 && mStoredBytes > 0) {
-            int oneRun = Math.min(bufferLength - mHead, mStoredBytes);
-            int bytesToCopy = Math.min(length, oneRun);
-            System.arraycopy(mBuffer, mHead, buffer, offset, bytesToCopy);
-            mHead += bytesToCopy;
-            if (mHead >= bufferLength) mHead = 0;
-            mStoredBytes -= bytesToCopy;
-            length -= bytesToCopy;
-            offset += bytesToCopy;
-            totalRead += bytesToCopy;
+    /**
+     * Wait, if blocking, until there are bytes to read.
+     *
+     * @return the number of bytes stored, 0 if non-blocking and the queue is empty, or -1 if the queue is closed.
+     */
+    private int awaitStoredBytes(boolean block) {
+        final long head = mHead;
+        while (true) {
+            if (!mOpen) return -1;
+            final int storedBytes = (int) (mTail - head);
+            if (storedBytes > 0 || !block) return storedBytes;
+
+            mParkedConsumer = Thread.currentThread();
+            // Check again after publishing the parked consumer, as the producer may have written before seeing it:
+            if (mTail == head && mOpen) {
+                LockSupport.park(this);
+                // Ignore interrupts, which would otherwise cause park() to return immediately.
+                Thread.interrupted();
+            }
+            mParkedConsumer = null;
         }
-        if (wasFull) notify();
-        return totalRead;
+    }
+
+    /** Make the space up to the specified head available to the producer. */
+    private void release(long newHead) {
+        mHead = newHead;
+        unpark(mParkedProducer);
+        unpark(mParkedSpaceWaiter);
+    }
+
+    private static void unpark(Thread thread) {
+        if (thread != null) LockSupport.unpark(thread);
     }
 
     /**
@@ -64,45 +139,114 @@ final class ByteQueue {
         }
 
         final int bufferLength = mBuffer.length;
+        long tail = mTail;
 
-        synchronized (this) {
-            while (lengthToWrite > 0) {
-                while (bufferLength == mStoredBytes && mOpen) {
-                    try {
-                        wait();
-                    } catch (InterruptedException e) {
-                        // Ignore.
-                    }
-                }
-                if (!mOpen) return false;
-                final boolean wasEmpty = mStoredBytes == 0;
-                int bytesToWriteBeforeWaiting = Math.min(lengthToWrite, bufferLength - mStoredBytes);
-                lengthToWrite -= bytesToWriteBeforeWaiting;
-
-                while (bytesToWriteBeforeWaiting > 0) {
-                    int tail = mHead + mStoredBytes;
-                    int oneRun;
-                    if (tail >= bufferLength) {
-                        // Buffer: [.............]
-                        // ________________H_______T
-                        // =>
-                        // Buffer: [.............]
-                        // ___________T____H
-                        // onRun= _____----_
-                        tail = tail - bufferLength;
-                        oneRun = mHead - tail;
-                    } else {
-                        oneRun = bufferLength - tail;
-                    }
-                    int bytesToCopy = Math.min(oneRun, bytesToWriteBeforeWaiting);
-                    System.arraycopy(buffer, offset, mBuffer, tail, bytesToCopy);
-                    offset += bytesToCopy;
-                    bytesToWriteBeforeWaiting -= bytesToCopy;
-                    mStoredBytes += bytesToCopy;
-                }
-                if (wasEmpty) notify();
-            }
+        while (lengthToWrite > 0) {
+            final int freeBytes = awaitFreeBytes(tail);
+            if (freeBytes == -1) return false;
+
+            final int bytesToCopy = Math.min(lengthToWrite, freeBytes);
+            final int tailIndex = (int) (tail % bufferLength);
+            final int firstRun = Math.min(bytesToCopy, bufferLength - tailIndex);
+            System.arraycopy(buffer, offset, mBuffer, tailIndex, firstRun);
+            System.arraycopy(buffer, offset + firstRun, mBuffer, 0, bytesToCopy - firstRun);
+            offset += bytesToCopy;
+            lengthToWrite -= bytesToCopy;
+            tail += bytesToCopy;
+
+            mTail = tail;
+            unpark(mParkedConsumer);
         }
         return true;
     }
+
+    /**
+     * Wait, as the producer, until the queue has free space.
+     *
+     * @return the number of free bytes, or -1 if the queue is closed.
+     */
+    private int awaitFreeBytes(long tail) {
+        final int bufferLength = mBuffer.length;
+        while (true) {
+            if (!mOpen) return -1;
+            final int freeBytes = bufferLength - (int) (tail - mHead);
+            if (freeBytes > 0) return freeBytes;
+
+            mParkedProducer = Thread.currentThread();
+            // Check again after publishing the parked producer, as the consumer may have read before seeing it:
+            if (tail - mHead == bufferLength && mOpen) {
+                LockSupport.park(this);
+                // Ignore interrupts, which would otherwise cause park() to return immediately.
+                Thread.interrupted();
+            }
+            mParkedProducer = null;
+        }
+    }
+
+    /**
+     * Read from the stream directly into the free space of the queue storage, avoiding the copy from an intermediate
+     * buffer done by {@link #write(byte[], int, int)}, after waiting for free space if the queue is full. The space is
+     * only published to the consumer once read into, so it is safe to block in the read.
+     *
+     * @param maxLength the max number of bytes to read, which is also limited by the contiguous free space.
+     * @return the number of bytes read, or -1 if the stream has ended or the queue is closed.
+     */
+    public int fillFrom(InputStream in, int maxLength) throws IOException {
+        final long tail = mTail;
+        final int freeBytes = awaitFreeBytes(tail);
+        if (freeBytes == -1) return -1;
+
+        final int bufferLength = mBuffer.length;
+        final int tailIndex = (int) (tail % bufferLength);
+        final int read = in.read(mBuffer, tailIndex, Math.min(maxLength, Math.min(freeBytes, bufferLength - tailIndex)));
+        if (read <= 0) return -1;
+        mTail = tail + read;
+        unpark(mParkedConsumer);
+        return read;
+    }
+
+    /**
+     * Write as much of the specified portion of the provided buffer as currently fits in the queue without blocking.
+     *
+     * @return the number of bytes written, or -1 if the queue is closed.
+     */
+    public int offer(byte[] buffer, int offset, int length) {
+        if (!mOpen) return -1;
+        final int bufferLength = mBuffer.length;
+        final long tail = mTail;
+        final int bytesToCopy = Math.min(length, bufferLength - (int) (tail - mHead));
+        if (bytesToCopy <= 0) return 0;
+
+        final int tailIndex = (int) (tail % bufferLength);
+        final int firstRun = Math.min(bytesToCopy, bufferLength - tailIndex);
+        System.arraycopy(buffer, offset, mBuffer, tailIndex, firstRun);
+        System.arraycopy(buffer, offset + firstRun, mBuffer, 0, bytesToCopy - firstRun);
+        mTail = tail + bytesToCopy;
+        unpark(mParkedConsumer);
+        return bytesToCopy;
+    }
+
+    /**
+     * Wait until the queue has free space or is closed. Unlike the other methods this may be called by a thread other
+     * than the producer, for instance to wait for space without holding a lock serializing producers, but only by
+     * one such thread at a time.
+     *
+     * @return false if the queue is closed.
+     */
+    public boolean awaitFreeSpace() {
+        final int bufferLength = mBuffer.length;
+        while (true) {
+            if (!mOpen) return false;
+            if (mTail - mHead < bufferLength) return true;
+
+            mParkedSpaceWaiter = Thread.currentThread();
+            // Check again after publishing the parked waiter, as the consumer may have read before seeing it:
+            if (mTail - mHead == bufferLength && mOpen) {
+                LockSupport.park(this);
+                // Ignore interrupts, which would otherwise cause park() to return immediately.
+                Thread.interrupted();
+            }
+            mParkedSpaceWaiter = null;
+        }
+    }
 }
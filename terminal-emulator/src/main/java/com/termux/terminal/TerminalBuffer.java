@@ -1,6 +1,8 @@
 package com.termux.terminal;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * A circular buffer of {@link TerminalRow}:s which keeps notes about what is visible on a logical screen and the scroll
@@ -19,6 +21,40 @@ public final class TerminalBuffer {
     private int mActiveTranscriptRows = 0;
     /** The index in the circular buffer where the visible screen starts. */
     private int mScreenFirstRow = 0;
+    /**
+     * A row no longer used since a compact copy of it replaced it in the transcript, which is reused for the next
+     * line revealed when scrolling instead of allocating one. See {@link #scrollDownOneLine(int, int, long)}.
+     */
+    private TerminalRow mSpareRow;
+    /**
+     * The number of times the screen has scrolled down one line, so that {@code mScrollCount + externalRow} identifies
+     * a row independently of later scrolling. See {@link #getScrollCount()}.
+     */
+    private long mScrollCount;
+    /** Incremented when rows are moved other than by scrolling, see {@link #getLayoutGeneration()}. */
+    private int mLayoutGeneration;
+
+    /**
+     * The number of transcript rows above the screen which {@link #resize(int, int, int, int[], long, boolean)} reflows
+     * immediately when the number of columns changes, with older rows reflowed later by {@link #reflowPendingRows(int)}.
+     */
+    static final int REFLOW_SYNC_TRANSCRIPT_ROWS = 100;
+    /** The max number of rows of a line reflowed at once, above which it is reflowed as if split into several lines. */
+    private static final int REFLOW_MAX_LINE_ROWS = 1000;
+    /**
+     * Transcript rows, oldest first, left by resizing to be reflowed to the current columns and added above the
+     * transcript by {@link #reflowPendingRows(int)}. They may have different widths if resized several times, which
+     * does not matter as reflowing only depends on their text, styles and wrapping.
+     */
+    private TerminalRow[] mPendingRows;
+    private int mPendingRowCount;
+    /** The style of blank cells in rows reflowed from {@link #mPendingRows}, as used when resizing. */
+    private long mPendingRowsStyle;
+    /**
+     * Where rows dropped from the top of the transcript are kept if set, extending the transcript upwards beyond
+     * {@link #mTotalRows}, see {@link #setTranscriptSpill(TranscriptSpill)}.
+     */
+    private TranscriptSpill mSpill;
 
     /**
      * Create a transcript screen.
@@ -38,14 +74,17 @@ public final class TerminalBuffer {
     }
 
     public String getTranscriptText() {
+        reflowPendingRows(Integer.MAX_VALUE);
         return getSelectedText(0, -getActiveTranscriptRows(), mColumns, mScreenRows).trim();
     }
 
     public String getTranscriptTextWithoutJoinedLines() {
+        reflowPendingRows(Integer.MAX_VALUE);
         return getSelectedText(0, -getActiveTranscriptRows(), mColumns, mScreenRows, false).trim();
     }
 
     public String getTranscriptTextWithFullLinesJoined() {
+        reflowPendingRows(Integer.MAX_VALUE);
         return getSelectedText(0, -getActiveTranscriptRows(), mColumns, mScreenRows, true, true).trim();
     }
 
@@ -73,7 +112,7 @@ public final class TerminalBuffer {
             } else {
                 x2 = columns;
             }
-            TerminalRow lineObject = mLines[externalToInternalRow(row)];
+            TerminalRow lineObject = getRow(row);
             int x1Index = lineObject.findStartOfColumn(x1);
             int x2Index = (x2 < mColumns) ? lineObject.findStartOfColumn(x2) : lineObject.getSpaceUsed();
             if (x2Index == x1Index) {
@@ -83,7 +122,7 @@ public final class TerminalBuffer {
             char[] line = lineObject.mText;
             int lastPrintingCharIndex = -1;
             int i;
-            boolean rowLineWrap = getLineWrap(row);
+            boolean rowLineWrap = lineObject.mLineWrap;
             if (rowLineWrap && x2 == columns) {
                 // If the line was wrapped, we shouldn't lose trailing space:
                 lastPrintingCharIndex = x2Index - 1;
@@ -144,12 +183,62 @@ public final class TerminalBuffer {
         return text.substring(x1 + 1, x2);
     }
 
+    /** The number of rows in the transcript, including those in the {@link #setTranscriptSpill(TranscriptSpill) spill}. */
     public int getActiveTranscriptRows() {
-        return mActiveTranscriptRows;
+        return mActiveTranscriptRows + getSpilledTranscriptRows();
     }
 
     public int getActiveRows() {
-        return mActiveTranscriptRows + mScreenRows;
+        return getActiveTranscriptRows() + mScreenRows;
+    }
+
+    /** The number of the oldest transcript rows which are kept in the spill instead of in memory. */
+    public int getSpilledTranscriptRows() {
+        return (mSpill == null) ? 0 : mSpill.getRowCount();
+    }
+
+    /**
+     * Set where to keep the rows dropped from the top of the transcript when it is full, so that the transcript keeps
+     * growing without using more memory, or null to drop them. A previous spill is closed along with its rows.
+     */
+    public void setTranscriptSpill(TranscriptSpill spill) {
+        if (mSpill == spill) return;
+        if (mSpill != null) {
+            mSpill.close();
+            mLayoutGeneration++;
+        }
+        mSpill = spill;
+    }
+
+    /**
+     * The row at the specified external row, which unlike {@link #externalToInternalRow(int)} may also be one of the
+     * rows above the transcript in memory which are kept in the spill, read back as needed. Rows from the spill must not
+     * be changed, and are only valid until the buffer is changed.
+     */
+    public TerminalRow getRow(int externalRow) {
+        if (externalRow < -mActiveTranscriptRows && mSpill != null) {
+            final int spilledRows = mSpill.getRowCount();
+            final int index = spilledRows + mActiveTranscriptRows + externalRow;
+            if (index >= 0) return mSpill.getRow(index, mColumns);
+        }
+        return allocateFullLineIfNecessary(externalToInternalRow(externalRow));
+    }
+
+    /**
+     * The number of times the screen has scrolled down one line. Adding this to an external row gives an absolute row
+     * number which keeps referring to the same row as it scrolls into and through the transcript, until it is dropped
+     * or the {@link #getLayoutGeneration()} changes.
+     */
+    public long getScrollCount() {
+        return mScrollCount;
+    }
+
+    /**
+     * A counter incremented when the rows are moved other than by scrolling, as when resizing or clearing the
+     * transcript, invalidating absolute row numbers (see {@link #getScrollCount()}) and anything derived from them.
+     */
+    public int getLayoutGeneration() {
+        return mLayoutGeneration;
     }
 
     /**
@@ -160,6 +249,9 @@ public final class TerminalBuffer {
      * - Internal coordinate system: the mScreenRows lines starting at mScreenFirstRow comprise the screen, while the
      *   mActiveTranscriptRows lines ending at mScreenFirstRow-1 form the transcript (as a circular buffer).
      *
+     * Rows in the transcript spill, which are above -mActiveTranscriptRows, are not in the internal coordinate system and
+     * are accessed with getRow().
+     *
      * External ↔ Internal:
      *
      * [ ...                            ]     [ ...                                     ]
@@ -185,7 +277,7 @@ public final class TerminalBuffer {
     }
 
     public boolean getLineWrap(int row) {
-        return mLines[externalToInternalRow(row)].mLineWrap;
+        return getRow(row).mLineWrap;
     }
 
     public void clearLineWrap(int row) {
@@ -201,6 +293,7 @@ public final class TerminalBuffer {
      * @param cursor     An int[2] containing the (column, row) cursor location.
      */
     public void resize(int newColumns, int newRows, int newTotalRows, int[] cursor, long currentStyle, boolean altScreen) {
+        mLayoutGeneration++;
         // newRows > mTotalRows should not normally happen since mTotalRows is TRANSCRIPT_ROWS (10000):
         if (newColumns == mColumns && newRows <= mTotalRows) {
             // Fast resize where just the rows changed.
@@ -225,6 +318,7 @@ public final class TerminalBuffer {
                 }
             }
             mScreenFirstRow += shiftDownOfTopRow;
+            mScrollCount += shiftDownOfTopRow;
             mScreenFirstRow = (mScreenFirstRow < 0) ? (mScreenFirstRow + mTotalRows) : (mScreenFirstRow % mTotalRows);
             mTotalRows = newTotalRows;
             mActiveTranscriptRows = altScreen ? 0 : Math.max(0, mActiveTranscriptRows + shiftDownOfTopRow);
@@ -234,8 +328,10 @@ public final class TerminalBuffer {
             // Copy away old state and update new:
             TerminalRow[] oldLines = mLines;
             mLines = new TerminalRow[newTotalRows];
-            for (int i = 0; i < newTotalRows; i++)
+            // Only the screen rows are allocated here, as the transcript is filled by scrolling them:
+            for (int i = 0; i < newRows; i++)
                 mLines[i] = new TerminalRow(newColumns, currentStyle);
+            mSpareRow = null;
 
             final int oldActiveTranscriptRows = mActiveTranscriptRows;
             final int oldScreenFirstRow = mScreenFirstRow;
@@ -252,6 +348,25 @@ public final class TerminalBuffer {
             int oldCursorColumn = cursor[0];
             boolean newCursorPlaced = false;
 
+            // Only reflow the screen and the newest transcript rows now, starting at the start of a line, so that the
+            // time this takes does not grow with the transcript. The older rows are kept to be reflowed later:
+            int firstReflowedOldRow = -Math.min(oldActiveTranscriptRows, REFLOW_SYNC_TRANSCRIPT_ROWS);
+            for (int lineRows = 1; firstReflowedOldRow > -oldActiveTranscriptRows && lineRows < REFLOW_MAX_LINE_ROWS; lineRows++) {
+                TerminalRow previousRow = oldLines[toInternalRow(firstReflowedOldRow - 1, oldScreenFirstRow, oldTotalRows)];
+                if (previousRow == null || !previousRow.mLineWrap) break;
+                firstReflowedOldRow--;
+            }
+            if (mSpill == null) {
+                addPendingRows(oldLines, -oldActiveTranscriptRows, firstReflowedOldRow, oldScreenFirstRow, oldTotalRows);
+                mPendingRowsStyle = currentStyle;
+            } else {
+                // The spill is kept in order from the oldest row, so the older rows are added to it as they are:
+                for (int externalOldRow = -oldActiveTranscriptRows; externalOldRow < firstReflowedOldRow; externalOldRow++) {
+                    TerminalRow oldLine = oldLines[toInternalRow(externalOldRow, oldScreenFirstRow, oldTotalRows)];
+                    if (oldLine != null) mSpill.add(oldLine);
+                }
+            }
+
             int currentOutputExternalRow = 0;
             int currentOutputExternalColumn = 0;
 
@@ -259,10 +374,8 @@ public final class TerminalBuffer {
             // Blank lines should be skipped only if at end of transcript (just as is done in the "fast" resize), so we
             // keep track how many blank lines we have skipped if we later on find a non-blank line.
             int skippedBlankLines = 0;
-            for (int externalOldRow = -oldActiveTranscriptRows; externalOldRow < oldScreenRows; externalOldRow++) {
-                // Do what externalToInternalRow() does but for the old state:
-                int internalOldRow = oldScreenFirstRow + externalOldRow;
-                internalOldRow = (internalOldRow < 0) ? (oldTotalRows + internalOldRow) : (internalOldRow % oldTotalRows);
+            for (int externalOldRow = firstReflowedOldRow; externalOldRow < oldScreenRows; externalOldRow++) {
+                int internalOldRow = toInternalRow(externalOldRow, oldScreenFirstRow, oldTotalRows);
 
                 TerminalRow oldLine = oldLines[internalOldRow];
                 boolean cursorAtThisRow = externalOldRow == oldCursorRow;
@@ -353,6 +466,130 @@ public final class TerminalBuffer {
         if (cursor[0] < 0 || cursor[1] < 0) cursor[0] = cursor[1] = 0;
     }
 
+    /** Do what {@link #externalToInternalRow(int)} does but for the specified (old) state. */
+    private static int toInternalRow(int externalRow, int screenFirstRow, int totalRows) {
+        final int internalRow = screenFirstRow + externalRow;
+        return (internalRow < 0) ? (totalRows + internalRow) : (internalRow % totalRows);
+    }
+
+    /** Add the specified old transcript rows after the rows already pending, see {@link #mPendingRows}. */
+    private void addPendingRows(TerminalRow[] oldLines, int firstExternalRow, int endExternalRow, int oldScreenFirstRow, int oldTotalRows) {
+        final int addedRows = endExternalRow - firstExternalRow;
+        if (addedRows <= 0) return;
+        final int rowCount = mPendingRowCount + addedRows;
+        if (mPendingRows == null) {
+            mPendingRows = new TerminalRow[rowCount];
+        } else if (mPendingRows.length < rowCount) {
+            mPendingRows = Arrays.copyOf(mPendingRows, Math.max(rowCount, mPendingRows.length * 2));
+        }
+        for (int i = 0; i < addedRows; i++)
+            mPendingRows[mPendingRowCount + i] = oldLines[toInternalRow(firstExternalRow + i, oldScreenFirstRow, oldTotalRows)];
+        mPendingRowCount = rowCount;
+
+        // Bound what is kept if resized repeatedly, to enough rows to fill the transcript unless more than doubling the width:
+        final int maxRows = 2 * (mTotalRows - mScreenRows);
+        if (mPendingRowCount > maxRows) {
+            final int droppedRows = mPendingRowCount - maxRows;
+            System.arraycopy(mPendingRows, droppedRows, mPendingRows, 0, maxRows);
+            Arrays.fill(mPendingRows, maxRows, mPendingRowCount, null);
+            mPendingRowCount = maxRows;
+        }
+    }
+
+    /** If there are transcript rows left by resizing still to be reflowed by {@link #reflowPendingRows(int)}. */
+    public boolean hasPendingRows() {
+        return mPendingRowCount > 0;
+    }
+
+    /**
+     * Reflow transcript rows left by resizing to the current number of columns, adding them above the transcript, a
+     * line at a time from the newest until at least the specified number of rows have been added or the transcript is
+     * full, in which case the remaining rows are dropped. When all rows have been added the
+     * {@link #getLayoutGeneration()} is incremented, as the absolute rows of the transcript then have changed.
+     * <p/>
+     * This is called repeatedly after resizing, by {@link TerminalSession#updateSize(int, int, int, int)}, to spread
+     * the reflow of a large transcript, and completes it before reading the whole transcript.
+     *
+     * @return if there are rows left to reflow.
+     */
+    public boolean reflowPendingRows(int maxRows) {
+        if (mPendingRowCount == 0) return false;
+        final int maxTranscriptRows = mTotalRows - mScreenRows;
+        final TerminalRow outputRow = new TerminalRow(mColumns, mPendingRowsStyle);
+        final ArrayList<TerminalRow> lineRows = new ArrayList<>();
+        int addedRows = 0;
+        while (mPendingRowCount > 0 && addedRows < maxRows && mActiveTranscriptRows < maxTranscriptRows) {
+            int lineStart = mPendingRowCount - 1;
+            while (lineStart > 0 && mPendingRowCount - lineStart < REFLOW_MAX_LINE_ROWS
+                && mPendingRows[lineStart - 1] != null && mPendingRows[lineStart - 1].mLineWrap) lineStart--;
+
+            lineRows.clear();
+            reflowLine(lineStart, mPendingRowCount, outputRow, lineRows);
+            for (int i = lineRows.size() - 1; i >= 0 && mActiveTranscriptRows < maxTranscriptRows; i--) {
+                mLines[toInternalRow(-mActiveTranscriptRows - 1, mScreenFirstRow, mTotalRows)] = lineRows.get(i);
+                mActiveTranscriptRows++;
+                addedRows++;
+            }
+            Arrays.fill(mPendingRows, lineStart, mPendingRowCount, null);
+            mPendingRowCount = lineStart;
+        }
+
+        // Rows which do not fit would have been dropped when reflowing all at once:
+        if (mActiveTranscriptRows == maxTranscriptRows) mPendingRowCount = 0;
+        if (mPendingRowCount > 0) return true;
+        mPendingRows = null;
+        mLayoutGeneration++;
+        return false;
+    }
+
+    /**
+     * Reflow the pending rows in the specified range, which are all wrapped except possibly the last one, into rows of
+     * the current number of columns, like {@link #resize(int, int, int, int[], long, boolean)} does.
+     */
+    private void reflowLine(int startIndex, int endIndex, TerminalRow outputRow, List<TerminalRow> lineRows) {
+        outputRow.clear(mPendingRowsStyle);
+        int outputColumn = 0;
+        boolean lineWrap = false;
+        for (int rowIndex = startIndex; rowIndex < endIndex; rowIndex++) {
+            final TerminalRow oldLine = mPendingRows[rowIndex];
+            if (oldLine == null) continue;
+            lineWrap = oldLine.mLineWrap;
+
+            int lastNonSpaceIndex = oldLine.getSpaceUsed();
+            if (!lineWrap) {
+                while (lastNonSpaceIndex > 0 && oldLine.mText[lastNonSpaceIndex - 1] == ' ') lastNonSpaceIndex--;
+            }
+
+            int currentOldCol = 0;
+            long styleAtCol = 0;
+            for (int i = 0; i < lastNonSpaceIndex; i++) {
+                char c = oldLine.mText[i];
+                int codePoint = (Character.isHighSurrogate(c)) ? Character.toCodePoint(c, oldLine.mText[++i]) : c;
+                int displayWidth = WcWidth.width(codePoint);
+                // Use the last style if this is a zero-width character:
+                if (displayWidth > 0) styleAtCol = oldLine.getStyle(currentOldCol);
+
+                // Line wrap as necessary:
+                if (outputColumn + displayWidth > mColumns) {
+                    outputRow.mLineWrap = true;
+                    lineRows.add(outputRow.compactCopy());
+                    outputRow.clear(mPendingRowsStyle);
+                    outputColumn = 0;
+                }
+
+                int offsetDueToCombiningChar = ((displayWidth <= 0 && outputColumn > 0) ? 1 : 0);
+                outputRow.setChar(outputColumn - offsetDueToCombiningChar, codePoint, styleAtCol);
+                if (displayWidth > 0) {
+                    currentOldCol += displayWidth;
+                    outputColumn += displayWidth;
+                }
+            }
+        }
+        // Only wrapped if the line was too long to reflow at once:
+        outputRow.mLineWrap = lineWrap;
+        lineRows.add(outputRow.compactCopy());
+    }
+
     /**
      * Block copy lines and associated metadata from one location to another in the circular buffer, taking wraparound
      * into account.
@@ -385,6 +622,12 @@ public final class TerminalBuffer {
         if (topMargin > bottomMargin - 1 || topMargin < 0 || bottomMargin > mScreenRows)
             throw new IllegalArgumentException("topMargin=" + topMargin + ", bottomMargin=" + bottomMargin + ", mScreenRows=" + mScreenRows);
 
+        // Keep the oldest transcript line in the spill if about to be dropped, before it is moved to be reused:
+        if (mSpill != null && mActiveTranscriptRows > 0 && mActiveTranscriptRows == mTotalRows - mScreenRows) {
+            TerminalRow droppedLine = mLines[externalToInternalRow(-mActiveTranscriptRows)];
+            if (droppedLine != null) mSpill.add(droppedLine);
+        }
+
         // Copy the fixed topMargin lines one line down so that they remain on screen in same position:
         blockCopyLinesDown(mScreenFirstRow, topMargin);
         // Copy the fixed mScreenRows-bottomMargin lines one line down so that they remain on screen in same
@@ -393,15 +636,35 @@ public final class TerminalBuffer {
 
         // Update the screen location in the ring buffer:
         mScreenFirstRow = (mScreenFirstRow + 1) % mTotalRows;
+        mScrollCount++;
         // Note that the history has grown if not already full:
         if (mActiveTranscriptRows < mTotalRows - mScreenRows) mActiveTranscriptRows++;
 
-        // Blank the newly revealed line above the bottom margin:
+        // Replace the line scrolled into the transcript with a compact copy, keeping the line itself for reuse:
+        if (mActiveTranscriptRows > 0) {
+            int transcriptRow = externalToInternalRow(-1);
+            TerminalRow scrolledLine = mLines[transcriptRow];
+            if (scrolledLine != null && !scrolledLine.isCompact()) {
+                mLines[transcriptRow] = scrolledLine.compactCopy();
+                mSpareRow = scrolledLine;
+            }
+        }
+
+        // Blank the newly revealed line above the bottom margin, which is either unused or the oldest transcript line
+        // when the transcript is full:
         int blankRow = externalToInternalRow(bottomMargin - 1);
-        if (mLines[blankRow] == null) {
+        TerminalRow blankLine = mLines[blankRow];
+        if ((blankLine == null || blankLine.isCompact()) && mSpareRow != null) {
+            // Reuse the spare line instead of inflating a compact one or allocating a new one.
+            mLines[blankRow] = blankLine = mSpareRow;
+            mSpareRow = null;
+        }
+        if (blankLine == null) {
             mLines[blankRow] = new TerminalRow(mColumns, style);
         } else {
-            mLines[blankRow].clear(style);
+            blankLine.clear(style);
+            // Whether reused or the oldest transcript line, the line is no longer wrapped:
+            blankLine.mLineWrap = false;
         }
     }
 
@@ -455,6 +718,14 @@ public final class TerminalBuffer {
         allocateFullLineIfNecessary(row).setChar(column, codePoint, style);
     }
 
+    /** Set a run of printable ASCII characters, all with the same style, starting at the specified column. */
+    public void setAsciiChars(int column, int row, byte[] chars, int offset, int length, long style) {
+        if (row < 0 || row >= mScreenRows || column < 0 || column + length > mColumns)
+            throw new IllegalArgumentException("TerminalBuffer.setAsciiChars(): row=" + row + ", column=" + column + ", length=" + length + ", mScreenRows=" + mScreenRows + ", mColumns=" + mColumns);
+        row = externalToInternalRow(row);
+        allocateFullLineIfNecessary(row).setAsciiChars(column, chars, offset, length, style);
+    }
+
     public long getStyleAt(int externalRow, int column) {
         return allocateFullLineIfNecessary(externalToInternalRow(externalRow)).getStyle(column);
     }
@@ -466,8 +737,10 @@ public final class TerminalBuffer {
             TerminalRow line = mLines[externalToInternalRow(y)];
             int startOfLine = (rectangular || y == top) ? left : leftMargin;
             int endOfLine = (rectangular || y + 1 == bottom) ? right : rightMargin;
-            for (int x = startOfLine; x < endOfLine; x++) {
+            // Change the style of each run of cells sharing a style at once:
+            for (int x = startOfLine, runEnd; x < endOfLine; x = runEnd) {
                 long currentStyle = line.getStyle(x);
+                runEnd = Math.min(line.getStyleRunEnd(x), endOfLine);
                 int foreColor = TextStyle.decodeForeColor(currentStyle);
                 int backColor = TextStyle.decodeBackColor(currentStyle);
                 int effect = TextStyle.decodeEffect(currentStyle);
@@ -479,7 +752,7 @@ public final class TerminalBuffer {
                 } else {
                     effect &= ~bits;
                 }
-                line.mStyle[x] = TextStyle.encode(foreColor, backColor, effect);
+                line.setStyles(x, runEnd, TextStyle.encode(foreColor, backColor, effect));
             }
         }
     }
@@ -492,6 +765,10 @@ public final class TerminalBuffer {
             Arrays.fill(mLines, mScreenFirstRow - mActiveTranscriptRows, mScreenFirstRow, null);
         }
         mActiveTranscriptRows = 0;
+        if (mSpill != null) mSpill.clear();
+        mPendingRows = null;
+        mPendingRowCount = 0;
+        mLayoutGeneration++;
     }
 
 }
@@ -35,43 +35,67 @@ public final class TerminalColors {
      * Highest bit is set if successful, so return value is 0xFF${R}${G}${B}. Return 0 if failed.
      */
     static int parse(String c) {
-        try {
-            int skipInitial, skipBetween;
-            if (c.charAt(0) == '#') {
-                // #RGB, #RRGGBB, #RRRGGGBBB or #RRRRGGGGBBBB. Most significant bits.
-                skipInitial = 1;
-                skipBetween = 0;
-            } else if (c.startsWith("rgb:")) {
-                // rgb:<red>/<green>/<blue> where <red>, <green>, <blue> := h | hh | hhh | hhhh. Scaled.
-                skipInitial = 4;
-                skipBetween = 1;
-            } else {
-                return 0;
-            }
-            int charsForColors = c.length() - skipInitial - 2 * skipBetween;
-            if (charsForColors % 3 != 0) return 0; // Unequal lengths.
-            int componentLength = charsForColors / 3;
-            double mult = 255 / (Math.pow(2, componentLength * 4) - 1);
-
-            int currentPosition = skipInitial;
-            String rString = c.substring(currentPosition, currentPosition + componentLength);
-            currentPosition += componentLength + skipBetween;
-            String gString = c.substring(currentPosition, currentPosition + componentLength);
-            currentPosition += componentLength + skipBetween;
-            String bString = c.substring(currentPosition, currentPosition + componentLength);
-
-            int r = (int) (Integer.parseInt(rString, 16) * mult);
-            int g = (int) (Integer.parseInt(gString, 16) * mult);
-            int b = (int) (Integer.parseInt(bString, 16) * mult);
-            return 0xFF << 24 | r << 16 | g << 8 | b;
-        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+        return parse(c, 0, c.length());
+    }
+
+    /**
+     * Parse color like {@link #parse(String)} from the specified range of the text, such as the arguments of an OSC
+     * sequence, without allocating.
+     */
+    static int parse(CharSequence c, int start, int end) {
+        int skipInitial, skipBetween;
+        if (start < end && c.charAt(start) == '#') {
+            // #RGB, #RRGGBB, #RRRGGGBBB or #RRRRGGGGBBBB. Most significant bits.
+            skipInitial = 1;
+            skipBetween = 0;
+        } else if (end - start >= 4 && c.charAt(start) == 'r' && c.charAt(start + 1) == 'g' && c.charAt(start + 2) == 'b'
+            && c.charAt(start + 3) == ':') {
+            // rgb:<red>/<green>/<blue> where <red>, <green>, <blue> := h | hh | hhh | hhhh. Scaled.
+            skipInitial = 4;
+            skipBetween = 1;
+        } else {
             return 0;
         }
+        int charsForColors = end - start - skipInitial - 2 * skipBetween;
+        if (charsForColors <= 0 || charsForColors % 3 != 0) return 0; // Unequal lengths.
+        int componentLength = charsForColors / 3;
+        // Components of more hex digits would overflow an int:
+        if (componentLength > 7) return 0;
+        double mult = 255 / (Math.pow(2, componentLength * 4) - 1);
+
+        int currentPosition = start + skipInitial;
+        int r = parseHex(c, currentPosition, currentPosition + componentLength);
+        currentPosition += componentLength + skipBetween;
+        int g = parseHex(c, currentPosition, currentPosition + componentLength);
+        currentPosition += componentLength + skipBetween;
+        int b = parseHex(c, currentPosition, currentPosition + componentLength);
+        if (r < 0 || g < 0 || b < 0) return 0;
+
+        r = (int) (r * mult);
+        g = (int) (g * mult);
+        b = (int) (b * mult);
+        return 0xFF << 24 | r << 16 | g << 8 | b;
+    }
+
+    /** Parse the hexadecimal number in the specified range of the text, returning -1 if it is not one. */
+    private static int parseHex(CharSequence c, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(c.charAt(i), 16);
+            if (digit < 0) return -1;
+            value = value * 16 + digit;
+        }
+        return value;
     }
 
     /** Try parse a color from a text parameter and into a specified index. */
     public void tryParseColor(int intoIndex, String textParameter) {
-        int c = parse(textParameter);
+        tryParseColor(intoIndex, textParameter, 0, textParameter.length());
+    }
+
+    /** Try parse a color from the specified range of a text parameter and into a specified index. */
+    void tryParseColor(int intoIndex, CharSequence textParameter, int start, int end) {
+        int c = parse(textParameter, start, end);
         if (c != 0) mCurrentColors[intoIndex] = c;
     }
 
@@ -365,6 +365,12 @@ public final class TerminalEmulator {
     private final byte[] mUtf8InputBuffer = new byte[4];
     private int mLastEmittedCodePoint = -1;
 
+    /**
+     * Incremented each time the terminal state is changed by {@link #append(byte[], int)}, {@link #resize(int, int, int, int)}
+     * or {@link #reset()}, so that readers on other threads can detect changes. See {@link #getGeneration()}.
+     */
+    private int mGeneration;
+
     public final TerminalColors mColors = new TerminalColors();
 
     private boolean isDecsetInternalBitSet(int bit) {
@@ -466,6 +472,7 @@ public final class TerminalEmulator {
     }
 
     public void resize(int columns, int rows, int cellWidthPixels, int cellHeightPixels) {
+        mGeneration++;
         this.mCellWidthPixels = cellWidthPixels;
         this.mCellHeightPixels = cellHeightPixels;
 
@@ -503,6 +510,39 @@ public final class TerminalEmulator {
         mCursorRow = cursor[1];
     }
 
+    /**
+     * Set where to keep rows dropped from the transcript of the main buffer when it is full, or null to drop them, see
+     * {@link TerminalBuffer#setTranscriptSpill(TranscriptSpill)}.
+     */
+    public void setTranscriptSpill(TranscriptSpill spill) {
+        mGeneration++;
+        mMainBuffer.setTranscriptSpill(spill);
+    }
+
+    /** If the main buffer has transcript rows left by resizing to reflow, see {@link TerminalBuffer#hasPendingRows()}. */
+    public boolean hasPendingTranscriptRows() {
+        return mMainBuffer.hasPendingRows();
+    }
+
+    /**
+     * Reflow some of the transcript rows left by resizing the main buffer, see {@link TerminalBuffer#reflowPendingRows(int)}.
+     *
+     * @return if there are rows left to reflow.
+     */
+    public boolean reflowPendingTranscriptRows(int maxRows) {
+        if (!mMainBuffer.hasPendingRows()) return false;
+        mGeneration++;
+        return mMainBuffer.reflowPendingRows(maxRows);
+    }
+
+    /**
+     * The number of times the terminal state has been changed. When emulation is performed on a separate thread the
+     * emulator monitor should be held while reading this together with the rest of the state.
+     */
+    public int getGeneration() {
+        return mGeneration;
+    }
+
     public int getCursorRow() {
         return mCursorRow;
     }
@@ -542,6 +582,11 @@ public final class TerminalEmulator {
         return isDecsetInternalBitSet(DECSET_BIT_APPLICATION_CURSOR_KEYS);
     }
 
+    /** If DECSET 2004 is set, see {@link #paste(String)}. */
+    public boolean isBracketedPasteMode() {
+        return isDecsetInternalBitSet(DECSET_BIT_BRACKETED_PASTE_MODE);
+    }
+
     /**
      * If mouse events are being sent as escape codes to the terminal.
      */
@@ -561,8 +606,80 @@ public final class TerminalEmulator {
      * @param length the number of bytes in the array to process
      */
     public void append(byte[] buffer, int length) {
-        for (int i = 0; i < length; i++)
-            processByte(buffer[i]);
+        append(buffer, 0, length);
+    }
+
+    /**
+     * Accept bytes (typically from the pseudo-teletype) and process them.
+     *
+     * @param buffer a byte array containing the bytes to be processed
+     * @param offset the index of the first byte in the array to process
+     * @param length the number of bytes in the array to process
+     */
+    public void append(byte[] buffer, int offset, int length) {
+        mGeneration++;
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            if (isAsciiFastPathPossible(buffer[i])) {
+                i = appendAsciiRun(buffer, i, end) - 1;
+            } else {
+                processByte(buffer[i]);
+            }
+        }
+    }
+
+    private static boolean isPrintableAscii(byte b) {
+        return b >= 32 && b < 127;
+    }
+
+    /**
+     * If the byte may be handled by {@link #appendAsciiRun(byte[], int, int)} instead of going through
+     * {@link #processByte(byte)}, {@link #processCodePoint(int)} and {@link #emitCodePoint(int)}, which requires that we
+     * are not inside an escape or UTF-8 sequence, that no special output mode (line drawing, insert mode, no autowrap)
+     * is active and that the cursor is inside the left and right margins. The cursor may be left of the left margin,
+     * even at column -1 after a backspace there, where {@link #emitCodePoint(int)} clamps the column written to 0.
+     */
+    private boolean isAsciiFastPathPossible(byte b) {
+        return isPrintableAscii(b) && mUtf8ToFollow == 0 && mEscapeState == ESC_NONE && !mInsertMode
+            && !(mUseLineDrawingUsesG0 ? mUseLineDrawingG0 : mUseLineDrawingG1)
+            && isDecsetInternalBitSet(DECSET_BIT_AUTOWRAP) && mCursorCol >= mLeftMargin && mCursorCol < mRightMargin;
+    }
+
+    /**
+     * Emit a run of printable ASCII characters starting at the specified offset, writing them row segment by row segment
+     * instead of one code point at a time. This does what calling {@link #emitCodePoint(int)} for each character would
+     * do under the conditions checked by {@link #isAsciiFastPathPossible(byte)}, which keep the cursor inside the
+     * margins for the whole run.
+     *
+     * @return the index of the first byte not consumed, which is either the length or a non-printable byte.
+     */
+    private int appendAsciiRun(byte[] buffer, int offset, int length) {
+        final long style = getStyle();
+        while (offset < length && isPrintableAscii(buffer[offset])) {
+            if (mAboutToAutoWrap && mCursorCol == mRightMargin - 1) {
+                mScreen.setLineWrap(mCursorRow);
+                mCursorCol = mLeftMargin;
+                if (mCursorRow + 1 < mBottomMargin) {
+                    mCursorRow++;
+                } else {
+                    scrollDownOneLine();
+                }
+            }
+
+            final int runEnd = Math.min(length, offset + (mRightMargin - mCursorCol));
+            int end = offset;
+            while (end < runEnd && isPrintableAscii(buffer[end])) end++;
+            final int runLength = end - offset;
+
+            mScreen.setAsciiChars(mCursorCol, mCursorRow, buffer, offset, runLength, style);
+            mLastEmittedCodePoint = buffer[end - 1];
+
+            final int newCursorCol = mCursorCol + runLength;
+            mAboutToAutoWrap = newCursorCol == mRightMargin;
+            mCursorCol = Math.min(newCursorCol, mRightMargin - 1);
+            offset = end;
+        }
+        return offset;
     }
 
     private void processByte(byte byteToProcess) {
@@ -983,17 +1100,19 @@ public final class TerminalEmulator {
         switch (b) {
             case (byte) '\\': // End of ESC \ string Terminator
             {
-                String dcs = mOSCOrDeviceControlArgs.toString();
+                // The string is parsed in place, without allocating unless responding.
+                final StringBuilder dcs = mOSCOrDeviceControlArgs;
+                final int dcsLength = dcs.length();
                 // DCS $ q P t ST. Request Status String (DECRQSS)
-                if (dcs.startsWith("$q")) {
-                    if (dcs.equals("$q\"p")) {
+                if (dcsLength >= 2 && dcs.charAt(0) == '$' && dcs.charAt(1) == 'q') {
+                    if (regionEquals(dcs, 0, dcsLength, "$q\"p")) {
                         // DECSCL, conformance level, http://www.vt100.net/docs/vt510-rm/DECSCL:
                         String csiString = "64;1\"p";
                         mSession.write("\033P1$r" + csiString + "\033\\");
                     } else {
                         finishSequenceAndLogError("Unrecognized DECRQSS string: '" + dcs + "'");
                     }
-                } else if (dcs.startsWith("+q")) {
+                } else if (dcsLength >= 2 && dcs.charAt(0) == '+' && dcs.charAt(1) == 'q') {
                     // Request Termcap/Terminfo String. The string following the "q" is a list of names encoded in
                     // hexadecimal (2 digits per character) separated by ; which correspond to termcap or terminfo key
                     // names.
@@ -1031,18 +1150,21 @@ public final class TerminalEmulator {
                     // respond, as well as http://www.freebsd.org/cgi/man.cgi?query=termcap&sektion=5#CAPABILITIES for
                     // the meaning of e.g. "ku", "kd", "kr", "kl"
 
-                    for (String part : dcs.substring(2).split(";")) {
-                        if (part.length() % 2 == 0) {
+                    for (int partStart = 2; partStart < dcsLength; ) {
+                        int partEnd = partStart;
+                        while (partEnd < dcsLength && dcs.charAt(partEnd) != ';') partEnd++;
+                        if (partEnd == partStart) {
+                            // Empty part.
+                        } else if ((partEnd - partStart) % 2 == 0) {
                             StringBuilder transBuffer = new StringBuilder();
-                            char c;
-                            for (int i = 0; i < part.length(); i += 2) {
-                                try {
-                                    c = (char) Long.decode("0x" + part.charAt(i) + "" + part.charAt(i + 1)).longValue();
-                                } catch (NumberFormatException e) {
-                                    Log.w(LOG_TAG, "Invalid device termcap/terminfo encoded name \"" + part + "\"", e);
+                            for (int i = partStart; i < partEnd; i += 2) {
+                                int high = Character.digit(dcs.charAt(i), 16);
+                                int low = Character.digit(dcs.charAt(i + 1), 16);
+                                if (high < 0 || low < 0) {
+                                    Log.w(LOG_TAG, "Invalid device termcap/terminfo encoded name \"" + dcs.substring(partStart, partEnd) + "\"");
                                     continue;
                                 }
-                                transBuffer.append(c);
+                                transBuffer.append((char) (high * 16 + low));
                             }
 
                             String trans = transBuffer.toString();
@@ -1053,6 +1175,7 @@ public final class TerminalEmulator {
                                     KeyHandler.getCodeFromTermcap(trans, isDecsetInternalBitSet(DECSET_BIT_APPLICATION_CURSOR_KEYS),
                                         isDecsetInternalBitSet(DECSET_BIT_APPLICATION_KEYPAD));
                             };
+                            StringBuilder response = new StringBuilder();
                             if (responseValue == null) {
                                 switch (trans) {
                                     case "%1": // Help key - ignore
@@ -1062,17 +1185,18 @@ public final class TerminalEmulator {
                                         Log.w(LOG_TAG, "Unhandled termcap/terminfo name: '" + trans + "'");
                                 }
                                 // Respond with invalid request:
-                                mSession.write("\033P0+r" + part + "\033\\");
+                                response.append("\033P0+r").append(dcs, partStart, partEnd);
                             } else {
-                                StringBuilder hexEncoded = new StringBuilder();
+                                response.append("\033P1+r").append(dcs, partStart, partEnd).append('=');
                                 for (int j = 0; j < responseValue.length(); j++) {
-                                    hexEncoded.append(String.format("%02X", (int) responseValue.charAt(j)));
+                                    response.append(String.format("%02X", (int) responseValue.charAt(j)));
                                 }
-                                mSession.write("\033P1+r" + part + "=" + hexEncoded + "\033\\");
                             }
+                            mSession.write(response.append("\033\\").toString());
                         } else {
-                            Log.e(LOG_TAG, "Invalid device termcap/terminfo name of odd length: " + part);
+                            Log.e(LOG_TAG, "Invalid device termcap/terminfo name of odd length: " + dcs.substring(partStart, partEnd));
                         }
+                        partStart = partEnd + 1;
                     }
                 } else {
                     if (LOG_ESCAPE_SEQUENCES)
@@ -2079,15 +2203,21 @@ public final class TerminalEmulator {
 
     /**
      * An Operating System Controls (OSC) Set Text Parameters. May come here from BEL or ST.
+     * <p/>
+     * The text parameter is parsed in place in {@link #mOSCOrDeviceControlArgs}, so that sequences emitted at a high
+     * rate, such as color changes and unchanged titles, do not allocate.
      */
     private void doOscSetTextParameters(String bellOrStringTerminator) {
+        final StringBuilder args = mOSCOrDeviceControlArgs;
+        final int argsLength = args.length();
         int value = -1;
-        String textParameter = "";
+        // The text parameter is the range of the arguments from textStart.
+        int textStart = argsLength;
         // Extract initial $value from initial "$value;..." string.
-        for (int mOSCArgTokenizerIndex = 0; mOSCArgTokenizerIndex < mOSCOrDeviceControlArgs.length(); mOSCArgTokenizerIndex++) {
-            char b = mOSCOrDeviceControlArgs.charAt(mOSCArgTokenizerIndex);
+        for (int mOSCArgTokenizerIndex = 0; mOSCArgTokenizerIndex < argsLength; mOSCArgTokenizerIndex++) {
+            char b = args.charAt(mOSCArgTokenizerIndex);
             if (b == ';') {
-                textParameter = mOSCOrDeviceControlArgs.substring(mOSCArgTokenizerIndex + 1);
+                textStart = mOSCArgTokenizerIndex + 1;
                 break;
             } else if (b >= '0' && b <= '9') {
                 value = ((value < 0) ? 0 : value * 10) + (b - '0');
@@ -2101,7 +2231,8 @@ public final class TerminalEmulator {
             case 0: // Change icon name and window title to T.
             case 1: // Change icon name to T.
             case 2: // Change window title to T.
-                setTitle(textParameter);
+                // Only allocate the title if it has changed:
+                if (!regionEquals(args, textStart, argsLength, mTitle)) setTitle(args.substring(textStart));
                 break;
             case 4:
                 // P s = 4 ; c ; spec → Change Color Number c to the color specified by spec. This can be a name or RGB
@@ -2113,9 +2244,9 @@ public final class TerminalEmulator {
                 // and specification can be given in one control sequence, xterm can make more than one reply.
                 int colorIndex = -1;
                 int parsingPairStart = -1;
-                for (int i = 0; ; i++) {
-                    boolean endOfInput = i == textParameter.length();
-                    char b = endOfInput ? ';' : textParameter.charAt(i);
+                for (int i = textStart; ; i++) {
+                    boolean endOfInput = i == argsLength;
+                    char b = endOfInput ? ';' : args.charAt(i);
                     if (b == ';') {
                         if (parsingPairStart < 0) {
                             parsingPairStart = i + 1;
@@ -2124,7 +2255,7 @@ public final class TerminalEmulator {
                                 unknownSequence(b);
                                 return;
                             } else {
-                                mColors.tryParseColor(colorIndex, textParameter.substring(parsingPairStart, i));
+                                mColors.tryParseColor(colorIndex, args, parsingPairStart, i);
                                 mSession.onColorsChanged();
                                 colorIndex = -1;
                                 parsingPairStart = -1;
@@ -2145,35 +2276,31 @@ public final class TerminalEmulator {
             case 11: // Set background color.
             case 12: // Set cursor color.
                 int specialIndex = TextStyle.COLOR_INDEX_FOREGROUND + (value - 10);
-                int lastSemiIndex = 0;
-                for (int charIndex = 0; ; charIndex++) {
-                    boolean endOfInput = charIndex == textParameter.length();
-                    if (endOfInput || textParameter.charAt(charIndex) == ';') {
-                        try {
-                            String colorSpec = textParameter.substring(lastSemiIndex, charIndex);
-                            if ("?".equals(colorSpec)) {
-                                // Report current color in the same format xterm and gnome-terminal does.
-                                int rgb = mColors.mCurrentColors[specialIndex];
-                                int r = (65535 * ((rgb & 0x00FF0000) >> 16)) / 255;
-                                int g = (65535 * ((rgb & 0x0000FF00) >> 8)) / 255;
-                                int b = (65535 * ((rgb & 0x000000FF))) / 255;
-                                mSession.write("\033]" + value + ";rgb:" + String.format(Locale.US, "%04x", r) + "/" + String.format(Locale.US, "%04x", g) + "/"
-                                    + String.format(Locale.US, "%04x", b) + bellOrStringTerminator);
-                            } else {
-                                mColors.tryParseColor(specialIndex, colorSpec);
-                                mSession.onColorsChanged();
-                            }
-                            specialIndex++;
-                            if (endOfInput || (specialIndex > TextStyle.COLOR_INDEX_CURSOR) || ++charIndex >= textParameter.length())
-                                break;
-                            lastSemiIndex = charIndex;
-                        } catch (NumberFormatException e) {
-                            // Ignore.
+                int lastSemiIndex = textStart;
+                for (int charIndex = textStart; ; charIndex++) {
+                    boolean endOfInput = charIndex == argsLength;
+                    if (endOfInput || args.charAt(charIndex) == ';') {
+                        if (charIndex - lastSemiIndex == 1 && args.charAt(lastSemiIndex) == '?') {
+                            // Report current color in the same format xterm and gnome-terminal does.
+                            int rgb = mColors.mCurrentColors[specialIndex];
+                            int r = (65535 * ((rgb & 0x00FF0000) >> 16)) / 255;
+                            int g = (65535 * ((rgb & 0x0000FF00) >> 8)) / 255;
+                            int b = (65535 * ((rgb & 0x000000FF))) / 255;
+                            mSession.write("\033]" + value + ";rgb:" + String.format(Locale.US, "%04x", r) + "/" + String.format(Locale.US, "%04x", g) + "/"
+                                + String.format(Locale.US, "%04x", b) + bellOrStringTerminator);
+                        } else {
+                            mColors.tryParseColor(specialIndex, args, lastSemiIndex, charIndex);
+                            mSession.onColorsChanged();
                         }
+                        specialIndex++;
+                        if (endOfInput || (specialIndex > TextStyle.COLOR_INDEX_CURSOR) || ++charIndex >= argsLength)
+                            break;
+                        lastSemiIndex = charIndex;
                     }
                 }
                 break;
             case 52: // Manipulate Selection Data. Skip the optional first selection parameter(s).
+                String textParameter = args.substring(textStart);
                 int startIndex = textParameter.indexOf(";") + 1;
                 try {
                     String clipboardText = new String(Base64.decode(textParameter.substring(startIndex), 0), StandardCharsets.UTF_8);
@@ -2187,24 +2314,26 @@ public final class TerminalEmulator {
                 // resource. Any number of c parameters may be given. These parameters correspond to the ANSI colors 0-7,
                 // their bright versions 8-15, and if supported, the remainder of the 88-color or 256-color table. If no
                 // parameters are given, the entire table will be reset.
-                if (textParameter.isEmpty()) {
+                if (textStart == argsLength) {
                     mColors.reset();
                     mSession.onColorsChanged();
                 } else {
-                    int lastIndex = 0;
-                    for (int charIndex = 0; ; charIndex++) {
-                        boolean endOfInput = charIndex == textParameter.length();
-                        if (endOfInput || textParameter.charAt(charIndex) == ';') {
-                            try {
-                                int colorToReset = Integer.parseInt(textParameter.substring(lastIndex, charIndex));
+                    // The color number being parsed, or -1 if none or invalid, in which case it is ignored.
+                    int colorToReset = -1;
+                    boolean validColor = true;
+                    for (int charIndex = textStart; charIndex <= argsLength; charIndex++) {
+                        char b = (charIndex == argsLength) ? ';' : args.charAt(charIndex);
+                        if (b == ';') {
+                            if (validColor && colorToReset >= 0 && colorToReset < TextStyle.NUM_INDEXED_COLORS) {
                                 mColors.reset(colorToReset);
                                 mSession.onColorsChanged();
-                                if (endOfInput) break;
-                                charIndex++;
-                                lastIndex = charIndex;
-                            } catch (NumberFormatException e) {
-                                // Ignore.
                             }
+                            colorToReset = -1;
+                            validColor = true;
+                        } else if (b >= '0' && b <= '9') {
+                            colorToReset = Math.min(((colorToReset < 0) ? 0 : colorToReset * 10) + (b - '0'), 9999);
+                        } else {
+                            validColor = false;
                         }
                     }
                 }
@@ -2224,6 +2353,15 @@ public final class TerminalEmulator {
         finishSequence();
     }
 
+    /** If the specified range of the text equals the string, which may be null. */
+    private static boolean regionEquals(CharSequence text, int start, int end, String string) {
+        if (string == null || string.length() != end - start) return false;
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) != string.charAt(i - start)) return false;
+        }
+        return true;
+    }
+
     private void blockClear(int sx, int sy, int w) {
         blockClear(sx, sy, w, 1);
     }
@@ -2613,6 +2751,7 @@ public final class TerminalEmulator {
      * Reset terminal state so user can interact with it regardless of present state.
      */
     public void reset() {
+        mGeneration++;
         setCursorStyle();
         mArgIndex = 0;
         mContinueSequence = false;
@@ -2670,16 +2809,7 @@ public final class TerminalEmulator {
      * If DECSET 2004 is set, prefix paste with "\033[200~" and suffix with "\033[201~".
      */
     public void paste(String text) {
-        // First: Always remove escape key and C1 control characters [0x80,0x9F]:
-        text = text.replaceAll("(\u001B|[\u0080-\u009F])", "");
-        // Second: Replace all newlines (\n) or CRLF (\r\n) with carriage returns (\r).
-        text = text.replaceAll("\r?\n", "\r");
-
-        // Then: Implement bracketed paste mode if enabled:
-        boolean bracketed = isDecsetInternalBitSet(DECSET_BIT_BRACKETED_PASTE_MODE);
-        if (bracketed) mSession.write("\033[200~");
-        mSession.write(text);
-        if (bracketed) mSession.write("\033[201~");
+        new TerminalPaste(mSession::write, text, isBracketedPasteMode(), null).run();
     }
 
     /**
@@ -0,0 +1,168 @@
+package com.termux.terminal;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reader of the text of a {@link TerminalBuffer} as lines, which are rows joined where wrapped (see
+ * {@link TerminalBuffer#getLineWrap(int)}), for processing the text incrementally as output arrives like
+ * {@link TerminalSearch} does.
+ * <p/>
+ * {@link #readNewLines(TerminalBuffer, List)} reads each line once, when it has completely scrolled into the transcript
+ * where it no longer changes, while {@link #readScreenLines(TerminalBuffer, List)} reads the lines which may still change.
+ * Rows are identified by absolute row numbers, which do not change as the rows scroll, see
+ * {@link TerminalBuffer#getScrollCount()}. The emulator of the buffer must be locked while reading, like when rendering.
+ * <p/>
+ * Rows in the transcript spill (see {@link TerminalBuffer#setTranscriptSpill(TranscriptSpill)}) are not read when
+ * starting over, as there may be far too many of them to keep the text of, but may be read a line at a time with
+ * {@link #readLine(TerminalBuffer, long, long)}.
+ */
+public final class TerminalLineReader {
+
+    /** The text of rows joined where wrapped. */
+    public static final class Line {
+        /** The absolute row of the first row in the line. */
+        public final long mFirstRow;
+        public final String mText;
+        /** The index in {@link #mText} of the start of each row of the line. */
+        private final int[] mRowStarts;
+
+        Line(long firstRow, String text, int[] rowStarts) {
+            mFirstRow = firstRow;
+            mText = text;
+            mRowStarts = rowStarts;
+        }
+
+        public long getLastRow() {
+            return mFirstRow + mRowStarts.length - 1;
+        }
+
+        /** The index of the row in the line containing the char at the specified index in the text. */
+        public int getRowIndex(int charIndex) {
+            int rowIndex = Arrays.binarySearch(mRowStarts, charIndex);
+            if (rowIndex < 0) return -rowIndex - 2;
+            // Skip rows without any text:
+            while (rowIndex + 1 < mRowStarts.length && mRowStarts[rowIndex + 1] == charIndex) rowIndex++;
+            return rowIndex;
+        }
+
+        /** The column at which the char at the specified index in the text starts, in the row at the specified index. */
+        public int getColumn(int rowIndex, int charIndex) {
+            int column = 0;
+            int i = mRowStarts[rowIndex];
+            while (i < charIndex) {
+                int codePoint = mText.codePointAt(i);
+                column += WcWidth.width(codePoint);
+                i += Character.charCount(codePoint);
+            }
+            return column;
+        }
+    }
+
+    /** The buffer last read, to start over if switching to or from the alternate buffer. */
+    private TerminalBuffer mBuffer;
+    /** The {@link TerminalBuffer#getLayoutGeneration()} when last read, to start over if rows have moved. */
+    private int mLayoutGeneration;
+    /** The absolute row after the last line read by {@link #readNewLines(TerminalBuffer, List)}. */
+    private long mReadThroughRow;
+
+    private int[] mRowStartsBuffer = new int[64];
+    private final StringBuilder mTextBuilder = new StringBuilder();
+
+    /** The oldest absolute row in the transcript of the buffer. */
+    public static long getFirstRow(TerminalBuffer buffer) {
+        return buffer.getScrollCount() - buffer.getActiveTranscriptRows();
+    }
+
+    /** The oldest absolute row in the transcript of the buffer which is in memory, so not in the transcript spill. */
+    public static long getFirstRowInMemory(TerminalBuffer buffer) {
+        return getFirstRow(buffer) + buffer.getSpilledTranscriptRows();
+    }
+
+    private boolean isReading(TerminalBuffer buffer) {
+        return buffer == mBuffer && buffer.getLayoutGeneration() == mLayoutGeneration;
+    }
+
+    /**
+     * Read the lines which have completely scrolled into the transcript since the last call, oldest first.
+     *
+     * @return true if reading started over from the start of the transcript in memory, see
+     * {@link #getFirstRowInMemory(TerminalBuffer)}, due to the buffer being another one or its
+     * rows having moved since the last call, in which case anything derived from lines read before should be discarded.
+     */
+    public boolean readNewLines(TerminalBuffer buffer, List<Line> lines) {
+        final boolean startOver = !isReading(buffer);
+        final long firstRow = getFirstRow(buffer);
+        if (startOver) {
+            mBuffer = buffer;
+            mLayoutGeneration = buffer.getLayoutGeneration();
+            mReadThroughRow = getFirstRowInMemory(buffer);
+        } else if (mReadThroughRow < firstRow) {
+            // Rows not yet read have been dropped from the transcript.
+            mReadThroughRow = firstRow;
+        }
+
+        final long screenFirstRow = buffer.getScrollCount();
+        while (true) {
+            Line line = readLine(buffer, mReadThroughRow, screenFirstRow);
+            if (line == null) break;
+            lines.add(line);
+            mReadThroughRow = line.getLastRow() + 1;
+        }
+        return startOver;
+    }
+
+    /**
+     * Read the lines not yet read by {@link #readNewLines(TerminalBuffer, List)}, which are the ones on the screen or
+     * wrapped into it, and which may still change.
+     */
+    public void readScreenLines(TerminalBuffer buffer, List<Line> lines) {
+        final long endRow = buffer.getScrollCount() + buffer.mScreenRows;
+        long row = isReading(buffer) ? Math.max(mReadThroughRow, getFirstRow(buffer)) : getFirstRowInMemory(buffer);
+        while (row < endRow) {
+            Line line = readLine(buffer, row, endRow);
+            lines.add(line);
+            row = line.getLastRow() + 1;
+        }
+    }
+
+    /**
+     * Read the line starting at the specified absolute row, ending where a row is not wrapped or at the row before the
+     * end row.
+     *
+     * @param endRow the absolute row after the last row to read.
+     * @return the line, or null if it does not end before the end row and the end row is on the screen.
+     */
+    Line readLine(TerminalBuffer buffer, long startRow, long endRow) {
+        final long scrollCount = buffer.getScrollCount();
+        final long screenEndRow = scrollCount + buffer.mScreenRows;
+        int rowCount = 0;
+        mTextBuilder.setLength(0);
+
+        long row = startRow;
+        while (true) {
+            if (row >= endRow) {
+                if (endRow < screenEndRow) return null;
+                break;
+            }
+            TerminalRow lineObject = buffer.getRow((int) (row - scrollCount));
+            if (rowCount == mRowStartsBuffer.length) mRowStartsBuffer = Arrays.copyOf(mRowStartsBuffer, rowCount * 2);
+            mRowStartsBuffer[rowCount++] = mTextBuilder.length();
+            row++;
+
+            final char[] text = lineObject.mText;
+            final int spaceUsed = lineObject.getSpaceUsed();
+            if (lineObject.mLineWrap) {
+                mTextBuilder.append(text, 0, spaceUsed);
+            } else {
+                // Trailing space is not part of the line, as when selecting text:
+                int end = spaceUsed;
+                while (end > 0 && text[end - 1] == ' ') end--;
+                mTextBuilder.append(text, 0, end);
+                break;
+            }
+        }
+        return new Line(startRow, mTextBuilder.toString(), Arrays.copyOf(mRowStartsBuffer, rowCount));
+    }
+
+}
@@ -0,0 +1,192 @@
+package com.termux.terminal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Throughput and latency metrics of a {@link TerminalSession}, to diagnose why a workload feels slow on a device, which
+ * are only recorded once enabled by {@link TerminalSession#setMetricsEnabled(boolean)}.
+ * <p/>
+ * Metrics are recorded by the threads involved without locking, as atomic counters and {@link Histogram}s:
+ * <ul>
+ * <li>Reads of process output, with the number of bytes queued for the emulator after each, by the reader thread.</li>
+ * <li>Calls of {@link TerminalEmulator#append(byte[], int, int)} and their duration, by the emulation thread.</li>
+ * <li>Frames rendered and their duration, by the view drawing the session.</li>
+ * <li>The latency from input written to the process until the next output is appended to the emulator, which is
+ * usually the echo of the input.</li>
+ * </ul>
+ * Durations are in nanoseconds.
+ */
+public final class TerminalMetrics {
+
+    /**
+     * A histogram of non-negative values in buckets of powers of two, where bucket N holds the values of N bits, so
+     * that recording is a few atomic increments, with percentiles estimated as the upper bound of their bucket.
+     */
+    public static final class Histogram {
+        private final AtomicLongArray mBuckets = new AtomicLongArray(Long.SIZE);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        void record(long value) {
+            if (value < 0) value = 0;
+            mBuckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(value));
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+            mMax.accumulateAndGet(value, Math::max);
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        public long getSum() {
+            return mSum.get();
+        }
+
+        public long getMax() {
+            return mMax.get();
+        }
+
+        public long getMean() {
+            final long count = mCount.get();
+            return count == 0 ? 0 : mSum.get() / count;
+        }
+
+        /**
+         * An upper bound of the specified percentile of the values recorded, which is the upper bound of the bucket it
+         * falls in, so at most twice the percentile, but never above the max value.
+         *
+         * @param percentile the percentile, from 0 to 100.
+         */
+        public long getPercentile(double percentile) {
+            final long count = mCount.get();
+            if (count == 0) return 0;
+            final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int bucket = 0; bucket < Long.SIZE; bucket++) {
+                seen += mBuckets.get(bucket);
+                if (seen >= rank) {
+                    final long upperBound = (bucket == Long.SIZE - 1) ? Long.MAX_VALUE : (1L << bucket) - 1;
+                    return Math.min(upperBound, mMax.get());
+                }
+            }
+            // Values recorded concurrently with the reading of the buckets:
+            return mMax.get();
+        }
+
+        void reset() {
+            for (int bucket = 0; bucket < Long.SIZE; bucket++) mBuckets.set(bucket, 0);
+            mCount.set(0);
+            mSum.set(0);
+            mMax.set(0);
+        }
+    }
+
+    private volatile long mStartNanos = System.nanoTime();
+
+    private final AtomicLong mBytesRead = new AtomicLong();
+    private final Histogram mReadSizes = new Histogram();
+    private final Histogram mQueuedBytes = new Histogram();
+
+    private final AtomicLong mBytesParsed = new AtomicLong();
+    private final Histogram mAppendNanos = new Histogram();
+
+    private final Histogram mFrameNanos = new Histogram();
+
+    /** When input was written that has not yet been followed by output, or 0 if none. */
+    private final AtomicLong mPendingInputNanos = new AtomicLong();
+    private final Histogram mInputToEchoNanos = new Histogram();
+
+    /** Record a read of process output, and the number of bytes queued for the emulator after it. */
+    void onRead(int bytes, int queuedBytes) {
+        mBytesRead.addAndGet(bytes);
+        mReadSizes.record(bytes);
+        mQueuedBytes.record(queuedBytes);
+    }
+
+    /** Record that process output was appended to the emulator, taking the specified time. */
+    void onAppend(int bytes, long nanos) {
+        mBytesParsed.addAndGet(bytes);
+        mAppendNanos.record(nanos);
+        final long inputNanos = mPendingInputNanos.getAndSet(0);
+        if (inputNanos != 0) mInputToEchoNanos.record(System.nanoTime() - inputNanos);
+    }
+
+    /** Record that input was written to the process, unless earlier input is still waiting for output. */
+    void onInput() {
+        mPendingInputNanos.compareAndSet(0, System.nanoTime());
+    }
+
+    /** Record that a frame of the session was rendered, taking the specified time. */
+    public void onFrameRendered(long nanos) {
+        mFrameNanos.record(nanos);
+    }
+
+    /** The time since the metrics were enabled or last reset. */
+    public long getElapsedNanos() {
+        return System.nanoTime() - mStartNanos;
+    }
+
+    public long getBytesRead() {
+        return mBytesRead.get();
+    }
+
+    /** The sizes of reads of process output. */
+    public Histogram getReadSizes() {
+        return mReadSizes;
+    }
+
+    /** The number of bytes of process output queued for the emulator after each read. */
+    public Histogram getQueuedBytes() {
+        return mQueuedBytes;
+    }
+
+    public long getBytesParsed() {
+        return mBytesParsed.get();
+    }
+
+    /** The number of bytes parsed per second over the elapsed time. */
+    public long getBytesParsedPerSecond() {
+        return perSecond(mBytesParsed.get(), getElapsedNanos());
+    }
+
+    /** The number of bytes parsed per second while appending, which is the speed of the emulator. */
+    public long getParseSpeedBytesPerSecond() {
+        return perSecond(mBytesParsed.get(), mAppendNanos.getSum());
+    }
+
+    private static long perSecond(long value, long nanos) {
+        return nanos <= 0 ? 0 : (long) (value * 1_000_000_000.0 / nanos);
+    }
+
+    /** The durations of appending process output to the emulator. */
+    public Histogram getAppendNanos() {
+        return mAppendNanos;
+    }
+
+    /** The durations of rendering frames. */
+    public Histogram getFrameNanos() {
+        return mFrameNanos;
+    }
+
+    /** The latencies from input until the next output, usually its echo. */
+    public Histogram getInputToEchoNanos() {
+        return mInputToEchoNanos;
+    }
+
+    /** Clear the metrics, restarting the elapsed time. Values recorded concurrently may be partially cleared. */
+    public void reset() {
+        mBytesRead.set(0);
+        mReadSizes.reset();
+        mQueuedBytes.reset();
+        mBytesParsed.set(0);
+        mAppendNanos.reset();
+        mFrameNanos.reset();
+        mPendingInputNanos.set(0);
+        mInputToEchoNanos.reset();
+        mStartNanos = System.nanoTime();
+    }
+
+}
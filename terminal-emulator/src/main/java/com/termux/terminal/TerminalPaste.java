@@ -0,0 +1,126 @@
+package com.termux.terminal;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A paste of text to a terminal client, sanitized and encoded in fixed size chunks so that pasting a large text
+ * neither needs a copy of the whole text per transformation nor blocks the caller while the process reads it.
+ * <p/>
+ * The text is sanitized like xterm does: the escape key and C1 control characters [0x80,0x9F] are removed, and newlines
+ * (\n) or CRLF (\r\n) are replaced with carriage returns (\r). If bracketed paste mode (DECSET 2004) is active the text
+ * is prefixed with "\033[200~" and suffixed with "\033[201~", with the suffix also written if the paste is cancelled.
+ * <p/>
+ * {@link #run()} hands each chunk to a {@link Sink}, which for a {@link TerminalSession} blocks while the queue to the
+ * process is full, so a large paste should be run on a background thread as done by
+ * {@link TerminalSession#paste(String, Listener)}. It may be cancelled from any thread.
+ */
+public final class TerminalPaste implements Runnable {
+
+    /** Receiver of the encoded bytes of a paste, such as {@link TerminalOutput#write(byte[], int, int)}. */
+    public interface Sink {
+        void write(byte[] data, int offset, int count);
+    }
+
+    /** Callbacks for the progress of a paste, called on the thread running it. */
+    public interface Listener {
+        /** Called after each chunk of the text has been written. */
+        void onPasteProgress(TerminalPaste paste, int charsPasted, int totalChars);
+
+        /** Called when the paste has been completely written or has been cancelled. */
+        void onPasteFinished(TerminalPaste paste, boolean cancelled);
+    }
+
+    private static final byte[] BRACKETED_PASTE_START = {27, '[', '2', '0', '0', '~'};
+    private static final byte[] BRACKETED_PASTE_END = {27, '[', '2', '0', '1', '~'};
+
+    /** The number of chars of text sanitized and written at a time. */
+    static final int DEFAULT_CHUNK_CHARS = 2048;
+
+    private final Sink mOutput;
+    private final String mText;
+    private final boolean mBracketed;
+    private final Listener mListener;
+    private final int mChunkChars;
+
+    private volatile boolean mCancelled;
+
+    public TerminalPaste(Sink output, String text, boolean bracketed, Listener listener) {
+        this(output, text, bracketed, listener, DEFAULT_CHUNK_CHARS);
+    }
+
+    TerminalPaste(Sink output, String text, boolean bracketed, Listener listener, int chunkChars) {
+        mOutput = output;
+        mText = text;
+        mBracketed = bracketed;
+        mListener = listener;
+        mChunkChars = chunkChars;
+    }
+
+    /** Stop the paste after the chunk currently being written, if any. */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /** The length of the text to paste, before being sanitized. */
+    public int getTotalChars() {
+        return mText.length();
+    }
+
+    @Override
+    public void run() {
+        final int totalChars = mText.length();
+        final char[] chunk = new char[mChunkChars];
+        final CharBuffer charBuffer = CharBuffer.wrap(chunk, 0, 0);
+        final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        // Room for a chunk where every char encodes to three bytes, plus a high surrogate carried over:
+        final ByteBuffer byteBuffer = ByteBuffer.allocate(mChunkChars * 3 + 4);
+        final byte[] bytes = byteBuffer.array();
+
+        if (mCancelled) {
+            if (mListener != null) mListener.onPasteFinished(this, true);
+            return;
+        }
+        if (mBracketed) mOutput.write(BRACKETED_PASTE_START, 0, BRACKETED_PASTE_START.length);
+
+        int textIndex = 0;
+        char lastChar = 0;
+        while (textIndex < totalChars && !mCancelled) {
+            // A trailing high surrogate left unencoded by the previous chunk is kept at the start of the buffer:
+            int chunkLength = charBuffer.remaining();
+            System.arraycopy(chunk, charBuffer.position(), chunk, 0, chunkLength);
+            final int chunkEnd = Math.min(totalChars, textIndex + mChunkChars - chunkLength);
+            for (; textIndex < chunkEnd; textIndex++) {
+                final char c = mText.charAt(textIndex);
+                if (c == 27 || (c >= 0x80 && c <= 0x9F)) continue;
+                if (c == '\n') {
+                    // A CR just written already stands for this newline.
+                    if (lastChar != '\r') chunk[chunkLength++] = '\r';
+                } else {
+                    chunk[chunkLength++] = c;
+                }
+                lastChar = c;
+            }
+
+            charBuffer.position(0).limit(chunkLength);
+            byteBuffer.clear();
+            encoder.encode(charBuffer, byteBuffer, textIndex == totalChars);
+            if (textIndex == totalChars) encoder.flush(byteBuffer);
+            if (byteBuffer.position() > 0) mOutput.write(bytes, 0, byteBuffer.position());
+            if (mListener != null) mListener.onPasteProgress(this, textIndex, totalChars);
+        }
+
+        if (mBracketed) mOutput.write(BRACKETED_PASTE_END, 0, BRACKETED_PASTE_END.length);
+        if (mListener != null) mListener.onPasteFinished(this, mCancelled);
+    }
+
+}
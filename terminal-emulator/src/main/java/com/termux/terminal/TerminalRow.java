@@ -10,6 +10,10 @@ import java.util.Arrays;
 public final class TerminalRow {
 
     private static final float SPARE_CAPACITY_FACTOR = 1.5f;
+    /** The number of style runs initially allocated for in {@link #mStyleRuns}. */
+    private static final int INITIAL_STYLE_RUNS = 4;
+    /** The maximum number of style runs before switching to storing the style of each cell in {@link #mStyle}. */
+    private static final int MAX_STYLE_RUNS = 16;
 
     /** The number of columns in this terminal row. */
     private final int mColumns;
@@ -19,19 +23,100 @@ public final class TerminalRow {
     private short mSpaceUsed;
     /** If this row has been line wrapped due to text output at the end of line. */
     boolean mLineWrap;
-    /** The style bits of each cell in the row. See {@link TextStyle}. */
-    final long[] mStyle;
+    /**
+     * The style bits of the cells in the row, see {@link TextStyle}, as pairs of the end column (exclusive) and style of
+     * each run of cells with the same style, since most rows only have one or a few runs. Not used if
+     * {@link #mStylePerCell}.
+     */
+    private long[] mStyleRuns;
+    /** The number of runs in {@link #mStyleRuns}. */
+    private int mStyleRunCount;
+    /** The style bits of each cell in the row, used instead of {@link #mStyleRuns} if {@link #mStylePerCell}. */
+    private long[] mStyle;
+    /** If the row has too many style runs for {@link #mStyleRuns} to be efficient, so {@link #mStyle} is used. */
+    private boolean mStylePerCell;
+    /** If this row has been created by {@link #compactCopy()} and not been changed since. */
+    private boolean mCompact;
     /** If this row might contain chars with width != 1, used for deactivating fast path */
     boolean mHasNonOneWidthOrSurrogateChars;
+    /** Incremented on each change to the text or style of this row. See {@link #getGeneration()}. */
+    private int mGeneration;
+    /**
+     * The char index in {@link #mText} of the start of each column, as returned by {@link #findStartOfColumn(int)}.
+     * Only used if {@link #mHasNonOneWidthOrSurrogateChars}, and filled in lazily up to the columns asked for.
+     */
+    private int[] mColumnStarts;
+    /**
+     * The last column in {@link #mColumnStarts} which is valid along with all before it, or -1 if none. Unless the whole
+     * row is valid, this is a column where a character starts, so that it can be continued from.
+     */
+    private int mLastValidColumnStart = -1;
 
     /** Construct a blank row (containing only whitespace, ' ') with a specified style. */
     public TerminalRow(int columns, long style) {
         mColumns = columns;
         mText = new char[(int) (SPARE_CAPACITY_FACTOR * columns)];
-        mStyle = new long[columns];
+        mStyleRuns = new long[2 * INITIAL_STYLE_RUNS];
         clear(style);
     }
 
+    private TerminalRow(TerminalRow row, long[] styleRuns) {
+        mColumns = row.mColumns;
+        mText = Arrays.copyOf(row.mText, row.mSpaceUsed);
+        mSpaceUsed = row.mSpaceUsed;
+        mLineWrap = row.mLineWrap;
+        mHasNonOneWidthOrSurrogateChars = row.mHasNonOneWidthOrSurrogateChars;
+        mStyleRuns = styleRuns;
+        mStyleRunCount = styleRuns.length / 2;
+        mCompact = true;
+    }
+
+    /** Create a compact row with the specified text and style runs, as when read back from a {@link TranscriptSpill}. */
+    TerminalRow(int columns, char[] text, boolean lineWrap, boolean hasNonOneWidthOrSurrogateChars, long[] styleRuns) {
+        mColumns = columns;
+        mText = text;
+        mSpaceUsed = (short) text.length;
+        mLineWrap = lineWrap;
+        mHasNonOneWidthOrSurrogateChars = hasNonOneWidthOrSurrogateChars;
+        mStyleRuns = styleRuns;
+        mStyleRunCount = styleRuns.length / 2;
+        mCompact = true;
+    }
+
+    /** The number of columns of this row. */
+    int getColumns() {
+        return mColumns;
+    }
+
+    /**
+     * Create a copy of this row using less memory, for rows not expected to change such as those scrolled into the
+     * transcript: the text has no spare capacity and the style runs are stored without spare capacity. The copy grows
+     * back to the normal representation if changed.
+     */
+    TerminalRow compactCopy() {
+        if (!mStylePerCell) return new TerminalRow(this, Arrays.copyOf(mStyleRuns, 2 * mStyleRunCount));
+
+        final long[] style = mStyle;
+        int runs = 1;
+        for (int column = 1; column < mColumns; column++)
+            if (style[column] != style[column - 1]) runs++;
+
+        final long[] styleRuns = new long[2 * runs];
+        int run = 0;
+        for (int column = 1; column <= mColumns; column++) {
+            if (column == mColumns || style[column] != style[column - 1]) {
+                styleRuns[run++] = column;
+                styleRuns[run++] = style[column - 1];
+            }
+        }
+        return new TerminalRow(this, styleRuns);
+    }
+
+    /** If this row has been created by {@link #compactCopy()} and not been changed since. */
+    boolean isCompact() {
+        return mCompact;
+    }
+
     /** NOTE: The sourceX2 is exclusive. */
     public void copyInterval(TerminalRow line, int sourceX1, int sourceX2, int destinationX) {
         mHasNonOneWidthOrSurrogateChars |= line.mHasNonOneWidthOrSurrogateChars;
@@ -62,72 +147,84 @@ public final class TerminalRow {
         return mSpaceUsed;
     }
 
+    /**
+     * The number of times the text or style of this row has been changed, so that a renderer may reuse what it drew for
+     * the row as long as this stays the same.
+     */
+    public int getGeneration() {
+        return mGeneration;
+    }
+
     /** Note that the column may end of second half of wide character. */
     public int findStartOfColumn(int column) {
         if (column == mColumns) return getSpaceUsed();
+        // Without chars of width != 1 each column is one java char:
+        if (!mHasNonOneWidthOrSurrogateChars) return column;
 
-        int currentColumn = 0;
-        int currentCharIndex = 0;
-        while (true) { // 0<2 1 < 2
-            int newCharIndex = currentCharIndex;
-            char c = mText[newCharIndex++]; // cci=1, cci=2
-            boolean isHigh = Character.isHighSurrogate(c);
-            int codePoint = isHigh ? Character.toCodePoint(c, mText[newCharIndex++]) : c;
-            int wcwidth = WcWidth.width(codePoint); // 1, 2
-            if (wcwidth > 0) {
-                currentColumn += wcwidth;
-                if (currentColumn == column) {
-                    while (newCharIndex < mSpaceUsed) {
-                        // Skip combining chars.
-                        if (Character.isHighSurrogate(mText[newCharIndex])) {
-                            if (WcWidth.width(Character.toCodePoint(mText[newCharIndex], mText[newCharIndex + 1])) <= 0) {
-                                newCharIndex += 2;
-                            } else {
-                                break;
-                            }
-                        } else if (WcWidth.width(mText[newCharIndex]) <= 0) {
-                            newCharIndex++;
-                        } else {
-                            break;
-                        }
-                    }
-                    return newCharIndex;
-                } else if (currentColumn > column) {
-                    // Wide column going past end.
-                    return currentCharIndex;
-                }
-            }
+        if (column > mLastValidColumnStart) findColumnStartsThrough(column);
+        return mColumnStarts[column];
+    }
+
+    /** Fill in {@link #mColumnStarts} up to the specified column, continuing from the last valid column. */
+    private void findColumnStartsThrough(int column) {
+        if (mColumnStarts == null) mColumnStarts = new int[mColumns];
+        final int[] columnStarts = mColumnStarts;
+        final char[] text = mText;
+
+        if (mLastValidColumnStart < 0) {
+            int charIndex = 0;
+            // Combining chars at the start of the line are part of the first column:
+            while (charIndex < mSpaceUsed && WcWidth.width(text, charIndex) <= 0)
+                charIndex += Character.isHighSurrogate(text[charIndex]) ? 2 : 1;
+            columnStarts[0] = charIndex;
+            mLastValidColumnStart = 0;
+        }
+
+        int currentColumn = mLastValidColumnStart;
+        int currentCharIndex = columnStarts[currentColumn];
+        while (currentColumn < column && currentCharIndex < mSpaceUsed) {
+            final int wcwidth = WcWidth.width(text, currentCharIndex);
+            int newCharIndex = currentCharIndex + (Character.isHighSurrogate(text[currentCharIndex]) ? 2 : 1);
+            // Skip combining chars, which belong to this column.
+            while (newCharIndex < mSpaceUsed && WcWidth.width(text, newCharIndex) <= 0)
+                newCharIndex += Character.isHighSurrogate(text[newCharIndex]) ? 2 : 1;
+            // The second half of a wide character starts at the character:
+            for (int i = 1; i < wcwidth && currentColumn + i < mColumns; i++)
+                columnStarts[currentColumn + i] = currentCharIndex;
+            currentColumn += wcwidth;
+            if (currentColumn < mColumns) columnStarts[currentColumn] = newCharIndex;
             currentCharIndex = newCharIndex;
         }
+        mLastValidColumnStart = Math.min(currentColumn, mColumns - 1);
     }
 
     private boolean wideDisplayCharacterStartingAt(int column) {
-        for (int currentCharIndex = 0, currentColumn = 0; currentCharIndex < mSpaceUsed; ) {
-            char c = mText[currentCharIndex++];
-            int codePoint = Character.isHighSurrogate(c) ? Character.toCodePoint(c, mText[currentCharIndex++]) : c;
-            int wcwidth = WcWidth.width(codePoint);
-            if (wcwidth > 0) {
-                if (currentColumn == column && wcwidth == 2) return true;
-                currentColumn += wcwidth;
-                if (currentColumn > column) return false;
-            }
-        }
-        return false;
+        if (!mHasNonOneWidthOrSurrogateChars || column < 0 || column >= mColumns) return false;
+        // Both halves of a wide character start at the same char index, unlike the halves of any other column:
+        return findStartOfColumn(column) == findStartOfColumn(column + 1);
     }
 
     public void clear(long style) {
+        mGeneration++;
+        mCompact = false;
+        // The text of a compact row with wide characters is shorter than the number of columns:
+        if (mText.length < mColumns) mText = new char[(int) (SPARE_CAPACITY_FACTOR * mColumns)];
         Arrays.fill(mText, ' ');
-        Arrays.fill(mStyle, style);
+        mStyleRuns[0] = mColumns;
+        mStyleRuns[1] = style;
+        mStyleRunCount = 1;
+        mStylePerCell = false;
         mSpaceUsed = (short) mColumns;
         mHasNonOneWidthOrSurrogateChars = false;
+        mLastValidColumnStart = -1;
     }
 
     // https://github.com/steven676/Android-Terminal-Emulator/commit/9a47042620bec87617f0b4f5d50568535668fe26
     public void setChar(int columnToSet, int codePoint, long style) {
-        if (columnToSet  < 0 || columnToSet >= mStyle.length)
+        if (columnToSet  < 0 || columnToSet >= mColumns)
             throw new IllegalArgumentException("TerminalRow.setChar(): columnToSet=" + columnToSet + ", codePoint=" + codePoint + ", style=" + style);
 
-        mStyle[columnToSet] = style;
+        setStyles(columnToSet, columnToSet + 1, style);
 
         final int newCodePointDisplayWidth = WcWidth.width(codePoint);
 
@@ -183,6 +280,9 @@ public final class TerminalRow {
             newCharactersUsedForColumn += oldCharactersUsedForColumn;
         }
 
+        // The text is changed from here on, which does not move the start of this column or any before it:
+        mLastValidColumnStart = Math.min(mLastValidColumnStart, columnToSet);
+
         int oldNextColumnIndex = oldStartOfColumnIndex + oldCharactersUsedForColumn;
         int newNextColumnIndex = oldStartOfColumnIndex + newCharactersUsedForColumn;
 
@@ -241,6 +341,26 @@ public final class TerminalRow {
         }
     }
 
+    /**
+     * Bulk variant of {@link #setChar(int, int, long)} for a run of printable ASCII characters (all of width 1) sharing
+     * the same style. When the row only contains chars of width 1 the text and style arrays are written directly.
+     */
+    public void setAsciiChars(int columnToSet, byte[] chars, int offset, int length, long style) {
+        if (columnToSet < 0 || columnToSet + length > mColumns)
+            throw new IllegalArgumentException("TerminalRow.setAsciiChars(): columnToSet=" + columnToSet + ", length=" + length);
+
+        if (mHasNonOneWidthOrSurrogateChars) {
+            for (int i = 0; i < length; i++)
+                setChar(columnToSet + i, chars[offset + i], style);
+            return;
+        }
+
+        final char[] text = mText;
+        for (int i = 0; i < length; i++)
+            text[columnToSet + i] = (char) chars[offset + i];
+        setStyles(columnToSet, columnToSet + length, style);
+    }
+
     boolean isBlank() {
         for (int charIndex = 0, charLen = getSpaceUsed(); charIndex < charLen; charIndex++)
             if (mText[charIndex] != ' ') return false;
@@ -248,7 +368,102 @@ public final class TerminalRow {
     }
 
     public long getStyle(int column) {
-        return mStyle[column];
+        return mStylePerCell ? mStyle[column] : mStyleRuns[2 * findStyleRun(column) + 1];
+    }
+
+    /**
+     * The end column (exclusive) of the run of cells starting at the specified column which all have the style of that
+     * column, so that cells sharing a style may be handled together.
+     */
+    public int getStyleRunEnd(int column) {
+        if (!mStylePerCell) return (int) mStyleRuns[2 * findStyleRun(column)];
+
+        final long[] style = mStyle;
+        final long styleAtColumn = style[column];
+        int endColumn = column + 1;
+        while (endColumn < mColumns && style[endColumn] == styleAtColumn) endColumn++;
+        return endColumn;
+    }
+
+    /** The index of the run in {@link #mStyleRuns} containing the specified column. */
+    private int findStyleRun(int column) {
+        // Binary search for the first run ending after the column:
+        final long[] styleRuns = mStyleRuns;
+        int low = 0;
+        int high = mStyleRunCount - 1;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (styleRuns[2 * mid] <= column) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /** Set the style of the cells from the start column to the end column (exclusive). */
+    void setStyles(int startColumn, int endColumn, long style) {
+        mGeneration++;
+        mCompact = false;
+        if (mStylePerCell) {
+            Arrays.fill(mStyle, startColumn, endColumn, style);
+            return;
+        }
+
+        // The runs from first to last overlap the cells to set, and will be replaced by the new run along with the parts
+        // of the first and last run outside the cells to set, or merged with the new run if having the same style:
+        long[] styleRuns = mStyleRuns;
+        final int first = findStyleRun(startColumn);
+        final int last = findStyleRun(endColumn - 1);
+        final int firstRunStart = (first == 0) ? 0 : (int) styleRuns[2 * (first - 1)];
+        final long firstRunStyle = styleRuns[2 * first + 1];
+        final int lastRunEnd = (int) styleRuns[2 * last];
+        final long lastRunStyle = styleRuns[2 * last + 1];
+
+        final boolean keepFirstRunStart = firstRunStart < startColumn && firstRunStyle != style;
+        final boolean keepLastRunEnd = endColumn < lastRunEnd && lastRunStyle != style;
+        int replaceFrom = first;
+        int replaceTo = last;
+        int newRunEnd = (lastRunStyle == style) ? lastRunEnd : endColumn;
+        // Merge with the runs before and after if they have the same style:
+        if (!keepFirstRunStart && first > 0 && styleRuns[2 * (first - 1) + 1] == style) replaceFrom--;
+        if (!keepLastRunEnd && newRunEnd == lastRunEnd && last + 1 < mStyleRunCount && styleRuns[2 * (last + 1) + 1] == style) {
+            replaceTo++;
+            newRunEnd = (int) styleRuns[2 * replaceTo];
+        }
+
+        final int newRuns = 1 + (keepFirstRunStart ? 1 : 0) + (keepLastRunEnd ? 1 : 0);
+        final int newRunCount = mStyleRunCount - (replaceTo - replaceFrom + 1) + newRuns;
+        if (newRunCount > MAX_STYLE_RUNS) {
+            // Too fragmented for runs to be efficient.
+            if (mStyle == null) mStyle = new long[mColumns];
+            for (int run = 0, runStart = 0; run < mStyleRunCount; run++) {
+                final int runEnd = (int) styleRuns[2 * run];
+                Arrays.fill(mStyle, runStart, runEnd, styleRuns[2 * run + 1]);
+                runStart = runEnd;
+            }
+            mStylePerCell = true;
+            Arrays.fill(mStyle, startColumn, endColumn, style);
+            return;
+        }
+
+        if (2 * newRunCount > styleRuns.length) {
+            final int newCapacity = Math.min(MAX_STYLE_RUNS, Math.max(newRunCount, styleRuns.length));
+            mStyleRuns = styleRuns = Arrays.copyOf(styleRuns, 2 * newCapacity);
+        }
+        System.arraycopy(styleRuns, 2 * (replaceTo + 1), styleRuns, 2 * (replaceFrom + newRuns), 2 * (mStyleRunCount - replaceTo - 1));
+        int run = replaceFrom;
+        if (keepFirstRunStart) {
+            styleRuns[2 * run] = startColumn;
+            styleRuns[2 * run + 1] = firstRunStyle;
+            run++;
+        }
+        styleRuns[2 * run] = newRunEnd;
+        styleRuns[2 * run + 1] = style;
+        if (keepLastRunEnd) {
+            run++;
+            styleRuns[2 * run] = lastRunEnd;
+            styleRuns[2 * run + 1] = lastRunStyle;
+        }
+        mStyleRunCount = newRunCount;
     }
 
 }
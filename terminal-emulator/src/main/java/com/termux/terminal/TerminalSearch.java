@@ -0,0 +1,282 @@
+package com.termux.terminal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A search for text in the transcript and screen of a {@link TerminalEmulator}, with matches kept up to date as output
+ * arrives by calling {@link #update()}.
+ * <p/>
+ * Text is searched line by line, with rows joined where wrapped, as read by a {@link TerminalLineReader}. The text of a
+ * line is read once when it has completely scrolled into the transcript, where it no longer changes, and kept until it
+ * is dropped from the transcript. So an update only reads and searches the lines scrolled into the transcript since the
+ * last one and the lines on the screen, and changing the query only searches the kept texts, instead of materializing
+ * the whole transcript as a string like {@link TerminalBuffer#getTranscriptText()}. The text of lines spilled out of
+ * memory (see {@link TerminalBuffer#setTranscriptSpill(TranscriptSpill)}) is not kept, but read back a line at a time
+ * when they need to be searched again.
+ * <p/>
+ * Rows are identified by absolute row numbers, which do not change as the rows scroll (see
+ * {@link TerminalBuffer#getScrollCount()}), with {@link #getExternalRow(long)} converting them to the external rows
+ * used for rendering. All methods must be called with the emulator locked, like when rendering.
+ */
+public final class TerminalSearch {
+
+    /** A match of the query, which may span several rows if the line is wrapped. */
+    public static final class Match {
+        /** The absolute row and column where the match starts. */
+        public final long mStartRow;
+        public final int mStartColumn;
+        /** The absolute row and column (exclusive) where the match ends. */
+        public final long mEndRow;
+        public final int mEndColumn;
+
+        Match(long startRow, int startColumn, long endRow, int endColumn) {
+            mStartRow = startRow;
+            mStartColumn = startColumn;
+            mEndRow = endRow;
+            mEndColumn = endColumn;
+        }
+
+        /** Compare the start of this match with the specified position. */
+        int compareStartTo(long row, int column) {
+            int result = Long.compare(mStartRow, row);
+            return result != 0 ? result : Integer.compare(mStartColumn, column);
+        }
+    }
+
+    private final TerminalEmulator mEmulator;
+
+    /** The query as a literal string to find if not a regular expression and case sensitive. */
+    private String mLiteral;
+    /** The matcher of the query if not searching for {@link #mLiteral}. */
+    private Matcher mMatcher;
+
+    private final TerminalLineReader mReader = new TerminalLineReader();
+    /** The text of the lines completely scrolled into the transcript, oldest first. */
+    private final ArrayDeque<TerminalLineReader.Line> mLines = new ArrayDeque<>();
+    /** The absolute row after the lines spilled out of memory whose text is no longer in {@link #mLines}. */
+    private long mSpilledThroughRow = Long.MIN_VALUE;
+    /** The lines being read by an update. */
+    private final ArrayList<TerminalLineReader.Line> mReadLines = new ArrayList<>();
+
+    /** The matches ordered from the oldest, of which the first {@link #mIndexedMatchCount} are in {@link #mLines}. */
+    private final ArrayList<Match> mMatches = new ArrayList<>();
+    private int mIndexedMatchCount;
+
+    /** The position of the current match, if any. */
+    private boolean mHasCurrentMatch;
+    private long mCurrentRow;
+    private int mCurrentColumn;
+
+    public TerminalSearch(TerminalEmulator emulator) {
+        mEmulator = emulator;
+    }
+
+    /**
+     * Set the text to search for, which clears the current match.
+     *
+     * @param query         the text or regular expression to find, or null or empty to find nothing.
+     * @param regex         if the query is a regular expression.
+     * @param caseSensitive if letters should only match letters of the same case.
+     * @throws java.util.regex.PatternSyntaxException if the query is not a valid regular expression.
+     */
+    public void setQuery(String query, boolean regex, boolean caseSensitive) {
+        mLiteral = null;
+        mMatcher = null;
+        if (query != null && !query.isEmpty()) {
+            if (!regex && caseSensitive) {
+                mLiteral = query;
+            } else {
+                int flags = (regex ? 0 : Pattern.LITERAL) | (caseSensitive ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+                mMatcher = Pattern.compile(query, flags).matcher("");
+            }
+        }
+        mHasCurrentMatch = false;
+
+        mMatches.clear();
+        if (hasQuery()) {
+            final TerminalBuffer screen = mEmulator.getScreen();
+            final long firstRow = TerminalLineReader.getFirstRow(screen);
+            searchSpilledLines(screen, firstRow);
+            for (TerminalLineReader.Line line : mLines) findMatches(line, firstRow);
+        }
+        mIndexedMatchCount = mMatches.size();
+        update();
+    }
+
+    private boolean hasQuery() {
+        return mLiteral != null || mMatcher != null;
+    }
+
+    /** Update the matches after the terminal has changed, searching the lines scrolled into the transcript since. */
+    public void update() {
+        final TerminalBuffer screen = mEmulator.getScreen();
+        final long firstRow = TerminalLineReader.getFirstRow(screen);
+        mReadLines.clear();
+        if (mReader.readNewLines(screen, mReadLines)) {
+            mLines.clear();
+            mMatches.clear();
+            // Lines spilled out of memory are not read when starting over, so search them a line at a time:
+            mSpilledThroughRow = TerminalLineReader.getFirstRowInMemory(screen);
+            if (hasQuery()) searchSpilledLines(screen, firstRow);
+            mIndexedMatchCount = mMatches.size();
+        }
+
+        // Drop the lines and matches no longer in the transcript, and the text of lines spilled out of memory:
+        final long firstRowInMemory = TerminalLineReader.getFirstRowInMemory(screen);
+        while (!mLines.isEmpty() && mLines.peekFirst().getLastRow() < firstRowInMemory)
+            mSpilledThroughRow = mLines.removeFirst().getLastRow() + 1;
+        int droppedMatches = 0;
+        while (droppedMatches < mIndexedMatchCount && mMatches.get(droppedMatches).mStartRow < firstRow) droppedMatches++;
+        mMatches.subList(0, droppedMatches).clear();
+        mIndexedMatchCount -= droppedMatches;
+
+        // Search the lines which have been completely scrolled into the transcript:
+        mMatches.subList(mIndexedMatchCount, mMatches.size()).clear();
+        for (TerminalLineReader.Line line : mReadLines) {
+            mLines.addLast(line);
+            if (hasQuery()) findMatches(line, firstRow);
+        }
+        mIndexedMatchCount = mMatches.size();
+
+        // Search the lines on the screen, or wrapped into it, which may still change:
+        if (hasQuery()) {
+            mReadLines.clear();
+            mReader.readScreenLines(screen, mReadLines);
+            for (TerminalLineReader.Line line : mReadLines) findMatches(line, firstRow);
+        }
+        mReadLines.clear();
+    }
+
+    /** Add the matches in the lines spilled out of memory, reading them back a line at a time. */
+    private void searchSpilledLines(TerminalBuffer screen, long firstRow) {
+        long row = firstRow;
+        while (row < mSpilledThroughRow) {
+            TerminalLineReader.Line line = mReader.readLine(screen, row, mSpilledThroughRow);
+            if (line == null) break;
+            findMatches(line, firstRow);
+            row = line.getLastRow() + 1;
+        }
+    }
+
+    /** Add the matches in the line starting at or after the specified absolute row. */
+    private void findMatches(TerminalLineReader.Line line, long firstRow) {
+        final String text = line.mText;
+        if (mLiteral != null) {
+            int index = text.indexOf(mLiteral);
+            while (index != -1) {
+                addMatch(line, index, index + mLiteral.length(), firstRow);
+                index = text.indexOf(mLiteral, index + mLiteral.length());
+            }
+        } else {
+            mMatcher.reset(text);
+            while (mMatcher.find()) {
+                // Empty matches, as of "x*", cannot be shown.
+                if (mMatcher.end() > mMatcher.start()) addMatch(line, mMatcher.start(), mMatcher.end(), firstRow);
+            }
+        }
+    }
+
+    private void addMatch(TerminalLineReader.Line line, int startIndex, int endIndex, long firstRow) {
+        final int startRowIndex = line.getRowIndex(startIndex);
+        final long startRow = line.mFirstRow + startRowIndex;
+        if (startRow < firstRow) return;
+        final int endRowIndex = line.getRowIndex(endIndex - 1);
+        mMatches.add(new Match(startRow, line.getColumn(startRowIndex, startIndex),
+            line.mFirstRow + endRowIndex, line.getColumn(endRowIndex, endIndex)));
+    }
+
+    /** All the matches, oldest first, which are only valid until the next update or query change. */
+    public List<Match> getMatches() {
+        return Collections.unmodifiableList(mMatches);
+    }
+
+    /**
+     * The matches intersecting the specified external rows, as when highlighting the matches visible on the screen,
+     * which are only valid until the next update or query change.
+     */
+    public List<Match> getMatchesInRows(int firstExternalRow, int lastExternalRow) {
+        final long scrollCount = mEmulator.getScreen().getScrollCount();
+        final long firstRow = scrollCount + firstExternalRow;
+        final long lastRow = scrollCount + lastExternalRow;
+        // Matches do not overlap, so are ordered by end as well as by start:
+        int low = 0, high = mMatches.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mMatches.get(mid).mEndRow < firstRow) low = mid + 1;
+            else high = mid;
+        }
+        int end = low;
+        while (end < mMatches.size() && mMatches.get(end).mStartRow <= lastRow) end++;
+        return Collections.unmodifiableList(mMatches.subList(low, end));
+    }
+
+    /** The external row, as used for rendering, of the specified absolute row of a match. */
+    public int getExternalRow(long row) {
+        return (int) (row - mEmulator.getScreen().getScrollCount());
+    }
+
+    /** The current match, or null if none has been selected by {@link #next()} or {@link #previous()}. */
+    public Match getCurrentMatch() {
+        if (!mHasCurrentMatch) return null;
+        int index = findMatchStartingAtOrAfter(mCurrentRow, mCurrentColumn);
+        if (index == mMatches.size()) return null;
+        Match match = mMatches.get(index);
+        return match.compareStartTo(mCurrentRow, mCurrentColumn) == 0 ? match : null;
+    }
+
+    /**
+     * Select the match after the current one, or the oldest if none or the current one is the newest.
+     *
+     * @return the new current match, or null if there are no matches.
+     */
+    public Match next() {
+        if (mMatches.isEmpty()) return null;
+        int index = 0;
+        if (mHasCurrentMatch) {
+            index = findMatchStartingAtOrAfter(mCurrentRow, mCurrentColumn);
+            if (index < mMatches.size() && mMatches.get(index).compareStartTo(mCurrentRow, mCurrentColumn) == 0) index++;
+            if (index == mMatches.size()) index = 0;
+        }
+        return setCurrentMatch(mMatches.get(index));
+    }
+
+    /**
+     * Select the match before the current one, or the newest if none or the current one is the oldest. As terminal
+     * output is read from the bottom, this is usually how to search.
+     *
+     * @return the new current match, or null if there are no matches.
+     */
+    public Match previous() {
+        if (mMatches.isEmpty()) return null;
+        int index = mMatches.size() - 1;
+        if (mHasCurrentMatch) {
+            index = findMatchStartingAtOrAfter(mCurrentRow, mCurrentColumn) - 1;
+            if (index < 0) index = mMatches.size() - 1;
+        }
+        return setCurrentMatch(mMatches.get(index));
+    }
+
+    private Match setCurrentMatch(Match match) {
+        mHasCurrentMatch = true;
+        mCurrentRow = match.mStartRow;
+        mCurrentColumn = match.mStartColumn;
+        return match;
+    }
+
+    /** The index of the first match starting at or after the specified position, or the number of matches if none. */
+    private int findMatchStartingAtOrAfter(long row, int column) {
+        int low = 0, high = mMatches.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mMatches.get(mid).compareStartTo(row, column) < 0) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+}
@@ -2,12 +2,14 @@ package com.termux.terminal;
 
 import android.annotation.SuppressLint;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import android.system.ErrnoException;
 import android.system.Os;
 import android.system.OsConstants;
 import android.util.Log;
+import android.view.Choreographer;
 
 import androidx.annotation.NonNull;
 
@@ -20,13 +22,22 @@ import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.nio.charset.StandardCharsets;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A terminal session, consisting of a process coupled to a terminal interface.
  * <p>
  * The subprocess will be executed by the constructor, and when the size is made known by a call to
  * {@link #updateSize(int, int, int, int)} terminal emulation will begin and threads will be spawned to handle the subprocess I/O.
- * All terminal emulation and callback methods will be performed on the main thread.
+ * All callback methods will be performed on the main thread. Terminal emulation is performed on the main thread as well,
+ * unless {@link #setEmulateOnWorkerThread(boolean)} has been used to request a dedicated emulation thread, in which case
+ * the emulator is mutated while holding its monitor, which readers on other threads should then also hold.
+ * <p>
+ * Screen updates are notified at most once per display frame. When emulating on the main thread, process output is
+ * appended to the emulator at the start of each frame, limited by {@link #setFrameInputBudget(int)}.
  * <p>
  * The child process may be exited forcefully by using the {@link #finishIfRunning()} method.
  * <p>
@@ -36,16 +47,24 @@ public final class TerminalSession extends TerminalOutput {
 
     private static final int MSG_NEW_INPUT = 1;
     private static final int MSG_PROCESS_EXITED = 4;
+    private static final int MSG_SCREEN_UPDATED = 5;
+
+    /**
+     * The number of bytes the process output is first read in, which grows up to the max while reads fill it, so that
+     * sustained output is read with fewer system calls.
+     */
+    private static final int MIN_READ_SIZE = 4 * 1024;
+    private static final int MAX_READ_SIZE = 64 * 1024;
 
     public final String mHandle = UUID.randomUUID().toString();
 
     TerminalEmulator mEmulator;
 
     /**
-     * A queue written to from a separate thread when the process outputs, and read by main thread to process by
-     * terminal emulator.
+     * A queue written to from a separate thread when the process outputs, and read by the emulation thread (which is the
+     * main thread unless {@link #setEmulateOnWorkerThread(boolean)} is used) to process by terminal emulator.
      */
-    final ByteQueue mProcessToTerminalIOQueue = new ByteQueue(64 * 1024);
+    final ByteQueue mProcessToTerminalIOQueue = new ByteQueue(2 * MAX_READ_SIZE);
     /**
      * A queue written to from the main thread due to user interaction, and read by another thread which forwards by
      * writing to the {@link #mTerminalFileDescriptor}.
@@ -54,6 +73,11 @@ public final class TerminalSession extends TerminalOutput {
     /** Buffer to write translate code points into utf8 before writing to mTerminalToProcessIOQueue */
     private final byte[] mUtf8InputBuffer = new byte[5];
 
+    /** The thread writing pastes started by {@link #paste(String, TerminalPaste.Listener)}, one at a time in order. */
+    private ThreadPoolExecutor mPasteExecutor;
+    /** The pastes queued or running on {@link #mPasteExecutor}. */
+    private final ConcurrentLinkedQueue<TerminalPaste> mPastes = new ConcurrentLinkedQueue<>();
+
     /** Callback which gets notified when a session finishes or changes title. */
     final TerminalSessionClient mClient;
 
@@ -75,7 +99,45 @@ public final class TerminalSession extends TerminalOutput {
     /** Set by the application for user identification of session, not by terminal. */
     public String mSessionName;
 
-    final Handler mMainThreadHandler = new MainThreadHandler();
+    final EmulationHandler mMainThreadHandler = new EmulationHandler(Looper.getMainLooper());
+
+    /** If terminal emulation should be performed on a dedicated thread instead of the main thread. */
+    private boolean mEmulateOnWorkerThread;
+    /** The handler receiving process output to feed to the emulator, running on the main or the emulation thread. */
+    private Handler mEmulationHandler;
+    /** The {@link TerminalEmulator#getGeneration()} last notified to the client. */
+    private int mNotifiedGeneration;
+
+    /** The default value of {@link #mFrameInputBudget}. */
+    public static final int DEFAULT_FRAME_INPUT_BUDGET = 1024 * 1024;
+    /**
+     * The max time to spend appending process output to the emulator on the main thread in a frame, or on the emulation
+     * thread between screen update notifications.
+     */
+    private static final long FRAME_INPUT_TIME_BUDGET_NANOS = 8_000_000;
+    /**
+     * The max number of bytes of process output to append to the emulator on the main thread in a frame, or on the
+     * emulation thread between screen update notifications.
+     */
+    private int mFrameInputBudget = DEFAULT_FRAME_INPUT_BUDGET;
+    /** The choreographer of the main thread, used to process input and notify screen updates once per frame. */
+    private Choreographer mChoreographer;
+    /** If {@link #mFrameCallback} has been posted to {@link #mChoreographer} but not yet run. */
+    private boolean mFrameScheduled;
+    private final Choreographer.FrameCallback mFrameCallback = frameTimeNanos -> onFrame();
+
+    /** The max number of transcript rows reflowed at a time after resizing, between processing process output. */
+    private static final int REFLOW_ROWS_PER_STEP = 500;
+    /** Reflows transcript rows left by resizing on the emulation thread, see {@link #reflowPendingTranscriptRows()}. */
+    private final Runnable mReflowRunnable = this::reflowPendingTranscriptRows;
+
+    /** The directory to keep rows dropped from the transcript in, see {@link #setTranscriptSpill(File, int)}. */
+    private File mTranscriptSpillDirectory;
+    /** The max number of rows to keep in the transcript spill, or 0 if not spilling. */
+    private int mTranscriptSpillRows;
+
+    /** The metrics of the session if enabled by {@link #setMetricsEnabled(boolean)}, otherwise null. */
+    private volatile TerminalMetrics mMetrics;
 
     private final String mExecutablePath;
     private final String mCwd;
@@ -95,16 +157,109 @@ public final class TerminalSession extends TerminalOutput {
         this.mClient = client;
     }
 
+    /**
+     * Set if terminal emulation should be performed on a dedicated per-session thread, so that process output is parsed
+     * without competing with input handling and rendering on the main thread. Only has an effect if called before
+     * terminal emulation begins with the first {@link #updateSize(int, int, int, int)} call.
+     */
+    public void setEmulateOnWorkerThread(boolean emulateOnWorkerThread) {
+        mEmulateOnWorkerThread = emulateOnWorkerThread;
+    }
+
+    /**
+     * Set the max number of bytes of process output to process on the main thread per display frame before deferring
+     * the rest to the next frame, so that bulk output does not starve input handling and rendering. When emulating on a
+     * worker thread, it is the max number of bytes processed before notifying the screen update. Non-positive values
+     * restore {@link #DEFAULT_FRAME_INPUT_BUDGET}.
+     */
+    public void setFrameInputBudget(int bytes) {
+        mFrameInputBudget = (bytes > 0) ? bytes : DEFAULT_FRAME_INPUT_BUDGET;
+    }
+
+    /**
+     * Set to keep the rows dropped from the top of the transcript when it is full in files in the specified directory,
+     * such as the cache directory of the app, so that up to the specified number of additional rows can be scrolled
+     * back to without using more memory, see {@link TranscriptSpill}. A non-positive number of rows disables this.
+     * Only has an effect if called before terminal emulation begins with the first
+     * {@link #updateSize(int, int, int, int)} call.
+     */
+    public void setTranscriptSpill(File directory, int maxRows) {
+        mTranscriptSpillDirectory = directory;
+        mTranscriptSpillRows = Math.min(Math.max(maxRows, 0), TranscriptSpill.MAX_ROWS);
+    }
+
+    /** Close the transcript spill, if any, dropping the rows in it, as when the session is no longer shown. */
+    public void closeTranscriptSpill() {
+        if (mEmulator == null) return;
+        synchronized (mEmulator) {
+            mEmulator.setTranscriptSpill(null);
+        }
+    }
+
+    /**
+     * Enable or disable recording of {@link #getMetrics()}, which is off by default as it costs some time for each read
+     * and append of process output. Enabling starts recording from scratch.
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        if (enabled != (mMetrics != null)) mMetrics = enabled ? new TerminalMetrics() : null;
+    }
+
+    /** The metrics recorded since enabled by {@link #setMetricsEnabled(boolean)}, or null if not enabled. */
+    public TerminalMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /** If terminal emulation is performed on a dedicated thread, see {@link #setEmulateOnWorkerThread(boolean)}. */
+    public boolean isEmulatingOnWorkerThread() {
+        return mEmulationHandler != null && mEmulationHandler != mMainThreadHandler;
+    }
+
     /** Inform the attached pty of the new size and reflow or initialize the emulator. */
     public void updateSize(int columns, int rows, int cellWidthPixels, int cellHeightPixels) {
         if (mEmulator == null) {
             initializeEmulator(columns, rows, cellWidthPixels, cellHeightPixels);
         } else {
             JNI.setPtyWindowSize(mTerminalFileDescriptor, rows, columns, cellWidthPixels, cellHeightPixels);
-            mEmulator.resize(columns, rows, cellWidthPixels, cellHeightPixels);
+            boolean reflowPending;
+            synchronized (mEmulator) {
+                mEmulator.resize(columns, rows, cellWidthPixels, cellHeightPixels);
+                reflowPending = mEmulator.hasPendingTranscriptRows();
+            }
+            if (reflowPending) {
+                mEmulationHandler.removeCallbacks(mReflowRunnable);
+                postReflowStep();
+            }
         }
     }
 
+    /**
+     * Reflow a step of the transcript rows left by resizing, as only the screen and the rows just above it are reflowed
+     * when resizing so that it does not take time proportional to the transcript size, and post the next step if more
+     * remain. Runs on the emulation thread so that process output is processed between the steps.
+     */
+    private void reflowPendingTranscriptRows() {
+        boolean reflowPending;
+        synchronized (mEmulator) {
+            reflowPending = mEmulator.reflowPendingTranscriptRows(REFLOW_ROWS_PER_STEP);
+        }
+        notifyScreenUpdateFromEmulationThread();
+        if (reflowPending) postReflowStep();
+    }
+
+    /**
+     * Post the next step of {@link #reflowPendingTranscriptRows()}, or if the emulation thread has quit as the process
+     * has exited, reflow all the remaining rows right away, as the finished session may still be shown and resized.
+     */
+    private void postReflowStep() {
+        if (mEmulationHandler.post(mReflowRunnable)) return;
+        synchronized (mEmulator) {
+            while (mEmulator.reflowPendingTranscriptRows(REFLOW_ROWS_PER_STEP)) {
+                // Reflow until done.
+            }
+        }
+        notifyScreenUpdateFromEmulationThread();
+    }
+
     /** The terminal title as set through escape sequences or null if none set. */
     public String getTitle() {
         return (mEmulator == null) ? null : mEmulator.getTitle();
@@ -118,6 +273,13 @@ public final class TerminalSession extends TerminalOutput {
      */
     public void initializeEmulator(int columns, int rows, int cellWidthPixels, int cellHeightPixels) {
         mEmulator = new TerminalEmulator(this, columns, rows, cellWidthPixels, cellHeightPixels, mTranscriptRows, mClient);
+        if (mTranscriptSpillDirectory != null && mTranscriptSpillRows > 0) {
+            try {
+                mEmulator.setTranscriptSpill(TranscriptSpill.create(mTranscriptSpillDirectory, mTranscriptSpillRows));
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed creating transcript spill in " + mTranscriptSpillDirectory, e);
+            }
+        }
 
         int[] processId = new int[1];
         mTerminalFileDescriptor = JNI.createSubprocess(mExecutablePath, mCwd, mArgs, mEnv, processId, rows, columns, cellWidthPixels, cellHeightPixels);
@@ -126,16 +288,32 @@ public final class TerminalSession extends TerminalOutput {
 
         var terminalFileDescriptorWrapped = wrapFileDescriptor(mTerminalFileDescriptor);
 
+        mChoreographer = Choreographer.getInstance();
+        if (mEmulateOnWorkerThread) {
+            HandlerThread emulationThread = new HandlerThread("TermSessionEmulator[pid=" + mShellPid + "]");
+            emulationThread.start();
+            mEmulationHandler = new EmulationHandler(emulationThread.getLooper());
+        } else {
+            mEmulationHandler = mMainThreadHandler;
+        }
+        final Handler emulationHandler = mEmulationHandler;
+
         new Thread("TermSessionInputReader[pid=" + mShellPid + "]") {
             @Override
             public void run() {
                 try (InputStream termIn = new FileInputStream(terminalFileDescriptorWrapped)) {
-                    final byte[] buffer = new byte[4096];
+                    int readSize = MIN_READ_SIZE;
                     while (true) {
-                        int read = termIn.read(buffer);
+                        // Read directly into the queue, from which the emulator consumes the bytes in place:
+                        int read = mProcessToTerminalIOQueue.fillFrom(termIn, readSize);
                         if (read == -1) return;
-                        if (!mProcessToTerminalIOQueue.write(buffer, 0, read)) return;
-                        mMainThreadHandler.sendEmptyMessage(MSG_NEW_INPUT);
+                        final TerminalMetrics metrics = mMetrics;
+                        if (metrics != null) metrics.onRead(read, mProcessToTerminalIOQueue.getStoredBytes());
+                        // Read more at once while reads fill the read size, as under sustained output, and go back to
+                        // smaller reads once the output slows down:
+                        if (read == readSize) readSize = Math.min(2 * readSize, MAX_READ_SIZE);
+                        else if (read < readSize / 4) readSize = Math.max(readSize / 2, MIN_READ_SIZE);
+                        emulationHandler.sendEmptyMessage(MSG_NEW_INPUT);
                     }
                 } catch (Exception e) {
                     // Ignore, just shutting down.
@@ -163,7 +341,7 @@ public final class TerminalSession extends TerminalOutput {
             @Override
             public void run() {
                 int processExitCode = JNI.waitFor(mShellPid);
-                mMainThreadHandler.sendMessage(mMainThreadHandler.obtainMessage(MSG_PROCESS_EXITED, processExitCode));
+                emulationHandler.sendMessage(emulationHandler.obtainMessage(MSG_PROCESS_EXITED, processExitCode));
             }
         }.start();
 
@@ -172,7 +350,73 @@ public final class TerminalSession extends TerminalOutput {
     /** Write data to the shell process. */
     @Override
     public void write(byte[] data, int offset, int count) {
-        if (mShellPid > 0) mTerminalToProcessIOQueue.write(data, offset, count);
+        if (mShellPid <= 0) return;
+        // The queue allows only one producer, but when emulating on a worker thread the emulator writes its responses
+        // from there while input is written from the main thread, so serialize the writes:
+        synchronized (mTerminalToProcessIOQueue) {
+            mTerminalToProcessIOQueue.write(data, offset, count);
+        }
+        // Responses written by the emulator while appending are not input, so do not count in the echo latency:
+        final TerminalMetrics metrics = mMetrics;
+        if (metrics != null && !Thread.holdsLock(mEmulator)) metrics.onInput();
+    }
+
+    /**
+     * Write data to the shell process like {@link #write(byte[], int, int)}, but without holding the lock serializing
+     * writes while waiting for the process to read, so that input written meanwhile is not blocked. Only called from the
+     * paste thread.
+     */
+    private void writeWithoutBlockingInput(byte[] data, int offset, int count) {
+        while (count > 0) {
+            if (mShellPid <= 0 || !mTerminalToProcessIOQueue.awaitFreeSpace()) return;
+            final int written;
+            synchronized (mTerminalToProcessIOQueue) {
+                written = mTerminalToProcessIOQueue.offer(data, offset, count);
+            }
+            if (written < 0) return;
+            offset += written;
+            count -= written;
+        }
+    }
+
+    /**
+     * Paste text to the shell process on a background thread, with the text sanitized and bracketed as done by
+     * {@link TerminalEmulator#paste(String)}. The text is written in chunks as the process reads it, so a large paste
+     * neither blocks the calling thread nor input written while it is in progress.
+     *
+     * @param listener notified of the progress on the paste thread, may be null.
+     * @return the paste, which may be used to {@link TerminalPaste#cancel()} it.
+     */
+    public TerminalPaste paste(@NonNull String text, TerminalPaste.Listener listener) {
+        boolean bracketed = false;
+        if (mEmulator != null) {
+            synchronized (mEmulator) {
+                bracketed = mEmulator.isBracketedPasteMode();
+            }
+        }
+
+        final TerminalPaste paste = new TerminalPaste(this::writeWithoutBlockingInput, text, bracketed, listener);
+        synchronized (mPastes) {
+            if (mPasteExecutor == null) {
+                mPasteExecutor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    runnable -> new Thread(runnable, "TermSessionPaste[pid=" + mShellPid + "]"));
+                mPasteExecutor.allowCoreThreadTimeOut(true);
+            }
+            mPastes.add(paste);
+            mPasteExecutor.execute(() -> {
+                try {
+                    paste.run();
+                } finally {
+                    mPastes.remove(paste);
+                }
+            });
+        }
+        return paste;
+    }
+
+    /** Cancel all pastes queued or in progress. */
+    public void cancelPastes() {
+        for (TerminalPaste paste : mPastes) paste.cancel();
     }
 
     /** Write the Unicode code point to the terminal encoded in UTF-8. */
@@ -221,9 +465,68 @@ public final class TerminalSession extends TerminalOutput {
         mClient.onTextChanged(this);
     }
 
+    /** Notify the {@link #mClient} that the screen has changed if the emulator has changed since the last notification. */
+    private void notifyScreenUpdateIfChanged() {
+        int generation;
+        synchronized (mEmulator) {
+            generation = mEmulator.getGeneration();
+        }
+        if (generation != mNotifiedGeneration) {
+            mNotifiedGeneration = generation;
+            notifyScreenUpdate();
+        }
+    }
+
+    /**
+     * Request that the {@link #mClient} is notified on the main thread in the next frame that the screen has changed,
+     * from the thread performing terminal emulation. Notifications are coalesced so that the main thread is not flooded
+     * when output arrives quicker than it can render.
+     */
+    private void notifyScreenUpdateFromEmulationThread() {
+        if (mEmulationHandler == mMainThreadHandler) {
+            scheduleFrame();
+        } else if (!mMainThreadHandler.hasMessages(MSG_SCREEN_UPDATED)) {
+            mMainThreadHandler.sendEmptyMessage(MSG_SCREEN_UPDATED);
+        }
+    }
+
+    /** Schedule {@link #onFrame()} to run at the next display frame, if not already scheduled. Main thread only. */
+    private void scheduleFrame() {
+        if (!mFrameScheduled) {
+            mFrameScheduled = true;
+            mChoreographer.postFrameCallback(mFrameCallback);
+        }
+    }
+
+    /**
+     * Called on the main thread at the start of a display frame to process input, if emulating on the main thread, and
+     * notify the client once about screen changes, so that the screen is only invalidated once per frame.
+     */
+    private void onFrame() {
+        mFrameScheduled = false;
+        if (mEmulationHandler == mMainThreadHandler) {
+            if (mMainThreadHandler.appendQueuedInput(mFrameInputBudget, FRAME_INPUT_TIME_BUDGET_NANOS)) {
+                // More input may be available, continue in the next frame:
+                scheduleFrame();
+            }
+        }
+        notifyScreenUpdateIfChanged();
+    }
+
+    /** Run the runnable on the main thread, directly if already on it. */
+    private void runOnMainThread(Runnable runnable) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            runnable.run();
+        } else {
+            mMainThreadHandler.post(runnable);
+        }
+    }
+
     /** Reset state for terminal emulator state. */
     public void reset() {
-        mEmulator.reset();
+        synchronized (mEmulator) {
+            mEmulator.reset();
+        }
         notifyScreenUpdate();
     }
 
@@ -247,6 +550,7 @@ public final class TerminalSession extends TerminalOutput {
         }
 
         // Stop the reader and writer threads, and close the I/O streams
+        cancelPastes();
         mTerminalToProcessIOQueue.close();
         mProcessToTerminalIOQueue.close();
         JNI.close(mTerminalFileDescriptor);
@@ -254,7 +558,7 @@ public final class TerminalSession extends TerminalOutput {
 
     @Override
     public void titleChanged(String oldTitle, String newTitle) {
-        mClient.onTitleChanged(this);
+        runOnMainThread(() -> mClient.onTitleChanged(this));
     }
 
     public synchronized boolean isRunning() {
@@ -268,22 +572,22 @@ public final class TerminalSession extends TerminalOutput {
 
     @Override
     public void onCopyTextToClipboard(String text) {
-        mClient.onCopyTextToClipboard(this, text);
+        runOnMainThread(() -> mClient.onCopyTextToClipboard(this, text));
     }
 
     @Override
     public void onPasteTextFromClipboard() {
-        mClient.onPasteTextFromClipboard(this);
+        runOnMainThread(() -> mClient.onPasteTextFromClipboard(this));
     }
 
     @Override
     public void onBell() {
-        mClient.onBell(this);
+        runOnMainThread(() -> mClient.onBell(this));
     }
 
     @Override
     public void onColorsChanged() {
-        mClient.onColorsChanged(this);
+        runOnMainThread(() -> mClient.onColorsChanged(this));
     }
 
     public int getPid() {
@@ -329,24 +633,72 @@ public final class TerminalSession extends TerminalOutput {
         return result;
     }
 
+    /**
+     * Handler feeding process output to the emulator. Runs on the main looper, or on the looper of the emulation thread
+     * if {@link #setEmulateOnWorkerThread(boolean)} was used, in which case the main looper one only receives screen
+     * update notifications.
+     */
     @SuppressLint("HandlerLeak")
-    class MainThreadHandler extends Handler {
+    class EmulationHandler extends Handler implements ByteQueue.Consumer {
 
-        final byte[] mReceiveBuffer = new byte[64 * 1024];
+        EmulationHandler(Looper looper) {
+            super(looper);
+        }
 
-        public MainThreadHandler() {
-            super(Looper.getMainLooper());
+        /**
+         * Append queued process output to the emulator, stopping when the byte or time budget is exhausted.
+         *
+         * @return if stopped due to the budget being exhausted, so that more input may be queued.
+         */
+        boolean appendQueuedInput(int byteBudget, long timeBudgetNanos) {
+            final long startTime = System.nanoTime();
+            while (byteBudget > 0) {
+                int bytesRead;
+                synchronized (mEmulator) {
+                    bytesRead = mProcessToTerminalIOQueue.drainTo(this, byteBudget, false);
+                }
+                if (bytesRead <= 0) return false;
+                byteBudget -= bytesRead;
+                if (System.nanoTime() - startTime > timeBudgetNanos) break;
+            }
+            return true;
+        }
+
+        /** Called with the emulator locked, with queued process output, by {@link #appendQueuedInput(int, long)}. */
+        @Override
+        public void accept(byte[] buffer, int offset, int length) {
+            final TerminalMetrics metrics = mMetrics;
+            if (metrics == null) {
+                mEmulator.append(buffer, offset, length);
+                return;
+            }
+            final long startTime = System.nanoTime();
+            mEmulator.append(buffer, offset, length);
+            metrics.onAppend(length, System.nanoTime() - startTime);
         }
 
         @Override
         public void handleMessage(@NonNull Message msg) {
-            int bytesRead = mProcessToTerminalIOQueue.read(mReceiveBuffer, false);
-            if (bytesRead > 0) {
-                mEmulator.append(mReceiveBuffer, bytesRead);
-                notifyScreenUpdate();
+            if (msg.what == MSG_SCREEN_UPDATED) {
+                scheduleFrame();
+                return;
             }
 
-            if (msg.what == MSG_PROCESS_EXITED) {
+            if (msg.what == MSG_NEW_INPUT) {
+                if (this == mMainThreadHandler) {
+                    // Wait for the next frame, to process all input received until then at once.
+                    scheduleFrame();
+                } else {
+                    // Notify the screen update after each budget, so that the screen is updated under sustained output,
+                    // and continue after other queued messages:
+                    if (appendQueuedInput(mFrameInputBudget, FRAME_INPUT_TIME_BUDGET_NANOS) && !hasMessages(MSG_NEW_INPUT))
+                        sendEmptyMessage(MSG_NEW_INPUT);
+                    notifyScreenUpdateFromEmulationThread();
+                }
+            } else if (msg.what == MSG_PROCESS_EXITED) {
+                // Process all output received before the exit, regardless of budget, before cleaning up:
+                appendQueuedInput(Integer.MAX_VALUE, Long.MAX_VALUE);
+
                 int exitCode = (Integer) msg.obj;
                 cleanupResources(exitCode);
 
@@ -361,10 +713,17 @@ public final class TerminalSession extends TerminalOutput {
                 exitDescription += " - press Enter]";
 
                 byte[] bytesToWrite = exitDescription.getBytes(StandardCharsets.UTF_8);
-                mEmulator.append(bytesToWrite, bytesToWrite.length);
-                notifyScreenUpdate();
+                synchronized (mEmulator) {
+                    mEmulator.append(bytesToWrite, bytesToWrite.length);
+                }
+                if (this == mMainThreadHandler) {
+                    notifyScreenUpdateIfChanged();
+                } else {
+                    notifyScreenUpdateFromEmulationThread();
+                }
 
-                mClient.onSessionFinished(TerminalSession.this);
+                runOnMainThread(() -> mClient.onSessionFinished(TerminalSession.this));
+                if (getLooper() != Looper.getMainLooper()) getLooper().quitSafely();
             }
         }
 
@@ -24,6 +24,10 @@ public interface TerminalSessionClient {
 
     void onColorsChanged(@NonNull TerminalSession session);
 
+    /**
+     * Called directly by the {@link TerminalEmulator}, so on the emulation thread if
+     * {@link TerminalSession#setEmulateOnWorkerThread(boolean)} is used, unlike the other callbacks.
+     */
     void onTerminalCursorStateChange(boolean state);
 
 }
@@ -0,0 +1,287 @@
+package com.termux.terminal;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Storage outside of the Java heap for transcript rows which no longer fit in a {@link TerminalBuffer}, so that the
+ * transcript may hold far more rows than {@link TerminalEmulator#TERMINAL_TRANSCRIPT_ROWS_MAX} without the heap growing.
+ * <p/>
+ * Rows evicted from the top of the transcript are serialized by {@link #add(TerminalRow)} to memory-mapped data files,
+ * with the offset of each row in a memory-mapped index file, and read back by {@link #getRow(int, int)} with a small
+ * cache of recently read rows, as when scrolled into view. The files are deleted as soon as they are opened, so they
+ * live only as long as they are open and nothing is left behind if the process dies.
+ * <p/>
+ * The files are mapped in fixed size segments as they grow, with the space of each segment written before it is mapped
+ * so that running out of space fails writing instead of accessing the mapping. When more than the max number of rows
+ * have been added the oldest rows are dropped. The index is used as a ring of the max number of rows, and rows are
+ * written to one of two data files until it holds the max number of rows, after which the other one is rewritten from
+ * its start, as all rows in it have been dropped by then. So rows are never moved, and the data files are bounded to
+ * about twice the size needed for the max number of rows.
+ * <p/>
+ * Rows are kept as they were when added, so rows spilled before resizing to another number of columns are shown cut
+ * or padded to the new width instead of being reflowed. Like the {@link TerminalBuffer} it belongs to, a spill must
+ * only be used with the emulator locked.
+ */
+public final class TranscriptSpill implements Closeable {
+
+    private static final String LOG_TAG = "TranscriptSpill";
+
+    /** The size of each mapped segment of the files. A row never spans two segments of the data file. */
+    private static final int SEGMENT_BYTES = 8 * 1024 * 1024;
+    /** The size of an entry in the index file, which is the offset of a row in its data file and the data file. */
+    private static final int INDEX_ENTRY_BYTES = 8;
+    /** The size of a serialized row without its text and style runs: columns, flags, text length and run count. */
+    private static final int ROW_HEADER_BYTES = 2 + 1 + 2 + 2;
+    /** The size of a serialized style run: end column and style. */
+    private static final int STYLE_RUN_BYTES = 2 + 8;
+    private static final int FLAG_LINE_WRAP = 1;
+    private static final int FLAG_NON_ONE_WIDTH_OR_SURROGATE_CHARS = 2;
+    /** The max number of rows which may be kept. */
+    public static final int MAX_ROWS = 100_000_000;
+    /** The number of recently read rows kept as objects, a few screens worth. */
+    private static final int CACHED_ROWS = 512;
+
+    /** Zeros written to reserve the space of segments before mapping them. */
+    private static final byte[] ZEROS = new byte[64 * 1024];
+
+    private final int mMaxRows;
+    private final SegmentedFile[] mData = new SegmentedFile[2];
+    private final SegmentedFile mIndex;
+
+    /** The number of the oldest row kept, counting all rows added, as the rows before it have been dropped. */
+    private long mFirstRow;
+    /** The number of rows added, including dropped ones. The entry of a row is at its number modulo the max rows. */
+    private long mEndRow;
+    /** The data file rows are written to, the offset in it where the next row is written, and its number of rows. */
+    private int mDataFile;
+    private long mDataEnd;
+    private int mDataFileRows;
+    /** If writing failed, as when running out of space, after which rows are no longer added. */
+    private boolean mFailed;
+
+    /** Rows recently read, by their number. */
+    private final LinkedHashMap<Long, TerminalRow> mCache = new LinkedHashMap<Long, TerminalRow>(CACHED_ROWS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, TerminalRow> eldest) {
+            return size() > CACHED_ROWS;
+        }
+    };
+
+    /** A file mapped into memory in {@link #SEGMENT_BYTES} segments as it grows. */
+    private static final class SegmentedFile {
+        final RandomAccessFile mFile;
+        final ArrayList<MappedByteBuffer> mSegments = new ArrayList<>();
+
+        SegmentedFile(File directory, String suffix) throws IOException {
+            File file = File.createTempFile("transcript", suffix, directory);
+            mFile = new RandomAccessFile(file, "rw");
+            if (!file.delete()) Log.w(LOG_TAG, "Failed deleting open spill file " + file);
+        }
+
+        /** The segment containing the specified offset, mapping it if not already done. */
+        MappedByteBuffer segment(long offset) throws IOException {
+            final int index = (int) (offset / SEGMENT_BYTES);
+            while (mSegments.size() <= index) {
+                final long start = (long) mSegments.size() * SEGMENT_BYTES;
+                reserve(start, start + SEGMENT_BYTES);
+                mSegments.add(mFile.getChannel().map(FileChannel.MapMode.READ_WRITE, start, SEGMENT_BYTES));
+            }
+            return mSegments.get(index);
+        }
+
+        /**
+         * Write zeros to the file from the start to the end offset, so that its space is allocated and accessing the
+         * mapping does not fail, which is a crash instead of an {@link IOException}, if running out of space.
+         */
+        private void reserve(long start, long end) throws IOException {
+            final FileChannel channel = mFile.getChannel();
+            long position = start;
+            while (position < end) {
+                position += channel.write(ByteBuffer.wrap(ZEROS, 0, (int) Math.min(ZEROS.length, end - position)), position);
+            }
+        }
+
+        void close() throws IOException {
+            mSegments.clear();
+            mFile.close();
+        }
+    }
+
+    private TranscriptSpill(File directory, int maxRows) throws IOException {
+        mMaxRows = maxRows;
+        mData[0] = new SegmentedFile(directory, ".rows");
+        try {
+            mData[1] = new SegmentedFile(directory, ".rows");
+            try {
+                mIndex = new SegmentedFile(directory, ".index");
+            } catch (IOException e) {
+                mData[1].close();
+                throw e;
+            }
+        } catch (IOException e) {
+            mData[0].close();
+            throw e;
+        }
+    }
+
+    /**
+     * Create a spill with files in the specified directory, such as the cache directory of the app.
+     *
+     * @param maxRows the max number of rows to keep, after which the oldest ones are dropped.
+     */
+    public static TranscriptSpill create(File directory, int maxRows) throws IOException {
+        if (maxRows <= 0 || maxRows > MAX_ROWS) throw new IllegalArgumentException("maxRows=" + maxRows);
+        return new TranscriptSpill(directory, maxRows);
+    }
+
+    /** The number of rows kept. */
+    public int getRowCount() {
+        return (int) (mEndRow - mFirstRow);
+    }
+
+    /** Add a row after the newest one, dropping the oldest row if there are already as many as the max. */
+    public void add(TerminalRow row) {
+        if (mFailed) return;
+        try {
+            if (getRowCount() == mMaxRows) {
+                mCache.remove(mFirstRow);
+                mFirstRow++;
+            }
+            if (mDataFileRows == mMaxRows) {
+                // The rows in the other data file are older than the max number of rows in this one, so all dropped:
+                mDataFile = 1 - mDataFile;
+                mDataEnd = 0;
+                mDataFileRows = 0;
+            }
+            final long offset = write(row, mDataEnd);
+            final long indexOffset = (mEndRow % mMaxRows) * INDEX_ENTRY_BYTES;
+            mIndex.segment(indexOffset).putLong((int) (indexOffset % SEGMENT_BYTES), (offset << 1) | mDataFile);
+            mDataFileRows++;
+            mEndRow++;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed spilling transcript row, no longer spilling", e);
+            mFailed = true;
+        }
+    }
+
+    /**
+     * Serialize the row at the specified offset in the data file, or at the start of the next segment if it does not
+     * fit in the rest of the segment, updating {@link #mDataEnd}.
+     *
+     * @return the offset the row was written at.
+     */
+    private long write(TerminalRow row, long offset) throws IOException {
+        final int columns = row.getColumns();
+        int styleRuns = 0;
+        for (int column = 0; column < columns; column = row.getStyleRunEnd(column)) styleRuns++;
+        final int textLength = row.getSpaceUsed();
+        final int length = ROW_HEADER_BYTES + 2 * textLength + STYLE_RUN_BYTES * styleRuns;
+
+        if (offset % SEGMENT_BYTES + length > SEGMENT_BYTES) offset += SEGMENT_BYTES - offset % SEGMENT_BYTES;
+        final MappedByteBuffer segment = mData[mDataFile].segment(offset);
+        int position = (int) (offset % SEGMENT_BYTES);
+        segment.putShort(position, (short) columns);
+        segment.put(position + 2, (byte) ((row.mLineWrap ? FLAG_LINE_WRAP : 0)
+            | (row.mHasNonOneWidthOrSurrogateChars ? FLAG_NON_ONE_WIDTH_OR_SURROGATE_CHARS : 0)));
+        segment.putShort(position + 3, (short) textLength);
+        segment.putShort(position + 5, (short) styleRuns);
+        position += ROW_HEADER_BYTES;
+        final char[] text = row.mText;
+        for (int i = 0; i < textLength; i++, position += 2) segment.putChar(position, text[i]);
+        for (int column = 0; column < columns; position += STYLE_RUN_BYTES) {
+            final int endColumn = row.getStyleRunEnd(column);
+            segment.putShort(position, (short) endColumn);
+            segment.putLong(position + 2, row.getStyle(column));
+            column = endColumn;
+        }
+        mDataEnd = offset + length;
+        return offset;
+    }
+
+    /** Read the row serialized at the specified offset of the specified data file. */
+    private TerminalRow read(int dataFile, long offset) throws IOException {
+        final MappedByteBuffer segment = mData[dataFile].segment(offset);
+        int position = (int) (offset % SEGMENT_BYTES);
+        final int columns = segment.getShort(position);
+        final int flags = segment.get(position + 2);
+        final char[] text = new char[segment.getShort(position + 3)];
+        final long[] styleRuns = new long[2 * segment.getShort(position + 5)];
+        position += ROW_HEADER_BYTES;
+        for (int i = 0; i < text.length; i++, position += 2) text[i] = segment.getChar(position);
+        for (int i = 0; i < styleRuns.length; i += 2, position += STYLE_RUN_BYTES) {
+            styleRuns[i] = segment.getShort(position);
+            styleRuns[i + 1] = segment.getLong(position + 2);
+        }
+        return new TerminalRow(columns, text, (flags & FLAG_LINE_WRAP) != 0,
+            (flags & FLAG_NON_ONE_WIDTH_OR_SURROGATE_CHARS) != 0, styleRuns);
+    }
+
+    /** Read the row of the specified number. */
+    private TerminalRow read(long rowNumber) throws IOException {
+        final long indexOffset = (rowNumber % mMaxRows) * INDEX_ENTRY_BYTES;
+        final long entry = mIndex.segment(indexOffset).getLong((int) (indexOffset % SEGMENT_BYTES));
+        return read((int) (entry & 1), entry >>> 1);
+    }
+
+    /**
+     * The row at the specified index, where 0 is the oldest row, with the specified number of columns. The row must not
+     * be changed, and is only valid until rows are added or the spill is cleared.
+     */
+    public TerminalRow getRow(int index, int columns) {
+        if (index < 0 || index >= getRowCount())
+            throw new IllegalArgumentException("index=" + index + ", rowCount=" + getRowCount());
+        final long rowNumber = mFirstRow + index;
+        TerminalRow row = mCache.get(rowNumber);
+        if (row != null && row.getColumns() == columns) return row;
+
+        try {
+            row = read(rowNumber);
+        } catch (IOException e) {
+            // Only mapping new segments may fail, which have been mapped when the row was written.
+            throw new IllegalStateException(e);
+        }
+        if (row.getColumns() != columns) {
+            // Spilled before resizing, so cut or pad the row to the current width:
+            TerminalRow resizedRow = new TerminalRow(columns, row.getStyle(0));
+            resizedRow.copyInterval(row, 0, Math.min(columns, row.getColumns()), 0);
+            resizedRow.mLineWrap = row.mLineWrap;
+            row = resizedRow;
+        }
+        mCache.put(rowNumber, row);
+        return row;
+    }
+
+    /** Drop all rows, keeping the space of the files for new rows. */
+    public void clear() {
+        mCache.clear();
+        mFirstRow = mEndRow = 0;
+        mDataFile = 0;
+        mDataEnd = 0;
+        mDataFileRows = 0;
+    }
+
+    /** Close and so delete the files, after which the spill must not be used. */
+    @Override
+    public void close() {
+        clear();
+        try {
+            mData[0].close();
+            mData[1].close();
+            mIndex.close();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed closing spill files", e);
+        }
+    }
+
+}
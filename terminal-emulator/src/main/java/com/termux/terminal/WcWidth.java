@@ -1,5 +1,7 @@
 package com.termux.terminal;
 
+import java.util.Arrays;
+
 /**
  * Implementation of wcwidth(3) for Unicode 15.
  *
@@ -510,21 +512,26 @@ public final class WcWidth {
         return false;
     }
 
-    /** Return the terminal display width of a code point: 0, 1 || 2. */
-    public static int width(int ucs) {
-        if (ucs == 0 ||
+    /** If the code point is a control or format character with zero width not covered by {@link #ZERO_WIDTH}. */
+    private static boolean isZeroWidthControlOrFormat(int ucs) {
+        return ucs == 0 ||
             ucs == 0x034F ||
             (0x200B <= ucs && ucs <= 0x200F) ||
             ucs == 0x2028 ||
             ucs == 0x2029 ||
             (0x202A <= ucs && ucs <= 0x202E) ||
-            (0x2060 <= ucs && ucs <= 0x2063)) {
-            return 0;
-        }
+            (0x2060 <= ucs && ucs <= 0x2063) ||
+            // C0/C1 control characters
+            // Termux change: Return 0 instead of -1.
+            ucs < 32 || (0x07F <= ucs && ucs < 0x0A0);
+    }
 
-        // C0/C1 control characters
-        // Termux change: Return 0 instead of -1.
-        if (ucs < 32 || (0x07F <= ucs && ucs < 0x0A0)) return 0;
+    /**
+     * The width of a code point computed by searching the interval tables. Used for code points outside the Unicode
+     * range, and to verify the lookup table used by {@link #width(int)}.
+     */
+    static int widthFromIntervals(int ucs) {
+        if (isZeroWidthControlOrFormat(ucs)) return 0;
 
         // combining characters with zero width
         if (intable(ZERO_WIDTH, ucs)) return 0;
@@ -532,6 +539,74 @@ public final class WcWidth {
         return intable(WIDE_EASTASIAN, ucs) ? 2 : 1;
     }
 
+    // The widths of all code points, 2 bits each, are stored in a two-level table generated at class initialization
+    // from the interval tables above, so that width(int) is only a couple of array loads: BLOCK_INDEX maps each block
+    // of 256 code points to the start of its widths in BLOCKS, where runs of blocks with identical widths (such as the
+    // unassigned planes or the CJK ideographs) share the same storage.
+    private static final int BLOCK_BITS = 8;
+    private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+    /** Number of code points whose widths are packed into one long. */
+    private static final int CODE_POINTS_PER_LONG = 32;
+    private static final int LONGS_PER_BLOCK = BLOCK_SIZE / CODE_POINTS_PER_LONG;
+    private static final char[] BLOCK_INDEX;
+    private static final long[] BLOCKS;
+
+    /** All code points having width 1, as packed in a long. */
+    private static final long ALL_WIDTH_ONE = 0x5555555555555555L;
+
+    static {
+        // Fill in the widths of all code points, starting with width 1 and then setting the intervals of other widths:
+        final long[] widths = new long[(Character.MAX_CODE_POINT + 1) / CODE_POINTS_PER_LONG];
+        Arrays.fill(widths, ALL_WIDTH_ONE);
+        for (int[] interval : WIDE_EASTASIAN) setWidths(widths, interval[0], interval[1], 2);
+        for (int[] interval : ZERO_WIDTH) setWidths(widths, interval[0], interval[1], 0);
+        for (int ucs = 0; ucs <= 0x2063; ucs++) {
+            if (isZeroWidthControlOrFormat(ucs)) setWidths(widths, ucs, ucs, 0);
+        }
+
+        // Then pack them into blocks, where consecutive identical blocks share storage:
+        final int blockCount = widths.length / LONGS_PER_BLOCK;
+        final char[] blockIndex = new char[blockCount];
+        long[] blocks = new long[16 * LONGS_PER_BLOCK];
+        int blocksUsed = 0;
+        for (int blockNumber = 0; blockNumber < blockCount; blockNumber++) {
+            final int blockStart = blockNumber * LONGS_PER_BLOCK;
+            final int previousBlockStart = blocksUsed - LONGS_PER_BLOCK;
+            if (previousBlockStart >= 0 && Arrays.equals(blocks, previousBlockStart, blocksUsed, widths, blockStart, blockStart + LONGS_PER_BLOCK)) {
+                blockIndex[blockNumber] = (char) previousBlockStart;
+            } else {
+                if (blocksUsed == blocks.length) blocks = Arrays.copyOf(blocks, blocks.length * 2);
+                System.arraycopy(widths, blockStart, blocks, blocksUsed, LONGS_PER_BLOCK);
+                blockIndex[blockNumber] = (char) blocksUsed;
+                blocksUsed += LONGS_PER_BLOCK;
+            }
+        }
+
+        BLOCK_INDEX = blockIndex;
+        BLOCKS = Arrays.copyOf(blocks, blocksUsed);
+    }
+
+    private static void setWidths(long[] widths, int first, int last, long width) {
+        int ucs = first;
+        while (ucs <= last) {
+            final int shift = 2 * (ucs % CODE_POINTS_PER_LONG);
+            if (shift == 0 && ucs + CODE_POINTS_PER_LONG - 1 <= last) {
+                widths[ucs / CODE_POINTS_PER_LONG] = width * ALL_WIDTH_ONE;
+                ucs += CODE_POINTS_PER_LONG;
+            } else {
+                widths[ucs / CODE_POINTS_PER_LONG] = (widths[ucs / CODE_POINTS_PER_LONG] & ~(0b11L << shift)) | (width << shift);
+                ucs++;
+            }
+        }
+    }
+
+    /** Return the terminal display width of a code point: 0, 1 || 2. */
+    public static int width(int ucs) {
+        if (ucs < 0 || ucs > Character.MAX_CODE_POINT) return widthFromIntervals(ucs);
+        final long widths = BLOCKS[BLOCK_INDEX[ucs >> BLOCK_BITS] + ((ucs & (BLOCK_SIZE - 1)) / CODE_POINTS_PER_LONG)];
+        return (int) (widths >>> (2 * (ucs % CODE_POINTS_PER_LONG))) & 0b11;
+    }
+
     /** The width at an index position in a java char array. */
     public static int width(char[] chars, int index) {
         char c = chars[index];
@@ -2,6 +2,9 @@ package com.termux.terminal;
 
 import junit.framework.TestCase;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
 public class ByteQueueTest extends TestCase {
 
 	private static void assertArrayEquals(byte[] expected, byte[] actual) {
@@ -46,6 +49,123 @@ public class ByteQueueTest extends TestCase {
 		assertFalse(q.write(new byte[]{1, 2, 3}, 0, 3));
 	}
 
+	public void testReadMaxLength() {
+		ByteQueue q = new ByteQueue(10);
+		assertTrue(q.write(new byte[]{1, 2, 3, 4, 5}, 0, 5));
+
+		byte[] arr = new byte[10];
+		assertEquals(2, q.read(arr, 2, false));
+		assertArrayEquals(new byte[]{1, 2}, new byte[]{arr[0], arr[1]});
+		assertEquals(3, q.read(arr, 10, false));
+		assertArrayEquals(new byte[]{3, 4, 5}, new byte[]{arr[0], arr[1], arr[2]});
+		assertEquals(0, q.read(arr, 10, false));
+	}
+
+	public void testDrainToWraparound() {
+		ByteQueue q = new ByteQueue(10);
+		assertTrue(q.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, 0, 8));
+		assertEquals(6, q.read(new byte[6], false));
+		assertTrue(q.write(new byte[]{9, 10, 11, 12, 13}, 0, 5));
+
+		final StringBuilder slices = new StringBuilder();
+		assertEquals(7, q.drainTo((buffer, offset, length) -> {
+			slices.append('[');
+			for (int i = offset; i < offset + length; i++) slices.append(buffer[i]).append(i + 1 < offset + length ? "," : "");
+			slices.append(']');
+		}, 100, false));
+		assertEquals("[7,8,9,10][11,12,13]", slices.toString());
+		assertEquals(0, q.drainTo((buffer, offset, length) -> fail(), 100, false));
+	}
+
+	public void testDrainToClosed() {
+		ByteQueue q = new ByteQueue(10);
+		q.close();
+		assertEquals(-1, q.drainTo((buffer, offset, length) -> fail(), 100, true));
+	}
+
+	public void testConcurrentProducerAndConsumer() throws InterruptedException {
+		final ByteQueue q = new ByteQueue(7);
+		final int totalBytes = 1_000_000;
+		Thread producer = new Thread(() -> {
+			byte[] chunk = new byte[13];
+			int written = 0;
+			while (written < totalBytes) {
+				int length = Math.min(chunk.length, totalBytes - written);
+				for (int i = 0; i < length; i++) chunk[i] = (byte) (written + i);
+				assertTrue(q.write(chunk, 0, length));
+				written += length;
+			}
+		});
+		producer.start();
+
+		final int[] consumed = {0};
+		while (consumed[0] < totalBytes) {
+			int drained = q.drainTo((buffer, offset, length) -> {
+				for (int i = offset; i < offset + length; i++) {
+					if (buffer[i] != (byte) consumed[0]) fail("Unexpected byte at position " + consumed[0]);
+					consumed[0]++;
+				}
+			}, 5, true);
+			assertTrue(drained > 0);
+		}
+		producer.join();
+		assertEquals(0, q.read(new byte[10], false));
+	}
+
+	public void testOfferWritesWhatFits() {
+		ByteQueue q = new ByteQueue(4);
+		assertEquals(3, q.offer(new byte[]{1, 2, 3}, 0, 3));
+		assertEquals(1, q.offer(new byte[]{4, 5, 6}, 0, 3));
+		assertEquals(0, q.offer(new byte[]{7}, 0, 1));
+
+		byte[] arr = new byte[2];
+		assertEquals(2, q.read(arr, true));
+		assertEquals(2, q.offer(new byte[]{5, 6, 7}, 0, 3));
+		arr = new byte[4];
+		assertEquals(4, q.read(arr, true));
+		assertArrayEquals(new byte[]{3, 4, 5, 6}, arr);
+
+		q.close();
+		assertEquals(-1, q.offer(new byte[]{1}, 0, 1));
+	}
+
+	public void testAwaitFreeSpace() throws InterruptedException {
+		ByteQueue q = new ByteQueue(2);
+		assertTrue(q.awaitFreeSpace());
+		assertEquals(2, q.offer(new byte[]{1, 2}, 0, 2));
+
+		Thread consumer = new Thread(() -> q.read(new byte[1], true));
+		consumer.start();
+		assertTrue(q.awaitFreeSpace());
+		consumer.join();
+		assertEquals(1, q.offer(new byte[]{3, 4}, 0, 2));
+
+		Thread closer = new Thread(q::close);
+		closer.start();
+		assertFalse(q.awaitFreeSpace());
+		closer.join();
+	}
+
+	public void testFillFrom() throws IOException {
+		ByteQueue q = new ByteQueue(10);
+		ByteArrayInputStream in = new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13});
+		assertEquals(4, q.fillFrom(in, 4));
+		byte[] arr = new byte[3];
+		assertEquals(3, q.read(arr, true));
+		assertArrayEquals(new byte[]{1, 2, 3}, arr);
+
+		// Reads are limited to the contiguous free space, up to the end of the storage:
+		assertEquals(6, q.fillFrom(in, 100));
+		assertEquals(3, q.fillFrom(in, 100));
+		arr = new byte[10];
+		assertEquals(10, q.read(arr, true));
+		assertArrayEquals(new byte[]{4, 5, 6, 7, 8, 9, 10, 11, 12, 13}, arr);
+		assertEquals(-1, q.fillFrom(in, 100));
+
+		q.close();
+		assertEquals(-1, q.fillFrom(new ByteArrayInputStream(new byte[]{1}), 1));
+	}
+
 	public void testReadNonBlocking() {
 		ByteQueue q = new ByteQueue(10);
 		assertEquals(0, q.read(new byte[128], false));
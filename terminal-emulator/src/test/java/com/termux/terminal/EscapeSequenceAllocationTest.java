@@ -0,0 +1,49 @@
+package com.termux.terminal;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Escape sequences emitted at a high rate, such as by editors and system monitors redrawing the screen, should be
+ * handled without allocating.
+ */
+public class EscapeSequenceAllocationTest extends TerminalTestCase {
+
+	/** Sequences of the kinds a full screen program emits each frame, none of which are responded to. */
+	private static final String CORPUS = "\033]0;nvim\007"
+		+ "\033[H\033[0m\033[1;31mred\033[22;39m"
+		+ "\033[38;5;208m\033[48;2;10;20;30mtrue\033[0m"
+		+ "\033[4:3mcurly\033[4:0m\033[58;2;255;0;0m\033[59m"
+		+ "\033[2;3;7;9mx\033[23;27;29m\033[90;107my\033[m"
+		+ "\033]4;1;rgb:ff/00/00;2;#00ff00\007"
+		+ "\033]10;#c0c0c0\033\\\033]11;rgb:1010/2020/3030\007"
+		+ "\033]104;1;2\007\033]110\007\033]2;nvim\033\\"
+		+ "\033[2;1H\033[K\033[J";
+
+	public void testNoAllocationsInSteadyState() {
+		if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threadBean)
+			|| !threadBean.isThreadAllocatedMemorySupported()) return;
+		threadBean.setThreadAllocatedMemoryEnabled(true);
+
+		withTerminalSized(40, 10);
+		final byte[] corpus = CORPUS.getBytes(StandardCharsets.UTF_8);
+		// Let lazily created state, such as the title and the buffer of OSC arguments, be allocated:
+		for (int i = 0; i < 100; i++) mTerminal.append(corpus, corpus.length);
+
+		final long threadId = Thread.currentThread().getId();
+		threadBean.getThreadAllocatedBytes(threadId);
+		final long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < 10000; i++) mTerminal.append(corpus, corpus.length);
+		final long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+		assertEquals(0, allocated);
+
+		// The sequences still had their effect:
+		assertEquals("nvim", mTerminal.getTitle());
+		assertEquals(1, mOutput.titleChanges.size());
+		assertEquals(TerminalColors.COLOR_SCHEME.mDefaultColors[TextStyle.COLOR_INDEX_FOREGROUND], mTerminal.mColors.mCurrentColors[TextStyle.COLOR_INDEX_FOREGROUND]);
+		assertEquals(0xFF102030, mTerminal.mColors.mCurrentColors[TextStyle.COLOR_INDEX_BACKGROUND]);
+		assertEquals(TerminalColors.COLOR_SCHEME.mDefaultColors[1], mTerminal.mColors.mCurrentColors[1]);
+		assertEquals("", mOutput.getOutputAndClear());
+	}
+
+}
@@ -30,4 +30,31 @@ public class HistoryTest extends TerminalTestCase {
 		enterString("LMN").assertLinesAre("111", "IJK", "LMN", "444").assertHistoryStartsWith("FGH", "CDE");
 	}
 
+	public void testHistoryIsCompacted() {
+		withTerminalSized(3, 2).enterString("\033[31m111\033[32m222\033[m333");
+		assertLinesAre("222", "333").assertHistoryStartsWith("111");
+		TerminalBuffer screen = mTerminal.getScreen();
+		assertTrue(screen.mLines[screen.externalToInternalRow(-1)].isCompact());
+		assertForegroundColorAt(-1, 0, 1);
+		assertForegroundColorAt(0, 2, 2);
+
+		// Lines scrolled back into the screen are inflated when changed:
+		resize(3, 3).assertLinesAre("111", "222", "333");
+		enterString("\033[1;1H\033[33mX").assertLinesAre("X11", "222", "333");
+		assertForegroundColorAt(0, 0, 3);
+		assertForegroundColorAt(0, 1, 1);
+	}
+
+	public void testCompactedWideCharLinesReusedWhenScrolling() {
+		// Compact lines with wide chars have less text than columns, and must grow back when blanked for reuse:
+		mTerminal = new TerminalEmulator(mOutput, 4, 2, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, 100, null);
+		for (int i = 0; i < 200; i++) enterString("中文\r\n");
+		enterString("中文");
+		resize(4, 3);
+		for (int i = 0; i < 200; i++) enterString("\r\nabcd");
+		assertLinesAre("abcd", "abcd", "abcd");
+		assertLineWraps(false, false, false);
+		assertHistoryStartsWith("abcd", "abcd");
+	}
+
 }
@@ -209,4 +209,78 @@ public class ResizeTest extends TerminalTestCase {
 		resize(5, rows).assertLinesAre("ＱＲ ", "     ", "     ", "     ");
 	}
 
+	/** Enter lines of different lengths, returning their text as read by {@link TerminalBuffer#getTranscriptText()}. */
+	private String enterLines(int firstLine, int lineCount) {
+		StringBuilder text = new StringBuilder();
+		for (int i = firstLine; i < firstLine + lineCount; i++) {
+			StringBuilder line = new StringBuilder("l" + i + ":");
+			for (int j = 0; j < i % 29; j++) line.append((char) ('a' + j % 26));
+			enterString(line + "\r\n");
+			text.append(line).append('\n');
+		}
+		return text.toString().trim();
+	}
+
+	public void testLazyReflowOfLargeTranscript() {
+		withTerminalSized(10, 3);
+		final String text = enterLines(0, 500);
+		final TerminalBuffer screen = mTerminal.getScreen();
+		assertEquals(text, screen.getTranscriptText());
+
+		// Only the rows just above the screen are reflowed when resizing, with the rest reflowed in steps:
+		resize(7, 3);
+		assertTrue(mTerminal.hasPendingTranscriptRows());
+		assertTrue(screen.getActiveTranscriptRows() < 2 * TerminalBuffer.REFLOW_SYNC_TRANSCRIPT_ROWS);
+		final int layoutGeneration = screen.getLayoutGeneration();
+		int steps = 0;
+		while (mTerminal.reflowPendingTranscriptRows(50)) {
+			steps++;
+			assertEquals(layoutGeneration, screen.getLayoutGeneration());
+		}
+		assertTrue(steps > 1);
+		assertFalse(mTerminal.hasPendingTranscriptRows());
+		assertTrue(layoutGeneration != screen.getLayoutGeneration());
+		assertEquals(text, screen.getTranscriptText());
+		assertLineIs(-screen.getActiveTranscriptRows(), "l0:    ");
+
+		// Resizing repeatedly before reflowing, with reading the transcript reflowing all first:
+		resize(23, 3).resize(5, 4).resize(13, 3);
+		assertTrue(mTerminal.hasPendingTranscriptRows());
+		assertEquals(text, screen.getTranscriptText());
+		assertFalse(mTerminal.hasPendingTranscriptRows());
+	}
+
+	public void testLazyReflowWithOutputInBetween() {
+		withTerminalSized(10, 3);
+		final String text = enterLines(0, 400);
+		resize(17, 3);
+		mTerminal.reflowPendingTranscriptRows(10);
+		final String moreText = enterLines(400, 100);
+		while (mTerminal.reflowPendingTranscriptRows(10)) assertInvariants();
+		assertEquals(text + "\n" + moreText, mTerminal.getScreen().getTranscriptText());
+	}
+
+	public void testLazyReflowOfFullTranscript() {
+		withTerminalSized(10, 3);
+		final String text = enterLines(0, 3000);
+		resize(6, 3);
+		while (mTerminal.reflowPendingTranscriptRows(100)) assertInvariants();
+		final TerminalBuffer screen = mTerminal.getScreen();
+		// As when reflowing all at once the oldest rows which no longer fit are dropped:
+		assertEquals(screen.mTotalRows - screen.mScreenRows, screen.getActiveTranscriptRows());
+		final String transcriptText = screen.getTranscriptText();
+		assertTrue(transcriptText, text.endsWith(transcriptText));
+		assertTrue(transcriptText.length() > text.length() / 10);
+	}
+
+	public void testClearTranscriptDropsRowsToReflow() {
+		withTerminalSized(10, 3);
+		enterLines(0, 500);
+		resize(7, 3);
+		assertTrue(mTerminal.hasPendingTranscriptRows());
+		mTerminal.getScreen().clearTranscript();
+		assertFalse(mTerminal.hasPendingTranscriptRows());
+		assertEquals(0, mTerminal.getScreen().getActiveTranscriptRows());
+	}
+
 }
@@ -0,0 +1,62 @@
+package com.termux.terminal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TerminalLineReaderTest extends TerminalTestCase {
+
+	private final TerminalLineReader mReader = new TerminalLineReader();
+
+	private List<String> readNewLines(boolean expectStartOver) {
+		List<TerminalLineReader.Line> lines = new ArrayList<>();
+		assertEquals(expectStartOver, mReader.readNewLines(mTerminal.getScreen(), lines));
+		return texts(lines);
+	}
+
+	private List<String> readScreenLines() {
+		List<TerminalLineReader.Line> lines = new ArrayList<>();
+		mReader.readScreenLines(mTerminal.getScreen(), lines);
+		return texts(lines);
+	}
+
+	private static List<String> texts(List<TerminalLineReader.Line> lines) {
+		List<String> texts = new ArrayList<>();
+		for (TerminalLineReader.Line line : lines) texts.add(line.mText);
+		return texts;
+	}
+
+	public void testLinesAreReadOnceScrolledIntoTranscript() {
+		withTerminalSized(4, 2).enterString("ab\r\ncdefgh");
+		assertLinesAre("cdef", "gh  ");
+		assertEquals(List.of("ab"), readNewLines(true));
+		assertEquals(List.of("cdefgh"), readScreenLines());
+
+		// The wrapped line is not read until all of it has scrolled into the transcript:
+		enterString("\r\n");
+		assertEquals(List.of(), readNewLines(false));
+		assertEquals(List.of("cdefgh", ""), readScreenLines());
+		enterString("\r\nij");
+		assertEquals(List.of("cdefgh"), readNewLines(false));
+		assertEquals(List.of(), readNewLines(false));
+		assertEquals(List.of("", "ij"), readScreenLines());
+
+		// Reading starts over when rows have moved:
+		resize(5, 2);
+		assertEquals("ab", readNewLines(true).get(0));
+	}
+
+	public void testRowsAndColumnsOfLine() {
+		withTerminalSized(3, 3).enterString("a中bcd\r\n");
+		List<TerminalLineReader.Line> lines = new ArrayList<>();
+		mReader.readScreenLines(mTerminal.getScreen(), lines);
+		TerminalLineReader.Line line = lines.get(0);
+		assertEquals("a中bcd", line.mText);
+		assertEquals(1, line.getLastRow() - line.mFirstRow);
+		assertEquals(0, line.getRowIndex(1));
+		assertEquals(1, line.getColumn(0, 1));
+		assertEquals(3, line.getColumn(0, 2));
+		assertEquals(1, line.getRowIndex(2));
+		assertEquals(2, line.getColumn(1, 4));
+	}
+
+}
@@ -0,0 +1,52 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+public class TerminalMetricsTest extends TestCase {
+
+	public void testHistogram() {
+		TerminalMetrics.Histogram histogram = new TerminalMetrics.Histogram();
+		assertEquals(0, histogram.getPercentile(50));
+		for (int i = 1; i <= 100; i++) histogram.record(i);
+		assertEquals(100, histogram.getCount());
+		assertEquals(5050, histogram.getSum());
+		assertEquals(50, histogram.getMean());
+		assertEquals(100, histogram.getMax());
+		// Percentiles are the upper bound of their power of two bucket, capped by the max:
+		assertEquals(63, histogram.getPercentile(50));
+		assertEquals(100, histogram.getPercentile(99));
+		assertEquals(1, histogram.getPercentile(0));
+
+		histogram.record(-5);
+		assertEquals(0, histogram.getPercentile(0));
+
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMax());
+	}
+
+	public void testInputToEcho() {
+		TerminalMetrics metrics = new TerminalMetrics();
+		metrics.onAppend(10, 1000);
+		assertEquals(0, metrics.getInputToEchoNanos().getCount());
+
+		// Only the first of several inputs before output is measured, and only up to the first output:
+		metrics.onInput();
+		metrics.onInput();
+		metrics.onAppend(1, 1000);
+		metrics.onAppend(1, 1000);
+		assertEquals(1, metrics.getInputToEchoNanos().getCount());
+		assertEquals(12, metrics.getBytesParsed());
+		assertEquals(3, metrics.getAppendNanos().getCount());
+		assertEquals(4_000_000, metrics.getParseSpeedBytesPerSecond());
+
+		metrics.onRead(100, 30);
+		assertEquals(100, metrics.getBytesRead());
+		assertEquals(30, metrics.getQueuedBytes().getMax());
+
+		metrics.reset();
+		assertEquals(0, metrics.getBytesParsed());
+		assertEquals(0, metrics.getInputToEchoNanos().getCount());
+	}
+
+}
@@ -0,0 +1,87 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class TerminalPasteTest extends TestCase {
+
+	/** The sanitizing previously done by {@link TerminalEmulator#paste(String)} on the whole text. */
+	private static String sanitizeWithRegex(String text) {
+		text = text.replaceAll("(\u001B|[\u0080-\u009F])", "");
+		return text.replaceAll("\r?\n", "\r");
+	}
+
+	private static String paste(String text, boolean bracketed, int chunkChars) {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		new TerminalPaste(output::write, text, bracketed, null, chunkChars).run();
+		return output.toString(StandardCharsets.UTF_8);
+	}
+
+	public void testSanitizing() {
+		assertEquals("a\rb\rc\r\rd", paste("a\nb\r\nc\r\r\nd", false, 2048));
+		assertEquals("\r\r", paste("\r\n\n", false, 2048));
+		assertEquals("ab\r", paste("\u001Ba\u0085b\r\u001B\n", false, 2048));
+		assertEquals("\033[200~hi\r\033[201~", paste("hi\n", true, 2048));
+		assertEquals("\033[200~\033[201~", paste("", true, 2048));
+	}
+
+	public void testChunksMatchWholeText() {
+		final char[] alphabet = {'a', '\r', '\n', '\u001B', '\u0085', 'å', '中', '\uD83D', '\uDE00'};
+		Random random = new Random(1);
+		for (int iteration = 0; iteration < 500; iteration++) {
+			StringBuilder text = new StringBuilder();
+			int length = random.nextInt(40);
+			for (int i = 0; i < length; i++) {
+				char c = alphabet[random.nextInt(alphabet.length)];
+				// Mostly keep surrogate pairs well-formed, to exercise pairs split between chunks:
+				if (c == '\uD83D' && random.nextInt(4) != 0) {
+					text.append("😀");
+				} else {
+					text.append(c);
+				}
+			}
+			// Unpaired surrogates are encoded as '?' by both:
+			String expected = new String(sanitizeWithRegex(text.toString()).getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+			for (int chunkChars : new int[]{2, 3, 7, 2048}) {
+				assertEquals("chunkChars=" + chunkChars + ", text=" + text, expected, paste(text.toString(), false, chunkChars));
+			}
+		}
+	}
+
+	public void testProgressAndCancel() {
+		final List<Integer> progress = new ArrayList<>();
+		final boolean[] finishedCancelled = new boolean[1];
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		TerminalPaste paste = new TerminalPaste(output::write, "abcdefghij", true, new TerminalPaste.Listener() {
+			@Override
+			public void onPasteProgress(TerminalPaste paste, int charsPasted, int totalChars) {
+				assertEquals(10, totalChars);
+				progress.add(charsPasted);
+				if (charsPasted == 8) paste.cancel();
+			}
+
+			@Override
+			public void onPasteFinished(TerminalPaste paste, boolean cancelled) {
+				finishedCancelled[0] = cancelled;
+			}
+		}, 4);
+		paste.run();
+		assertEquals(List.of(4, 8), progress);
+		assertTrue(finishedCancelled[0]);
+		// The end of the bracketed paste should be written even if cancelled:
+		assertEquals("\033[200~abcdefgh\033[201~", output.toString(StandardCharsets.UTF_8));
+
+		// A paste cancelled before starting should not write anything:
+		output.reset();
+		paste = new TerminalPaste(output::write, "abc", true, null, 4);
+		paste.cancel();
+		paste.run();
+		assertEquals(0, output.size());
+	}
+
+}
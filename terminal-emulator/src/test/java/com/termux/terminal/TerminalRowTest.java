@@ -429,4 +429,147 @@ public class TerminalRowTest extends TestCase {
 		// assertEquals(' ', line.mText[line.findStartOfColumn(COLUMNS - 1)]);
 	}
 
+	/** Find the start of a column by walking the text from the start of the row, as a reference. */
+	private static int findStartOfColumnByWalking(TerminalRow row, int columns, int column) {
+		if (column == columns) return row.getSpaceUsed();
+		char[] text = row.mText;
+		int currentColumn = 0;
+		int currentCharIndex = 0;
+		while (true) {
+			int newCharIndex = currentCharIndex + (Character.isHighSurrogate(text[currentCharIndex]) ? 2 : 1);
+			int wcwidth = WcWidth.width(text, currentCharIndex);
+			if (wcwidth > 0) {
+				currentColumn += wcwidth;
+				if (currentColumn == column) {
+					while (newCharIndex < row.getSpaceUsed() && WcWidth.width(text, newCharIndex) <= 0)
+						newCharIndex += Character.isHighSurrogate(text[newCharIndex]) ? 2 : 1;
+					return newCharIndex;
+				} else if (currentColumn > column) {
+					return currentCharIndex;
+				}
+			}
+			currentCharIndex = newCharIndex;
+		}
+	}
+
+	/** If a wide character starts at the column, by walking the text from the start of the row, as a reference. */
+	private static boolean wideDisplayCharacterStartingAtByWalking(TerminalRow row, int column) {
+		char[] text = row.mText;
+		for (int currentCharIndex = 0, currentColumn = 0; currentCharIndex < row.getSpaceUsed(); ) {
+			int wcwidth = WcWidth.width(text, currentCharIndex);
+			currentCharIndex += Character.isHighSurrogate(text[currentCharIndex]) ? 2 : 1;
+			if (wcwidth > 0) {
+				if (currentColumn == column && wcwidth == 2) return true;
+				currentColumn += wcwidth;
+				if (currentColumn > column) return false;
+			}
+		}
+		return false;
+	}
+
+	public void testFindStartOfColumnMatchesWalking() {
+		int[] codePoints = {'a', 'b', ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, TWO_JAVA_CHARS_DISPLAY_WIDTH_TWO_1,
+			TWO_JAVA_CHARS_DISPLAY_WIDTH_ONE_1, DIARESIS_CODEPOINT};
+		Random random = new Random(1234);
+		for (int iteration = 0; iteration < 5000; iteration++) {
+			if (iteration % 500 == 0) row.clear(TextStyle.NORMAL);
+			int codePoint = codePoints[random.nextInt(codePoints.length)];
+			int column = random.nextInt(WcWidth.width(codePoint) == 2 ? COLUMNS - 1 : COLUMNS);
+			row.setChar(column, codePoint, TextStyle.NORMAL);
+			for (int i = 0; i <= COLUMNS; i++) {
+				assertEquals("Column " + i + " at iteration " + iteration, findStartOfColumnByWalking(row, COLUMNS, i), row.findStartOfColumn(i));
+				if (i < COLUMNS) {
+					assertEquals(wideDisplayCharacterStartingAtByWalking(row, i), row.findStartOfColumn(i) == row.findStartOfColumn(i + 1));
+				}
+			}
+		}
+	}
+
+	public void testGenerationChangesOnMutation() {
+		int generation = row.getGeneration();
+		row.setChar(0, 'a', 0);
+		assertTrue(generation != row.getGeneration());
+
+		generation = row.getGeneration();
+		row.setAsciiChars(1, new byte[]{'b', 'c'}, 0, 2, 0);
+		assertTrue(generation != row.getGeneration());
+
+		generation = row.getGeneration();
+		row.setStyles(0, 1, TextStyle.encode(1, 2, 0));
+		assertTrue(generation != row.getGeneration());
+
+		generation = row.getGeneration();
+		row.clear(TextStyle.NORMAL);
+		assertTrue(generation != row.getGeneration());
+
+		generation = row.getGeneration();
+		row.getStyle(0);
+		row.findStartOfColumn(3);
+		assertEquals(generation, row.getGeneration());
+	}
+
+	public void testCompactCopy() {
+		long style1 = TextStyle.encode(1, 2, 0);
+		long style2 = TextStyle.encode(3, 4, TextStyle.CHARACTER_ATTRIBUTE_BOLD);
+		row.setChar(0, 'a', style1);
+		row.setChar(1, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, style1);
+		row.setChar(5, 'b', style2);
+		row.setChar(COLUMNS - 1, 'c', style2);
+
+		TerminalRow compact = row.compactCopy();
+		assertTrue(compact.isCompact());
+		assertEquals(row.getSpaceUsed(), compact.getSpaceUsed());
+		assertEquals(row.getSpaceUsed(), compact.mText.length);
+		assertEquals(new String(row.mText, 0, row.getSpaceUsed()), new String(compact.mText));
+		for (int column = 0; column <= COLUMNS; column++) {
+			if (column < COLUMNS) assertEquals("column=" + column, row.getStyle(column), compact.getStyle(column));
+			assertEquals("column=" + column, row.findStartOfColumn(column), compact.findStartOfColumn(column));
+		}
+
+		// Changing the compact row inflates it, keeping the styles of other columns:
+		compact.setChar(3, 'd', style2);
+		assertFalse(compact.isCompact());
+		assertEquals(style1, compact.getStyle(0));
+		assertEquals(style2, compact.getStyle(3));
+		assertEquals(TextStyle.NORMAL, compact.getStyle(4));
+		assertEquals(style2, compact.getStyle(COLUMNS - 1));
+	}
+
+	public void testStyleRunsMatchCellStyles() {
+		long[] styles = {TextStyle.NORMAL, TextStyle.encode(1, 2, 0), TextStyle.encode(3, 4, TextStyle.CHARACTER_ATTRIBUTE_BOLD)};
+		long[] expected = new long[COLUMNS];
+		Arrays.fill(expected, TextStyle.NORMAL);
+		Random random = new Random(4321);
+		for (int iteration = 0; iteration < 20000; iteration++) {
+			long style = styles[random.nextInt(styles.length)];
+			int column = random.nextInt(COLUMNS);
+			switch (random.nextInt(20)) {
+				case 0:
+					row.clear(style);
+					Arrays.fill(expected, style);
+					break;
+				case 1:
+				case 2:
+				case 3:
+					int end = column + 1 + random.nextInt(COLUMNS - column);
+					row.setStyles(column, end, style);
+					Arrays.fill(expected, column, end, style);
+					break;
+				case 4:
+					if (random.nextBoolean()) row = row.compactCopy();
+					break;
+				default:
+					row.setChar(column, 'a', style);
+					expected[column] = style;
+			}
+			for (int i = 0; i < COLUMNS; i++) {
+				assertEquals("Column " + i + " at iteration " + iteration, expected[i], row.getStyle(i));
+				int runEnd = row.getStyleRunEnd(i);
+				assertTrue(runEnd > i && runEnd <= COLUMNS);
+				for (int j = i; j < runEnd; j++) assertEquals(expected[i], expected[j]);
+				assertTrue(runEnd == COLUMNS || expected[runEnd] != expected[i]);
+			}
+		}
+	}
+
 }
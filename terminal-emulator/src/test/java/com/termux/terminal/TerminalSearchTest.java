@@ -0,0 +1,144 @@
+package com.termux.terminal;
+
+import java.util.List;
+
+public class TerminalSearchTest extends TerminalTestCase {
+
+	private TerminalSearch mSearch;
+
+	private TerminalSearch search(String query, boolean regex, boolean caseSensitive) {
+		mSearch = new TerminalSearch(mTerminal);
+		mSearch.setQuery(query, regex, caseSensitive);
+		return mSearch;
+	}
+
+	private void assertMatch(TerminalSearch.Match match, int startRow, int startColumn, int endRow, int endColumn) {
+		assertEquals(startRow, mSearch.getExternalRow(match.mStartRow));
+		assertEquals(startColumn, match.mStartColumn);
+		assertEquals(endRow, mSearch.getExternalRow(match.mEndRow));
+		assertEquals(endColumn, match.mEndColumn);
+	}
+
+	public void testFindsInTranscriptAndScreen() {
+		withTerminalSized(5, 3).enterString("abc\r\nxabc\r\nfoo\r\nabc");
+		assertLinesAre("xabc ", "foo  ", "abc  ").assertHistoryStartsWith("abc  ");
+		List<TerminalSearch.Match> matches = search("abc", false, true).getMatches();
+		assertEquals(3, matches.size());
+		assertMatch(matches.get(0), -1, 0, -1, 3);
+		assertMatch(matches.get(1), 0, 1, 0, 4);
+		assertMatch(matches.get(2), 2, 0, 2, 3);
+
+		assertEquals(2, mSearch.getMatchesInRows(-1, 0).size());
+		assertEquals(0, mSearch.getMatchesInRows(1, 1).size());
+	}
+
+	public void testMatchesAcrossWrappedRows() {
+		withTerminalSized(4, 3).enterString("abcdefgh\r\nabcd");
+		assertLineWraps(true, false, false);
+		List<TerminalSearch.Match> matches = search("cdef", false, true).getMatches();
+		assertEquals(1, matches.size());
+		assertMatch(matches.get(0), 0, 2, 1, 2);
+
+		// A match ending at the end of a wrapped row ends there and not on the next row:
+		matches = search("abcd", false, true).getMatches();
+		assertEquals(2, matches.size());
+		assertMatch(matches.get(0), 0, 0, 0, 4);
+		assertMatch(matches.get(1), 2, 0, 2, 4);
+	}
+
+	public void testColumnsOfWideChars() {
+		withTerminalSized(6, 2).enterString("中文ab");
+		List<TerminalSearch.Match> matches = search("文a", false, true).getMatches();
+		assertEquals(1, matches.size());
+		assertMatch(matches.get(0), 0, 2, 0, 5);
+	}
+
+	public void testRegexAndCaseInsensitive() {
+		withTerminalSized(10, 2).enterString("ABC aXc\r\nabc");
+		assertEquals(3, search("a.c", true, false).getMatches().size());
+		assertEquals(2, search("a.c", true, true).getMatches().size());
+		assertEquals(0, search("a.c", false, false).getMatches().size());
+		assertEquals(2, search("abc", false, false).getMatches().size());
+		// Empty matches are ignored:
+		assertEquals(0, search("x*", true, true).getMatches().size());
+		assertEquals(0, search("", false, true).getMatches().size());
+	}
+
+	public void testUpdateFindsNewOutput() {
+		withTerminalSized(5, 2).enterString("abc");
+		search("abc", false, true);
+		assertEquals(1, mSearch.getMatches().size());
+
+		enterString("\r\nabc\r\nabc\r\nxyz");
+		mSearch.update();
+		List<TerminalSearch.Match> matches = mSearch.getMatches();
+		assertEquals(3, matches.size());
+		assertMatch(matches.get(0), -2, 0, -2, 3);
+		assertMatch(matches.get(2), 0, 0, 0, 3);
+
+		// Changes to the screen are seen:
+		enterString("\033[2J");
+		mSearch.update();
+		assertEquals(2, mSearch.getMatches().size());
+		enterString("\033[3J");
+		mSearch.update();
+		assertEquals(0, mSearch.getMatches().size());
+	}
+
+	public void testMatchesDroppedWithTranscript() {
+		final int rows = 5;
+		mTerminal = new TerminalEmulator(mOutput, 10, rows, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, 100, null);
+		search("L\\d+", true, true);
+		for (int i = 0; i < 300; i++) {
+			enterString("\r\nL" + i);
+			if (i % 7 == 0) mSearch.update();
+		}
+		mSearch.update();
+
+		List<TerminalSearch.Match> matches = mSearch.getMatches();
+		TerminalBuffer screen = mTerminal.getScreen();
+		assertEquals(screen.getActiveRows(), matches.size());
+		for (int i = 0; i < matches.size(); i++) {
+			int row = mSearch.getExternalRow(matches.get(i).mStartRow);
+			assertEquals(-screen.getActiveTranscriptRows() + i, row);
+			assertEquals("L" + (300 - matches.size() + i), screen.getSelectedText(0, row, 9, row).trim());
+		}
+	}
+
+	public void testNavigation() {
+		withTerminalSized(5, 3).enterString("a\r\nb\r\na\r\na");
+		search("a", false, true);
+		assertNull(mSearch.getCurrentMatch());
+
+		// Previous starts from the newest match, and wraps around to it again:
+		assertMatch(mSearch.previous(), 2, 0, 2, 1);
+		assertMatch(mSearch.previous(), 1, 0, 1, 1);
+		assertMatch(mSearch.previous(), -1, 0, -1, 1);
+		assertSame(mSearch.getMatches().get(0), mSearch.getCurrentMatch());
+		assertMatch(mSearch.previous(), 2, 0, 2, 1);
+
+		assertMatch(mSearch.next(), -1, 0, -1, 1);
+		assertMatch(mSearch.next(), 1, 0, 1, 1);
+
+		// The current match is kept by position when updating:
+		enterString("\r\nb");
+		mSearch.update();
+		assertMatch(mSearch.getCurrentMatch(), 0, 0, 0, 1);
+		assertMatch(mSearch.next(), 1, 0, 1, 1);
+
+		search("b", false, true);
+		assertNull(mSearch.getCurrentMatch());
+	}
+
+	public void testResizeStartsOver() {
+		withTerminalSized(4, 2).enterString("abcdefgh\r\nx");
+		search("cdef", false, true);
+		assertEquals(1, mSearch.getMatches().size());
+		resize(8, 2);
+		mSearch.update();
+		List<TerminalSearch.Match> matches = mSearch.getMatches();
+		assertEquals(1, matches.size());
+		assertMatch(matches.get(0), 0, 2, 0, 6);
+	}
+
+}
@@ -348,6 +348,36 @@ public class TerminalTest extends TerminalTestCase {
 		withTerminalSized(3, 3).enterString("abc\r ").assertLinesAre(" bc", "   ", "   ").assertCursorAt(0, 1);
 	}
 
+	public void testAsciiRuns() {
+		// Runs of printable ASCII wrapping and scrolling in a single append:
+		withTerminalSized(3, 3).enterString("abcdefghijk").assertLinesAre("def", "ghi", "jk ").assertCursorAt(2, 2);
+		assertHistoryStartsWith("abc");
+		assertLineWraps(true, true, false);
+		enterString("l").assertLinesAre("def", "ghi", "jkl").assertCursorAt(2, 2);
+		enterString("m").assertLinesAre("ghi", "jkl", "m  ").assertCursorAt(2, 1);
+
+		// Runs mixed with escape sequences, UTF-8 and style changes:
+		withTerminalSized(5, 2).enterString("ab\033[31mcdé\033[0mfg").assertLinesAre("abcdé", "fg   ").assertCursorAt(1, 2);
+		assertEquals(TextStyle.COLOR_INDEX_FOREGROUND, TextStyle.decodeForeColor(getStyleAt(0, 1)));
+		assertEquals(1, TextStyle.decodeForeColor(getStyleAt(0, 2)));
+		assertEquals(1, TextStyle.decodeForeColor(getStyleAt(0, 4)));
+		assertEquals(TextStyle.COLOR_INDEX_FOREGROUND, TextStyle.decodeForeColor(getStyleAt(1, 0)));
+
+		// Runs written over a row containing wide characters:
+		withTerminalSized(5, 2).enterString("a中bc\rxyz").assertLinesAre("xyzbc", "     ");
+
+		// Runs inside left and right margins:
+		withTerminalSized(6, 2).enterString("\033[?69h\033[2;4sabcdef").assertLinesAre("abcd  ", " ef   ");
+
+		// Repeat the last character of a run:
+		withTerminalSized(6, 2).enterString("abc\033[2b").assertLinesAre("abccc ", "      ");
+
+		// Runs with the cursor left of the left margin, or at column -1 after a backspace there, which are written as
+		// one character at a time, clamped to column 0:
+		withTerminalSized(30, 2).enterString("\033[?69h\033[5;23s\bE").assertLineStartsWith(0, 'E', ' ').assertCursorAt(0, 0);
+		enterString("FGH").assertLineStartsWith(0, 'F', 'G', 'H', ' ').assertCursorAt(0, 3);
+	}
+
 	public void testTab() {
 		withTerminalSized(11, 2).enterString("01234567890\r\tXX").assertLinesAre("01234567XX0", "           ");
 		withTerminalSized(11, 2).enterString("01234567890\033[44m\r\tXX").assertLinesAre("01234567XX0", "           ");
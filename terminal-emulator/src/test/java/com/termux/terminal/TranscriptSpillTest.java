@@ -0,0 +1,139 @@
+package com.termux.terminal;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class TranscriptSpillTest extends TerminalTestCase {
+
+	private TranscriptSpill mSpill;
+
+	private TranscriptSpill createSpill(int maxRows) throws Exception {
+		mSpill = TranscriptSpill.create(new File(System.getProperty("java.io.tmpdir")), maxRows);
+		return mSpill;
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (mSpill != null) mSpill.close();
+		super.tearDown();
+	}
+
+	private static String getText(TerminalRow row) {
+		return new String(row.mText, 0, row.getSpaceUsed());
+	}
+
+	/** Use a terminal with the smallest transcript, which spills to {@link #mSpill}. */
+	private void withSpillingTerminal(int columns, int rows, int maxSpilledRows) throws Exception {
+		mTerminal = new TerminalEmulator(mOutput, columns, rows, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS,
+			TerminalEmulator.TERMINAL_TRANSCRIPT_ROWS_MIN, null);
+		mTerminal.setTranscriptSpill(createSpill(maxSpilledRows));
+	}
+
+	/** Enter numbered lines, returning their text as read by {@link TerminalBuffer#getTranscriptText()}. */
+	private String enterLines(int lineCount) {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < lineCount; i++) {
+			String line = "line " + i;
+			enterString(line + "\r\n");
+			text.append(line).append('\n');
+		}
+		return text.toString().trim();
+	}
+
+	public void testRowRoundTrip() throws Exception {
+		TerminalRow row = new TerminalRow(10, TextStyle.NORMAL);
+		row.setChar(0, 'a', TextStyle.encode(1, 2, TextStyle.CHARACTER_ATTRIBUTE_BOLD));
+		row.setChar(1, 0x679C, TextStyle.NORMAL);
+		row.setChar(3, TerminalRowTest.TWO_JAVA_CHARS_DISPLAY_WIDTH_ONE_1, TextStyle.encode(3, 4, 0));
+		row.mLineWrap = true;
+
+		createSpill(10).add(row.compactCopy());
+		TerminalRow readRow = mSpill.getRow(0, 10);
+		assertEquals(getText(row), getText(readRow));
+		assertTrue(readRow.mLineWrap);
+		for (int column = 0; column < 10; column++) {
+			assertEquals(row.getStyle(column), readRow.getStyle(column));
+			assertEquals(row.findStartOfColumn(column), readRow.findStartOfColumn(column));
+		}
+
+		// Rows are cut or padded to the current number of columns:
+		assertEquals("a", getText(mSpill.getRow(0, 1)).trim());
+		assertEquals(getText(row).trim(), getText(mSpill.getRow(0, 20)).trim());
+	}
+
+	public void testDropsOldestRows() throws Exception {
+		createSpill(10);
+		for (int i = 0; i < 35; i++) {
+			TerminalRow row = new TerminalRow(8, TextStyle.NORMAL);
+			byte[] text = ("row " + i).getBytes(StandardCharsets.US_ASCII);
+			row.setAsciiChars(0, text, 0, text.length, TextStyle.NORMAL);
+			mSpill.add(row);
+			assertEquals(Math.min(i + 1, 10), mSpill.getRowCount());
+			assertEquals("row " + i, getText(mSpill.getRow(mSpill.getRowCount() - 1, 8)).trim());
+		}
+		for (int i = 0; i < 10; i++) assertEquals("row " + (25 + i), getText(mSpill.getRow(i, 8)).trim());
+
+		mSpill.clear();
+		assertEquals(0, mSpill.getRowCount());
+	}
+
+	public void testKeptRowsSurviveSwitchingDataFiles() throws Exception {
+		// More rows than are cached, so that they are read back from the files:
+		createSpill(1000);
+		for (int i = 0; i < 3500; i++) {
+			TerminalRow row = new TerminalRow(10, TextStyle.NORMAL);
+			byte[] text = ("row " + i).getBytes(StandardCharsets.US_ASCII);
+			row.setAsciiChars(0, text, 0, text.length, TextStyle.NORMAL);
+			mSpill.add(row);
+		}
+		assertEquals(1000, mSpill.getRowCount());
+		for (int i = 0; i < 1000; i++) assertEquals("row " + (2500 + i), getText(mSpill.getRow(i, 10)).trim());
+	}
+
+	public void testTranscriptGrowsIntoSpill() throws Exception {
+		withSpillingTerminal(10, 3, 10000);
+		final String text = enterLines(1000);
+		final TerminalBuffer screen = mTerminal.getScreen();
+		assertTrue(screen.getSpilledTranscriptRows() > 0);
+		assertEquals(998, screen.getActiveTranscriptRows());
+		assertEquals(text, screen.getTranscriptText());
+		assertEquals("line 0    ", getText(screen.getRow(-screen.getActiveTranscriptRows())));
+		assertEquals("line 1    ", getText(screen.getRow(-screen.getActiveTranscriptRows() + 1)));
+
+		// Spilled rows are kept as they were when resizing:
+		resize(8, 3);
+		assertEquals(text, screen.getTranscriptText());
+
+		screen.clearTranscript();
+		assertEquals(0, screen.getSpilledTranscriptRows());
+		assertEquals(0, screen.getActiveTranscriptRows());
+	}
+
+	public void testSpillIsBounded() throws Exception {
+		withSpillingTerminal(10, 3, 200);
+		enterLines(1000);
+		final TerminalBuffer screen = mTerminal.getScreen();
+		assertEquals(200, screen.getSpilledTranscriptRows());
+		assertEquals("line " + (998 - screen.getActiveTranscriptRows()), getText(screen.getRow(-screen.getActiveTranscriptRows())).trim());
+	}
+
+	public void testSearchFindsSpilledLines() throws Exception {
+		withSpillingTerminal(10, 3, 10000);
+		enterLines(300);
+		TerminalSearch search = new TerminalSearch(mTerminal);
+		search.setQuery("line 1", false, true);
+		// "line 1", "line 10" to "line 19" and "line 100" to "line 199":
+		List<TerminalSearch.Match> matches = search.getMatches();
+		assertEquals(111, matches.size());
+		assertEquals(-297, search.getExternalRow(matches.get(0).mStartRow));
+
+		// As lines are spilled only their matches are kept, with their text read back when the query changes:
+		enterLines(300);
+		search.update();
+		assertEquals(222, search.getMatches().size());
+		search.setQuery("line 2", false, true);
+		assertEquals(222, search.getMatches().size());
+	}
+
+}
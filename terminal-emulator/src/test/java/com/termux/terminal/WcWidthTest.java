@@ -9,6 +9,15 @@ public class WcWidthTest extends TestCase {
 		assertEquals(expectedWidth, wcWidth);
 	}
 
+	public void testLookupTableMatchesIntervals() {
+		for (int codePoint = 0; codePoint <= Character.MAX_CODE_POINT; codePoint++) {
+			if (WcWidth.width(codePoint) != WcWidth.widthFromIntervals(codePoint)) {
+				fail("Width mismatch for code point 0x" + Integer.toHexString(codePoint) + ": table=" + WcWidth.width(codePoint)
+					+ ", intervals=" + WcWidth.widthFromIntervals(codePoint));
+			}
+		}
+	}
+
 	public void testPrintableAscii() {
 		for (int i = 0x20; i <= 0x7E; i++) {
 			assertWidthIs(1, i);
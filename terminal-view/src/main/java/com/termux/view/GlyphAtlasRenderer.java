@@ -0,0 +1,504 @@
+package com.termux.view;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.graphics.Typeface;
+
+import com.termux.terminal.TerminalBuffer;
+import com.termux.terminal.TerminalEmulator;
+import com.termux.terminal.TerminalRow;
+import com.termux.terminal.TextStyle;
+import com.termux.terminal.WcWidth;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Renderer of a {@link TerminalEmulator} which turns the cells on the screen into buffers of textured quads drawn by a
+ * {@link Canvas#drawVertices} call per atlas page, instead of a {@link Canvas#drawRect} and {@link Canvas#drawTextRun}
+ * for each style run of each row as done by {@link TerminalRenderer}, which uses this if enabled by
+ * {@link TerminalView#setGlyphAtlasRendering(boolean)}.
+ * <p/>
+ * Glyphs are rasterized once, in white, into the slots of an atlas used as the texture of the quads, and drawn in the
+ * color of each cell by the vertex colors modulating the texture. Backgrounds, the cursor and lines under and through
+ * text are drawn with a solid white slot, while color glyphs such as emojis are drawn with white to keep their colors.
+ * <p/>
+ * The atlas is made of small pages, added as glyphs are used, with slots one column wide for narrow glyphs or two for
+ * wide ones, so that it is only as large as the glyphs used and rasterizing a glyph only changes a small bitmap to
+ * upload. Once the pages take {@link #MAX_ATLAS_BYTES}, the page used the longest ago is cleared and reused, but never
+ * one used by the frame being drawn, as drawing may only read the bitmap once the frame is done. Glyphs of a frame that
+ * do not fit then are drawn directly.
+ * <p/>
+ * The quads of each page are drawn by one call, in any order of pages, as the quads of a cell are all added to the same
+ * page and cells do not overlap.
+ * <p/>
+ * Like {@link TerminalRenderer} this saves font metrics, so is recreated when the typeface or font size changes.
+ */
+final class GlyphAtlasRenderer {
+
+    /** The min width and height of a page of the atlas. */
+    private static final int MIN_PAGE_SIZE = 256;
+    /** The max size of the bitmaps of all pages of the atlas. */
+    private static final int MAX_ATLAS_BYTES = 8 * 1024 * 1024;
+    /** Marks unused entries of {@link #mTableKeys}. */
+    private static final long NO_KEY = -1;
+    /** How a glyph is rasterized, which is part of its key in the atlas. */
+    private static final int GLYPH_BOLD = 1;
+    private static final int GLYPH_ITALIC = 2;
+    /** Two triangles of three vertices for each quad. */
+    private static final int VERTICES_PER_QUAD = 6;
+
+    private final float mFontWidth;
+    private final int mFontLineSpacing;
+    private final int mFontAscent;
+    private final int mFontLineSpacingAndAscent;
+    /** The positions and thicknesses of lines under and through text, relative to the baseline. */
+    private final float mUnderlinePosition;
+    private final float mUnderlineThickness;
+    private final float mStrikeThruPosition;
+    private final float mStrikeThruThickness;
+
+    /** The paint rasterizing glyphs into the atlas, or drawing those which do not fit. */
+    private final Paint mGlyphPaint = new Paint();
+    private final Paint mSolidPaint = new Paint();
+    private final Canvas mPageCanvas = new Canvas();
+
+    /** The size of the pages, the max number of them, and the max number of slots of a page. */
+    private final int mPageWidth;
+    private final int mPageHeight;
+    private final int mMaxPages;
+    private final int mMaxSlotsPerPage;
+    private final ArrayList<Page> mPages = new ArrayList<>();
+    /** The pages being filled with glyphs one and two columns wide, indexed by columns - 1, or null. */
+    private final Page[] mOpenPages = new Page[2];
+    /** Counts the frames rendered, to know which pages are used by the frame being drawn. */
+    private int mFrame;
+
+    /**
+     * An open addressing hash table of the slots of glyphs, with {@link #NO_KEY} marking unused entries, so that looking
+     * up glyphs does not allocate. The key of a glyph of a single code point is the code point and the glyph flags,
+     * while the key of a glyph of a code point followed by combining characters is a hash of the flags and text, which
+     * are verified against {@link #mSlotFlags} and {@link #mSlotTexts} as hashes may collide. A slot is the index of its
+     * page times {@link #mMaxSlotsPerPage} plus its index in the page.
+     */
+    private long[] mTableKeys = new long[0];
+    private int[] mTableSlots = new int[0];
+    private int mTableBits;
+    /** The keys of the slots, and the glyph flags and text of slots of glyphs of combining characters, by slot. */
+    private long[] mSlotKeys = new long[0];
+    private int[] mSlotFlags = new int[0];
+    private char[][] mSlotTexts = new char[0][];
+
+    /** A page of the atlas, with slots of the same width, and the quads to draw with it. */
+    private static final class Page {
+        final int mIndex;
+        final Bitmap mBitmap;
+        final Paint mPaint = new Paint();
+        int mSlotWidth;
+        int mSlotColumns;
+        int mSlotCount;
+        /** The number of slots used, including the first one which is solid white. */
+        int mUsedSlots;
+        /** The last value of {@link #mFrame} the page was used by. */
+        int mLastFrame = -1;
+
+        /** The quads to draw: positions and texture coordinates as x and y pairs, and colors, of each vertex. */
+        float[] mVertices = new float[0];
+        float[] mTexCoords = new float[0];
+        int[] mColors = new int[0];
+        int mVertexCount;
+
+        Page(int index, int width, int height) {
+            mIndex = index;
+            mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mPaint.setShader(new BitmapShader(mBitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP));
+            mPaint.setFilterBitmap(false);
+        }
+
+        float getSlotLeft(int index) {
+            return (index % mSlotColumns) * mSlotWidth;
+        }
+
+        float getSlotTop(int index, int slotHeight) {
+            return (float) (index / mSlotColumns) * slotHeight;
+        }
+
+        void addQuad(float left, float top, float right, float bottom,
+                     float texLeft, float texTop, float texRight, float texBottom, int color) {
+            if (2 * (mVertexCount + VERTICES_PER_QUAD) > mVertices.length) {
+                final int capacity = Math.max(2 * mVertices.length, 2 * VERTICES_PER_QUAD * 256);
+                mVertices = Arrays.copyOf(mVertices, capacity);
+                mTexCoords = Arrays.copyOf(mTexCoords, capacity);
+                mColors = Arrays.copyOf(mColors, capacity / 2);
+            }
+            addVertex(left, top, texLeft, texTop, color);
+            addVertex(right, top, texRight, texTop, color);
+            addVertex(left, bottom, texLeft, texBottom, color);
+            addVertex(right, top, texRight, texTop, color);
+            addVertex(right, bottom, texRight, texBottom, color);
+            addVertex(left, bottom, texLeft, texBottom, color);
+        }
+
+        private void addVertex(float x, float y, float texX, float texY, int color) {
+            final int i = 2 * mVertexCount;
+            mVertices[i] = x;
+            mVertices[i + 1] = y;
+            mTexCoords[i] = texX;
+            mTexCoords[i + 1] = texY;
+            mColors[mVertexCount++] = color;
+        }
+
+        /** Draw the quads added since the last call. */
+        void flush(Canvas canvas) {
+            if (mVertexCount == 0) return;
+            canvas.drawVertices(Canvas.VertexMode.TRIANGLES, 2 * mVertexCount, mVertices, 0, mTexCoords, 0,
+                mColors, 0, null, 0, 0, mPaint);
+            mVertexCount = 0;
+        }
+    }
+
+    GlyphAtlasRenderer(Typeface typeface, int textSize, float fontWidth, int fontLineSpacing, int fontAscent) {
+        mFontWidth = fontWidth;
+        mFontLineSpacing = fontLineSpacing;
+        mFontAscent = fontAscent;
+        mFontLineSpacingAndAscent = fontLineSpacing + fontAscent;
+
+        mGlyphPaint.setTypeface(typeface);
+        mGlyphPaint.setAntiAlias(true);
+        mGlyphPaint.setTextSize(textSize);
+        mGlyphPaint.setColor(Color.WHITE);
+        mUnderlinePosition = mGlyphPaint.getUnderlinePosition();
+        mUnderlineThickness = Math.max(1, mGlyphPaint.getUnderlineThickness());
+        mStrikeThruPosition = mGlyphPaint.getStrikeThruPosition();
+        mStrikeThruThickness = Math.max(1, mGlyphPaint.getStrikeThruThickness());
+        mSolidPaint.setColor(Color.WHITE);
+
+        // At least a few slots of wide glyphs in each direction:
+        mPageWidth = Math.max(MIN_PAGE_SIZE, 4 * getSlotWidth(2));
+        mPageHeight = Math.max(MIN_PAGE_SIZE, 4 * fontLineSpacing);
+        mMaxPages = Math.max(2, MAX_ATLAS_BYTES / (4 * mPageWidth * mPageHeight));
+        mMaxSlotsPerPage = (mPageWidth / getSlotWidth(1)) * (mPageHeight / fontLineSpacing);
+    }
+
+    private int getSlotWidth(int columns) {
+        return (int) Math.ceil(columns * mFontWidth);
+    }
+
+    /**
+     * A page with a free slot for a glyph of the specified number of columns, adding a page or clearing the one used the
+     * longest ago if needed, or null if all pages are full and used by this frame.
+     */
+    private Page getOpenPage(int columns) {
+        Page page = mOpenPages[columns - 1];
+        if (page != null && page.mUsedSlots < page.mSlotCount) return page;
+
+        if (mPages.size() < mMaxPages) {
+            page = new Page(mPages.size(), mPageWidth, mPageHeight);
+            mPages.add(page);
+            growSlotTable();
+        } else {
+            page = null;
+            for (Page candidate : mPages) {
+                if (candidate.mLastFrame != mFrame && (page == null || candidate.mLastFrame < page.mLastFrame))
+                    page = candidate;
+            }
+            if (page == null) return null;
+            if (mOpenPages[2 - columns] == page) mOpenPages[2 - columns] = null;
+            page.mBitmap.eraseColor(Color.TRANSPARENT);
+            removeSlots(page);
+        }
+        preparePage(page, columns);
+        mOpenPages[columns - 1] = page;
+        return page;
+    }
+
+    /** Set up an empty page for glyphs of the specified number of columns, with its solid white first slot. */
+    private void preparePage(Page page, int columns) {
+        page.mSlotWidth = getSlotWidth(columns);
+        page.mSlotColumns = mPageWidth / page.mSlotWidth;
+        page.mSlotCount = page.mSlotColumns * (mPageHeight / mFontLineSpacing);
+        mPageCanvas.setBitmap(page.mBitmap);
+        mPageCanvas.drawRect(0, 0, page.mSlotWidth, mFontLineSpacing, mSolidPaint);
+        page.mUsedSlots = 1;
+    }
+
+    /** Grow the slot table and arrays to fit the slots of all pages, as when a page has been added. */
+    private void growSlotTable() {
+        final int slots = mPages.size() * mMaxSlotsPerPage;
+        mSlotKeys = Arrays.copyOf(mSlotKeys, slots);
+        mSlotFlags = Arrays.copyOf(mSlotFlags, slots);
+        mSlotTexts = Arrays.copyOf(mSlotTexts, slots);
+        mTableBits = 32 - Integer.numberOfLeadingZeros(2 * slots - 1);
+        mTableKeys = new long[1 << mTableBits];
+        mTableSlots = new int[1 << mTableBits];
+        rebuildSlotTable(null);
+    }
+
+    /** Remove the slots of a page being cleared from the slot table. */
+    private void removeSlots(Page page) {
+        final int firstSlot = page.mIndex * mMaxSlotsPerPage;
+        Arrays.fill(mSlotTexts, firstSlot, firstSlot + mMaxSlotsPerPage, null);
+        rebuildSlotTable(page);
+    }
+
+    /** Insert the glyph slots of all pages but the excluded one into the emptied slot table. */
+    private void rebuildSlotTable(Page excludedPage) {
+        Arrays.fill(mTableKeys, NO_KEY);
+        for (Page page : mPages) {
+            if (page == excludedPage) continue;
+            // The first slot of a page is the solid white one:
+            for (int index = 1; index < page.mUsedSlots; index++) {
+                final int slot = page.mIndex * mMaxSlotsPerPage + index;
+                final int tableIndex = findFreeTableIndex(mSlotKeys[slot]);
+                mTableKeys[tableIndex] = mSlotKeys[slot];
+                mTableSlots[tableIndex] = slot;
+            }
+        }
+    }
+
+    private int getTableIndex(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - mTableBits));
+    }
+
+    private int findFreeTableIndex(long key) {
+        final int tableMask = (1 << mTableBits) - 1;
+        int index = getTableIndex(key);
+        while (mTableKeys[index] != NO_KEY) index = (index + 1) & tableMask;
+        return index;
+    }
+
+    /** The slot of the glyph of the specified text, rasterizing it if not already done, or -1 if the atlas is full. */
+    private int getSlot(char[] text, int start, int end, int codePoint, int flags, int columns) {
+        final boolean cluster = end - start != Character.charCount(codePoint);
+        final long key = cluster ? getClusterKey(text, start, end, flags) : ((long) flags << 32) | codePoint;
+        if (mTableBits > 0) {
+            final int tableMask = (1 << mTableBits) - 1;
+            for (int index = getTableIndex(key); mTableKeys[index] != NO_KEY; index = (index + 1) & tableMask) {
+                if (mTableKeys[index] == key) {
+                    final int slot = mTableSlots[index];
+                    if (!cluster || (mSlotFlags[slot] == flags && isSlotText(slot, text, start, end))) return slot;
+                }
+            }
+        }
+
+        final Page page = getOpenPage(columns);
+        if (page == null) return -1;
+        final int slot = page.mIndex * mMaxSlotsPerPage + page.mUsedSlots;
+        rasterize(page, page.mUsedSlots++, text, start, end, flags, columns);
+        final int tableIndex = findFreeTableIndex(key);
+        mTableKeys[tableIndex] = key;
+        mTableSlots[tableIndex] = slot;
+        mSlotKeys[slot] = key;
+        if (cluster) {
+            mSlotFlags[slot] = flags;
+            mSlotTexts[slot] = Arrays.copyOfRange(text, start, end);
+        }
+        return slot;
+    }
+
+    /**
+     * The key of the glyph of a code point followed by combining characters, which is a hash with the sign bit set so
+     * that it differs from the keys of single code points, but is never {@link #NO_KEY}.
+     */
+    private static long getClusterKey(char[] text, int start, int end, int flags) {
+        long hash = flags;
+        for (int i = start; i < end; i++) hash = 31 * hash + text[i];
+        hash |= Long.MIN_VALUE;
+        return (hash == NO_KEY) ? Long.MIN_VALUE : hash;
+    }
+
+    private boolean isSlotText(int slot, char[] text, int start, int end) {
+        final char[] slotText = mSlotTexts[slot];
+        if (slotText == null || slotText.length != end - start) return false;
+        for (int i = 0; i < slotText.length; i++)
+            if (slotText[i] != text[start + i]) return false;
+        return true;
+    }
+
+    /** Rasterize the glyph of the specified text into the slot of the specified index in the page. */
+    private void rasterize(Page page, int index, char[] text, int start, int end, int flags, int columns) {
+        final float left = page.getSlotLeft(index);
+        final float top = page.getSlotTop(index, mFontLineSpacing);
+        mPageCanvas.setBitmap(page.mBitmap);
+        mPageCanvas.save();
+        mPageCanvas.clipRect(left, top, left + page.mSlotWidth, top + mFontLineSpacing);
+        drawGlyph(mPageCanvas, text, start, end, flags, columns, left, top, Color.WHITE);
+        mPageCanvas.restore();
+    }
+
+    /** Draw the glyph of the specified text in a cell whose top left corner is at the specified position. */
+    private void drawGlyph(Canvas canvas, char[] text, int start, int end, int flags, int columns, float left, float top, int color) {
+        mGlyphPaint.setColor(color);
+        mGlyphPaint.setFakeBoldText((flags & GLYPH_BOLD) != 0);
+        mGlyphPaint.setTextSkewX((flags & GLYPH_ITALIC) != 0 ? -0.35f : 0.f);
+        canvas.save();
+        canvas.translate(left, top);
+        // Like TerminalRenderer, scale glyphs whose width is not the one expected by wcwidth() to fit:
+        final float measuredWidth = mGlyphPaint.measureText(text, start, end - start);
+        final float expectedWidth = columns * mFontWidth;
+        if (measuredWidth > 0 && Math.abs(measuredWidth / mFontWidth - columns) > 0.01)
+            canvas.scale(expectedWidth / measuredWidth, 1.f);
+        canvas.drawTextRun(text, start, end - start, start, end - start, 0, -mFontAscent, false, mGlyphPaint);
+        canvas.restore();
+    }
+
+    /** If the glyph has colors of its own, as emojis do, so should be drawn with white to keep them. */
+    private static boolean isColorGlyph(char[] text, int start, int end, int codePoint) {
+        if (codePoint >= 0x1F000) return true;
+        for (int i = start; i < end; i++)
+            // The emoji presentation selector:
+            if (text[i] == 0xFE0F) return true;
+        return false;
+    }
+
+    /** Add a quad of a single color, textured by the middle of the solid white slot of the page. */
+    private void addSolidQuad(Page page, float left, float top, float right, float bottom, int color) {
+        final float texX = page.mSlotWidth / 2.f;
+        final float texY = mFontLineSpacing / 2.f;
+        page.addQuad(left, top, right, bottom, texX, texY, texX, texY, color);
+    }
+
+    /** Draw the quads of all pages added since the last call. */
+    private void flush(Canvas canvas) {
+        for (Page page : mPages) page.flush(canvas);
+    }
+
+    /** Render the terminal like {@link TerminalRenderer#render}, except for search matches which are drawn by it. */
+    void render(TerminalEmulator emulator, Canvas canvas, int topRow,
+                int selectionY1, int selectionY2, int selectionX1, int selectionX2) {
+        final boolean reverseVideo = emulator.isReverseVideo();
+        final int endRow = topRow + emulator.mRows;
+        final int columns = emulator.mColumns;
+        final int cursorCol = emulator.getCursorCol();
+        final int cursorRow = emulator.getCursorRow();
+        final boolean cursorVisible = emulator.isCursorEnabled();
+        final TerminalBuffer screen = emulator.getScreen();
+        final int[] palette = emulator.mColors.mCurrentColors;
+        final int cursorShape = emulator.getCursorStyle();
+
+        mFrame++;
+        // The first page, to which the quads of cells without glyph are added:
+        if (mPages.isEmpty()) getOpenPage(1);
+        for (int row = topRow; row < endRow; row++) {
+            final float top = mFontLineSpacingAndAscent + (row - topRow) * mFontLineSpacing;
+            final int cursorX = (row == cursorRow && cursorVisible) ? cursorCol : -1;
+            int selx1 = -1, selx2 = -1;
+            if (row >= selectionY1 && row <= selectionY2) {
+                if (row == selectionY1) selx1 = selectionX1;
+                selx2 = (row == selectionY2) ? selectionX2 : columns;
+            }
+
+            final TerminalRow lineObject = screen.getRow(row);
+            final char[] line = lineObject.mText;
+            final int charsUsedInLine = lineObject.getSpaceUsed();
+            long style = 0;
+            int styleRunEnd = 0;
+            int charIndex = 0;
+            for (int column = 0; column < columns; ) {
+                final char charAtIndex = line[charIndex];
+                final int codePoint = Character.isHighSurrogate(charAtIndex) ? Character.toCodePoint(charAtIndex, line[charIndex + 1]) : charAtIndex;
+                final int codePointWcWidth = WcWidth.width(codePoint);
+                // Combining chars following the code point are part of its glyph:
+                int glyphEnd = charIndex + Character.charCount(codePoint);
+                while (glyphEnd < charsUsedInLine && WcWidth.width(line, glyphEnd) <= 0)
+                    glyphEnd += Character.isHighSurrogate(line[glyphEnd]) ? 2 : 1;
+                if (column >= styleRunEnd) {
+                    style = lineObject.getStyle(column);
+                    styleRunEnd = lineObject.getStyleRunEnd(column);
+                }
+
+                if (codePointWcWidth > 0) {
+                    final boolean insideCursor = (cursorX == column || (codePointWcWidth == 2 && cursorX == column + 1));
+                    final boolean insideSelection = column >= selx1 && column <= selx2;
+                    addCell(canvas, line, charIndex, glyphEnd, codePoint, column, codePointWcWidth, top, style, palette,
+                        insideCursor ? cursorShape : -1, reverseVideo || insideSelection);
+                }
+                column += codePointWcWidth;
+                charIndex = glyphEnd;
+            }
+        }
+        flush(canvas);
+    }
+
+    /**
+     * Add the quads of a cell, in the colors {@link TerminalRenderer} would draw it with.
+     *
+     * @param cursorShape the shape of the cursor if in the cell, or -1.
+     */
+    private void addCell(Canvas canvas, char[] text, int start, int end, int codePoint, int column, int columns,
+                         float top, long textStyle, int[] palette, int cursorShape, boolean reverseVideo) {
+        int foreColor = TextStyle.decodeForeColor(textStyle);
+        final int effect = TextStyle.decodeEffect(textStyle);
+        int backColor = TextStyle.decodeBackColor(textStyle);
+        final boolean bold = (effect & (TextStyle.CHARACTER_ATTRIBUTE_BOLD | TextStyle.CHARACTER_ATTRIBUTE_BLINK)) != 0;
+
+        if ((foreColor & 0xff000000) != 0xff000000) {
+            // Let bold have bright colors if applicable (one of the first 8):
+            if (bold && foreColor >= 0 && foreColor < 8) foreColor += 8;
+            foreColor = palette[foreColor];
+        }
+        if ((backColor & 0xff000000) != 0xff000000) backColor = palette[backColor];
+
+        // Text in a block cursor is drawn in reverse, like text in the selection:
+        if (cursorShape == TerminalEmulator.TERMINAL_CURSOR_STYLE_BLOCK) reverseVideo = true;
+        if (reverseVideo ^ (effect & TextStyle.CHARACTER_ATTRIBUTE_INVERSE) != 0) {
+            int tmp = foreColor;
+            foreColor = backColor;
+            backColor = tmp;
+        }
+
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_DIM) != 0) {
+            // Dim color handling used by libvte which in turn took it from xterm, as done by TerminalRenderer:
+            int red = (0xFF & (foreColor >> 16)) * 2 / 3;
+            int green = (0xFF & (foreColor >> 8)) * 2 / 3;
+            int blue = (0xFF & foreColor) * 2 / 3;
+            foreColor = 0xFF000000 + (red << 16) + (green << 8) + blue;
+        }
+
+        // All quads of the cell are added to the page of its glyph, if any, to be drawn in order:
+        final boolean hasGlyph = (effect & TextStyle.CHARACTER_ATTRIBUTE_INVISIBLE) == 0 && (codePoint != ' ' || end - start > 1);
+        final int flags = (bold ? GLYPH_BOLD : 0) | ((effect & TextStyle.CHARACTER_ATTRIBUTE_ITALIC) != 0 ? GLYPH_ITALIC : 0);
+        final int slot = hasGlyph ? getSlot(text, start, end, codePoint, flags, columns) : -1;
+        final Page page = mPages.get((slot == -1) ? 0 : slot / mMaxSlotsPerPage);
+        page.mLastFrame = mFrame;
+
+        final float left = column * mFontWidth;
+        final float right = left + columns * mFontWidth;
+        final float bottom = top + mFontLineSpacing;
+        if (backColor != palette[TextStyle.COLOR_INDEX_BACKGROUND]) addSolidQuad(page, left, top, right, bottom, backColor);
+
+        if (cursorShape != -1) {
+            float cursorTop = top;
+            float cursorRight = right;
+            if (cursorShape == TerminalEmulator.TERMINAL_CURSOR_STYLE_UNDERLINE) cursorTop = bottom - mFontLineSpacing / 4.f;
+            else if (cursorShape == TerminalEmulator.TERMINAL_CURSOR_STYLE_BAR) cursorRight = left + (right - left) / 4.f;
+            addSolidQuad(page, left, cursorTop, cursorRight, bottom, palette[TextStyle.COLOR_INDEX_CURSOR]);
+        }
+
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_INVISIBLE) != 0) return;
+        if (hasGlyph) {
+            final int glyphColor = isColorGlyph(text, start, end, codePoint) ? Color.WHITE : foreColor;
+            if (slot == -1) {
+                // The atlas is full with glyphs of this frame, so draw what has been added and the glyph directly:
+                flush(canvas);
+                drawGlyph(canvas, text, start, end, flags, columns, left, top, glyphColor);
+            } else {
+                final int index = slot % mMaxSlotsPerPage;
+                final float texLeft = page.getSlotLeft(index);
+                final float texTop = page.getSlotTop(index, mFontLineSpacing);
+                page.addQuad(left, top, right, bottom, texLeft, texTop, texLeft + (right - left), texTop + mFontLineSpacing, glyphColor);
+            }
+        }
+
+        final float baseline = top - mFontAscent;
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_UNDERLINE) != 0)
+            addSolidQuad(page, left, baseline + mUnderlinePosition, right, baseline + mUnderlinePosition + mUnderlineThickness, foreColor);
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_STRIKETHROUGH) != 0)
+            addSolidQuad(page, left, baseline + mStrikeThruPosition, right, baseline + mStrikeThruPosition + mStrikeThruThickness, foreColor);
+    }
+
+}
@@ -3,14 +3,21 @@ package com.termux.view;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.PorterDuff;
+import android.graphics.RecordingCanvas;
+import android.graphics.RenderNode;
 import android.graphics.Typeface;
 
 import com.termux.terminal.TerminalBuffer;
 import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalRow;
+import com.termux.terminal.TerminalSearch;
 import com.termux.terminal.TextStyle;
 import com.termux.terminal.WcWidth;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
 /**
  * Renderer of a {@link TerminalEmulator} into a {@link Canvas}.
  * <p/>
@@ -33,6 +40,52 @@ public final class TerminalRenderer {
 
     private final float[] asciiMeasures = new float[127];
 
+    /** The log2 of the number of entries in {@link #mCodePointWidthKeys}. */
+    private static final int CODE_POINT_WIDTH_CACHE_BITS = 12;
+    /**
+     * A direct-mapped cache of the measured widths of non-ASCII code points, in {@link #mCodePointWidths}, so that
+     * screens full of CJK characters or emojis do not measure each cell in each frame. Entries are replaced when another
+     * code point maps to them, with -1 marking unused ones. The width only depends on the typeface and text size, as
+     * bold is faked without changing the advance, so the cache lives as long as this renderer which is recreated when
+     * they change by {@link TerminalView#setTextSize(int)} and {@link TerminalView#setTypeface(Typeface)}.
+     */
+    private final int[] mCodePointWidthKeys = new int[1 << CODE_POINT_WIDTH_CACHE_BITS];
+    private final float[] mCodePointWidths = new float[1 << CODE_POINT_WIDTH_CACHE_BITS];
+
+    /** What has been drawn for a row not containing cursor or selection, see {@link #mRowCache}. */
+    private static final class CachedRow {
+        final RenderNode mNode;
+        /** The {@link TerminalRow#getGeneration()} of the row when recorded into {@link #mNode}. */
+        int mGeneration;
+        int mColumns;
+        boolean mRecorded;
+
+        CachedRow(RenderNode node) {
+            mNode = node;
+        }
+    }
+
+    /**
+     * The display lists of the rows drawn in the last frame when rendering to a hardware accelerated canvas, keyed by
+     * row object so that they remain valid while the rows scroll. Only rows changed since then need to be recorded again.
+     */
+    private IdentityHashMap<TerminalRow, CachedRow> mRowCache = new IdentityHashMap<>();
+    /** The row cache being built for the frame being rendered, swapped with {@link #mRowCache} after rendering. */
+    private IdentityHashMap<TerminalRow, CachedRow> mNextRowCache = new IdentityHashMap<>();
+    /** Render nodes of rows no longer visible, for reuse. */
+    private final ArrayDeque<RenderNode> mFreeRenderNodes = new ArrayDeque<>();
+    /** The colors used when recording the rows in {@link #mRowCache}, which is discarded when they change. */
+    private int[] mRowCachePalette;
+    private boolean mRowCacheReverseVideo;
+
+    /** The translucent colors drawn over search matches, and over the current match. */
+    private static final int SEARCH_MATCH_COLOR = 0x66FFFF00;
+    private static final int SEARCH_CURRENT_MATCH_COLOR = 0x99FF8C00;
+    private final Paint mSearchMatchPaint = new Paint();
+
+    /** The renderer drawing the screen in one call against a glyph atlas instead, if enabled. */
+    private GlyphAtlasRenderer mGlyphAtlasRenderer;
+
     public TerminalRenderer(int textSize, Typeface typeface) {
         mTextSize = textSize;
         mTypeface = typeface;
@@ -51,11 +104,40 @@ public final class TerminalRenderer {
             sb.setCharAt(0, (char) i);
             asciiMeasures[i] = mTextPaint.measureText(sb, 0, 1);
         }
+        Arrays.fill(mCodePointWidthKeys, -1);
+    }
+
+    /**
+     * Set if the screen should be drawn by a {@link GlyphAtlasRenderer}, as one buffer of quads against an atlas of
+     * glyphs, instead of a draw call for each style run of each row.
+     */
+    void setGlyphAtlasRendering(boolean enabled) {
+        if (enabled == (mGlyphAtlasRenderer != null)) return;
+        if (enabled) {
+            mGlyphAtlasRenderer = new GlyphAtlasRenderer(mTypeface, mTextSize, mFontWidth, mFontLineSpacing, mFontAscent);
+            discardRowCache(mRowCache);
+        } else {
+            mGlyphAtlasRenderer = null;
+        }
+    }
+
+    /** The measured width of the code point starting at the specified index in the text. */
+    private float measureCodePoint(char[] text, int index, int chars, int codePoint) {
+        if (codePoint < asciiMeasures.length) return asciiMeasures[codePoint];
+        final int slot = (codePoint * 0x9E3779B1) >>> (32 - CODE_POINT_WIDTH_CACHE_BITS);
+        if (mCodePointWidthKeys[slot] == codePoint) return mCodePointWidths[slot];
+        final float width = mTextPaint.measureText(text, index, chars);
+        mCodePointWidthKeys[slot] = codePoint;
+        mCodePointWidths[slot] = width;
+        return width;
     }
 
-    /** Render the terminal to a canvas with at a specified row scroll, and an optional rectangular selection. */
+    /**
+     * Render the terminal to a canvas with at a specified row scroll, and an optional rectangular selection and search
+     * whose matches to highlight.
+     */
     public void render(TerminalEmulator mEmulator, Canvas canvas, int topRow,
-                             int selectionY1, int selectionY2, int selectionX1, int selectionX2) {
+                             int selectionY1, int selectionY2, int selectionX1, int selectionX2, TerminalSearch search) {
         final boolean reverseVideo = mEmulator.isReverseVideo();
         final int endRow = topRow + mEmulator.mRows;
         final int columns = mEmulator.mColumns;
@@ -69,6 +151,20 @@ public final class TerminalRenderer {
         if (reverseVideo)
             canvas.drawColor(palette[TextStyle.COLOR_INDEX_FOREGROUND], PorterDuff.Mode.SRC);
 
+        if (mGlyphAtlasRenderer != null) {
+            mGlyphAtlasRenderer.render(mEmulator, canvas, topRow, selectionY1, selectionY2, selectionX1, selectionX2);
+            if (search != null) renderSearchMatches(canvas, search, topRow, endRow, columns);
+            return;
+        }
+
+        final boolean useRowCache = canvas.isHardwareAccelerated();
+        if (useRowCache && (reverseVideo != mRowCacheReverseVideo || !Arrays.equals(palette, mRowCachePalette))) {
+            // Colors used by all rows have changed, so nothing cached can be reused.
+            discardRowCache(mRowCache);
+            mRowCacheReverseVideo = reverseVideo;
+            mRowCachePalette = palette.clone();
+        }
+
         float heightOffset = mFontLineSpacingAndAscent;
         for (int row = topRow; row < endRow; row++) {
             heightOffset += mFontLineSpacing;
@@ -80,74 +176,148 @@ public final class TerminalRenderer {
                 selx2 = (row == selectionY2) ? selectionX2 : mEmulator.mColumns;
             }
 
-            TerminalRow lineObject = screen.allocateFullLineIfNecessary(screen.externalToInternalRow(row));
-            final char[] line = lineObject.mText;
-            final int charsUsedInLine = lineObject.getSpaceUsed();
-
-            long lastRunStyle = 0;
-            boolean lastRunInsideCursor = false;
-            boolean lastRunInsideSelection = false;
-            int lastRunStartColumn = -1;
-            int lastRunStartIndex = 0;
-            boolean lastRunFontWidthMismatch = false;
-            int currentCharIndex = 0;
-            float measuredWidthForRun = 0.f;
-
-            for (int column = 0; column < columns; ) {
-                final char charAtIndex = line[currentCharIndex];
-                final boolean charIsHighSurrogate = Character.isHighSurrogate(charAtIndex);
-                final int charsForCodePoint = charIsHighSurrogate ? 2 : 1;
-                final int codePoint = charIsHighSurrogate ? Character.toCodePoint(charAtIndex, line[currentCharIndex + 1]) : charAtIndex;
-                final int codePointWcWidth = WcWidth.width(codePoint);
-                final boolean insideCursor = (cursorX == column || (codePointWcWidth == 2 && cursorX == column + 1));
-                final boolean insideSelection = column >= selx1 && column <= selx2;
-                final long style = lineObject.getStyle(column);
-
-                // Check if the measured text width for this code point is not the same as that expected by wcwidth().
-                // This could happen for some fonts which are not truly monospace, or for more exotic characters such as
-                // smileys which android font renders as wide.
-                // If this is detected, we draw this code point scaled to match what wcwidth() expects.
-                final float measuredCodePointWidth = (codePoint < asciiMeasures.length) ? asciiMeasures[codePoint] : mTextPaint.measureText(line,
-                    currentCharIndex, charsForCodePoint);
-                final boolean fontWidthMismatch = Math.abs(measuredCodePointWidth / mFontWidth - codePointWcWidth) > 0.01;
-
-                if (style != lastRunStyle || insideCursor != lastRunInsideCursor || insideSelection != lastRunInsideSelection || fontWidthMismatch || lastRunFontWidthMismatch) {
-                    if (column == 0) {
-                        // Skip first column as there is nothing to draw, just record the current style.
-                    } else {
-                        final int columnWidthSinceLastRun = column - lastRunStartColumn;
-                        final int charsSinceLastRun = currentCharIndex - lastRunStartIndex;
-                        int cursorColor = lastRunInsideCursor ? mEmulator.mColors.mCurrentColors[TextStyle.COLOR_INDEX_CURSOR] : 0;
-                        boolean invertCursorTextColor = lastRunInsideCursor && cursorShape == TerminalEmulator.TERMINAL_CURSOR_STYLE_BLOCK;
-                        drawTextRun(canvas, line, palette, heightOffset, lastRunStartColumn, columnWidthSinceLastRun,
-                            lastRunStartIndex, charsSinceLastRun, measuredWidthForRun,
-                            cursorColor, cursorShape, lastRunStyle, reverseVideo || invertCursorTextColor || lastRunInsideSelection);
-                    }
-                    measuredWidthForRun = 0.f;
-                    lastRunStyle = style;
-                    lastRunInsideCursor = insideCursor;
-                    lastRunInsideSelection = insideSelection;
-                    lastRunStartColumn = column;
-                    lastRunStartIndex = currentCharIndex;
-                    lastRunFontWidthMismatch = fontWidthMismatch;
-                }
-                measuredWidthForRun += measuredCodePointWidth;
-                column += codePointWcWidth;
-                currentCharIndex += charsForCodePoint;
-                while (currentCharIndex < charsUsedInLine && WcWidth.width(line, currentCharIndex) <= 0) {
-                    // Eat combining chars so that they are treated as part of the last non-combining code point,
-                    // instead of e.g. being considered inside the cursor in the next run.
-                    currentCharIndex += Character.isHighSurrogate(line[currentCharIndex]) ? 2 : 1;
+            TerminalRow lineObject = screen.getRow(row);
+
+            if (!useRowCache || cursorX != -1 || selx2 != -1) {
+                // Rows with cursor or selection change independently of their contents, so are always drawn directly.
+                renderRow(canvas, lineObject, heightOffset, columns, cursorX, selx1, selx2, palette, cursorShape, reverseVideo);
+                continue;
+            }
+
+            // Clean rows are drawn by replaying what was recorded for them the last time they changed, while rows
+            // that have been changed by the emulator since then (or were not visible) are recorded again.
+            CachedRow cachedRow = mRowCache.remove(lineObject);
+            if (cachedRow == null) {
+                RenderNode node = mFreeRenderNodes.isEmpty() ? new RenderNode("TerminalRow") : mFreeRenderNodes.pop();
+                node.setClipToBounds(false);
+                cachedRow = new CachedRow(node);
+            }
+            if (cachedRow.mGeneration != lineObject.getGeneration() || cachedRow.mColumns != columns || !cachedRow.mRecorded) {
+                RecordingCanvas recordingCanvas = cachedRow.mNode.beginRecording((int) Math.ceil(columns * mFontWidth), mFontLineSpacing);
+                try {
+                    renderRow(recordingCanvas, lineObject, mFontLineSpacing, columns, -1, -1, -1, palette, cursorShape, reverseVideo);
+                } finally {
+                    cachedRow.mNode.endRecording();
                 }
+                cachedRow.mGeneration = lineObject.getGeneration();
+                cachedRow.mColumns = columns;
+                cachedRow.mRecorded = true;
             }
+            final int rowTop = (int) heightOffset - mFontLineSpacing;
+            cachedRow.mNode.setPosition(0, rowTop, (int) Math.ceil(columns * mFontWidth), rowTop + mFontLineSpacing);
+            canvas.drawRenderNode(cachedRow.mNode);
+            mNextRowCache.put(lineObject, cachedRow);
+        }
+
+        if (useRowCache) {
+            // Rows no longer visible are discarded, and the cache swapped with the one for this frame.
+            discardRowCache(mRowCache);
+            IdentityHashMap<TerminalRow, CachedRow> previousRowCache = mRowCache;
+            mRowCache = mNextRowCache;
+            mNextRowCache = previousRowCache;
+        }
+
+        // Matches are drawn over the rows, so that rows with matches can still be drawn from the row cache:
+        if (search != null) renderSearchMatches(canvas, search, topRow, endRow, columns);
+    }
+
+    private void renderSearchMatches(Canvas canvas, TerminalSearch search, int topRow, int endRow, int columns) {
+        final TerminalSearch.Match currentMatch = search.getCurrentMatch();
+        for (TerminalSearch.Match match : search.getMatchesInRows(topRow, endRow - 1)) {
+            mSearchMatchPaint.setColor(match == currentMatch ? SEARCH_CURRENT_MATCH_COLOR : SEARCH_MATCH_COLOR);
+            final int matchStartRow = search.getExternalRow(match.mStartRow);
+            final int matchEndRow = search.getExternalRow(match.mEndRow);
+            for (int row = Math.max(topRow, matchStartRow); row <= Math.min(endRow - 1, matchEndRow); row++) {
+                final int startColumn = (row == matchStartRow) ? match.mStartColumn : 0;
+                final int endColumn = (row == matchEndRow) ? match.mEndColumn : columns;
+                final float bottom = mFontLineSpacingAndAscent + (row - topRow + 1) * mFontLineSpacing;
+                canvas.drawRect(startColumn * mFontWidth, bottom - mFontLineSpacing, endColumn * mFontWidth, bottom, mSearchMatchPaint);
+            }
+        }
+    }
 
-            final int columnWidthSinceLastRun = columns - lastRunStartColumn;
-            final int charsSinceLastRun = currentCharIndex - lastRunStartIndex;
-            int cursorColor = lastRunInsideCursor ? mEmulator.mColors.mCurrentColors[TextStyle.COLOR_INDEX_CURSOR] : 0;
-            boolean invertCursorTextColor = lastRunInsideCursor && cursorShape == TerminalEmulator.TERMINAL_CURSOR_STYLE_BLOCK;
-            drawTextRun(canvas, line, palette, heightOffset, lastRunStartColumn, columnWidthSinceLastRun, lastRunStartIndex, charsSinceLastRun,
-                measuredWidthForRun, cursorColor, cursorShape, lastRunStyle, reverseVideo || invertCursorTextColor || lastRunInsideSelection);
+    private void discardRowCache(IdentityHashMap<TerminalRow, CachedRow> rowCache) {
+        for (CachedRow cachedRow : rowCache.values()) {
+            cachedRow.mNode.discardDisplayList();
+            mFreeRenderNodes.push(cachedRow.mNode);
         }
+        rowCache.clear();
+    }
+
+    /** Render a single row, with the bottom of the row at the specified height offset. */
+    private void renderRow(Canvas canvas, TerminalRow lineObject, float heightOffset, int columns, int cursorX,
+                           int selx1, int selx2, int[] palette, int cursorShape, boolean reverseVideo) {
+        final char[] line = lineObject.mText;
+        final int charsUsedInLine = lineObject.getSpaceUsed();
+
+        long lastRunStyle = 0;
+        boolean lastRunInsideCursor = false;
+        boolean lastRunInsideSelection = false;
+        int lastRunStartColumn = -1;
+        int lastRunStartIndex = 0;
+        boolean lastRunFontWidthMismatch = false;
+        int currentCharIndex = 0;
+        float measuredWidthForRun = 0.f;
+        // The style of the cells up to styleRunEnd, looked up once for each run of cells sharing a style:
+        long style = 0;
+        int styleRunEnd = 0;
+
+        for (int column = 0; column < columns; ) {
+            final char charAtIndex = line[currentCharIndex];
+            final boolean charIsHighSurrogate = Character.isHighSurrogate(charAtIndex);
+            final int charsForCodePoint = charIsHighSurrogate ? 2 : 1;
+            final int codePoint = charIsHighSurrogate ? Character.toCodePoint(charAtIndex, line[currentCharIndex + 1]) : charAtIndex;
+            final int codePointWcWidth = WcWidth.width(codePoint);
+            final boolean insideCursor = (cursorX == column || (codePointWcWidth == 2 && cursorX == column + 1));
+            final boolean insideSelection = column >= selx1 && column <= selx2;
+            if (column >= styleRunEnd) {
+                style = lineObject.getStyle(column);
+                styleRunEnd = lineObject.getStyleRunEnd(column);
+            }
+
+            // Check if the measured text width for this code point is not the same as that expected by wcwidth().
+            // This could happen for some fonts which are not truly monospace, or for more exotic characters such as
+            // smileys which android font renders as wide.
+            // If this is detected, we draw this code point scaled to match what wcwidth() expects.
+            final float measuredCodePointWidth = measureCodePoint(line, currentCharIndex, charsForCodePoint, codePoint);
+            final boolean fontWidthMismatch = Math.abs(measuredCodePointWidth / mFontWidth - codePointWcWidth) > 0.01;
+
+            if (style != lastRunStyle || insideCursor != lastRunInsideCursor || insideSelection != lastRunInsideSelection || fontWidthMismatch || lastRunFontWidthMismatch) {
+                if (column == 0) {
+                    // Skip first column as there is nothing to draw, just record the current style.
+                } else {
+                    final int columnWidthSinceLastRun = column - lastRunStartColumn;
+                    final int charsSinceLastRun = currentCharIndex - lastRunStartIndex;
+                    int cursorColor = lastRunInsideCursor ? palette[TextStyle.COLOR_INDEX_CURSOR] : 0;
+                    boolean invertCursorTextColor = lastRunInsideCursor && cursorShape == TerminalEmulator.TERMINAL_CURSOR_STYLE_BLOCK;
+                    drawTextRun(canvas, line, palette, heightOffset, lastRunStartColumn, columnWidthSinceLastRun,
+                        lastRunStartIndex, charsSinceLastRun, measuredWidthForRun,
+                        cursorColor, cursorShape, lastRunStyle, reverseVideo || invertCursorTextColor || lastRunInsideSelection);
+                }
+                measuredWidthForRun = 0.f;
+                lastRunStyle = style;
+                lastRunInsideCursor = insideCursor;
+                lastRunInsideSelection = insideSelection;
+                lastRunStartColumn = column;
+                lastRunStartIndex = currentCharIndex;
+                lastRunFontWidthMismatch = fontWidthMismatch;
+            }
+            measuredWidthForRun += measuredCodePointWidth;
+            column += codePointWcWidth;
+            currentCharIndex += charsForCodePoint;
+            while (currentCharIndex < charsUsedInLine && WcWidth.width(line, currentCharIndex) <= 0) {
+                // Eat combining chars so that they are treated as part of the last non-combining code point,
+                // instead of e.g. being considered inside the cursor in the next run.
+                currentCharIndex += Character.isHighSurrogate(line[currentCharIndex]) ? 2 : 1;
+            }
+        }
+
+        final int columnWidthSinceLastRun = columns - lastRunStartColumn;
+        final int charsSinceLastRun = currentCharIndex - lastRunStartIndex;
+        int cursorColor = lastRunInsideCursor ? palette[TextStyle.COLOR_INDEX_CURSOR] : 0;
+        boolean invertCursorTextColor = lastRunInsideCursor && cursorShape == TerminalEmulator.TERMINAL_CURSOR_STYLE_BLOCK;
+        drawTextRun(canvas, line, palette, heightOffset, lastRunStartColumn, columnWidthSinceLastRun, lastRunStartIndex, charsSinceLastRun,
+            measuredWidthForRun, cursorColor, cursorShape, lastRunStyle, reverseVideo || invertCursorTextColor || lastRunInsideSelection);
     }
 
     private void drawTextRun(Canvas canvas, char[] text, int[] palette, float y, int startColumn, int runWidthColumns,
@@ -36,6 +36,8 @@ import androidx.annotation.Nullable;
 
 import com.termux.terminal.KeyHandler;
 import com.termux.terminal.TerminalEmulator;
+import com.termux.terminal.TerminalMetrics;
+import com.termux.terminal.TerminalSearch;
 import com.termux.terminal.TerminalSession;
 
 /**
@@ -67,10 +69,16 @@ public final class TerminalView extends View {
 
     public TerminalRenderer mRenderer;
 
+    /** If {@link #mRenderer} draws with a glyph atlas, see {@link #setGlyphAtlasRendering(boolean)}. */
+    private boolean mGlyphAtlasRendering;
+
     public TerminalViewClient mClient;
 
     private TextSelectionCursorController mTextSelectionCursorController;
 
+    /** The search of {@link #mEmulator} whose matches are highlighted, if any. */
+    private TerminalSearch mSearch;
+
     /**
      * The top row of text to display. Ranges from -activeTranscriptRows to 0.
      */
@@ -259,6 +267,7 @@ public final class TerminalView extends View {
         mTermSession = session;
         mEmulator = null;
         mCombiningAccent = 0;
+        mSearch = null;
 
         updateSize();
 
@@ -425,6 +434,16 @@ public final class TerminalView extends View {
     public void onScreenUpdated(boolean skipScrolling) {
         if (mEmulator == null) return;
 
+        // The emulator may be concurrently mutated if the session emulates on a worker thread.
+        synchronized (mEmulator) {
+            onScreenUpdatedLocked(skipScrolling);
+        }
+
+        invalidate();
+        if (mAccessibilityEnabled) setContentDescription(getText());
+    }
+
+    private void onScreenUpdatedLocked(boolean skipScrolling) {
         int rowsInHistory = mEmulator.getScreen().getActiveTranscriptRows();
         if (mTopRow < -rowsInHistory) mTopRow = -rowsInHistory;
 
@@ -461,9 +480,6 @@ public final class TerminalView extends View {
         }
 
         mEmulator.clearScrollCounter();
-
-        invalidate();
-        if (mAccessibilityEnabled) setContentDescription(getText());
     }
 
     /**
@@ -483,15 +499,27 @@ public final class TerminalView extends View {
      */
     public void setTextSize(int textSize) {
         mRenderer = new TerminalRenderer(textSize, mRenderer == null ? Typeface.MONOSPACE : mRenderer.mTypeface);
+        mRenderer.setGlyphAtlasRendering(mGlyphAtlasRendering);
         updateSize();
     }
 
     public void setTypeface(Typeface newTypeface) {
         mRenderer = new TerminalRenderer(mRenderer.mTextSize, newTypeface);
+        mRenderer.setGlyphAtlasRendering(mGlyphAtlasRendering);
         updateSize();
         invalidate();
     }
 
+    /**
+     * Sets if the screen is drawn as one buffer of textured quads against an atlas of glyphs, with a single draw call,
+     * instead of with a draw call for each style run of each row. Must be called after {@link #setTextSize(int)}.
+     */
+    public void setGlyphAtlasRendering(boolean enabled) {
+        mGlyphAtlasRendering = enabled;
+        mRenderer.setGlyphAtlasRendering(enabled);
+        invalidate();
+    }
+
     @Override
     public boolean onCheckIsTextEditor() {
         return true;
@@ -597,7 +625,7 @@ public final class TerminalView extends View {
                     ClipData.Item clipItem = clipData.getItemAt(0);
                     if (clipItem != null) {
                         CharSequence text = clipItem.coerceToText(getContext());
-                        if (!TextUtils.isEmpty(text)) mEmulator.paste(text.toString());
+                        if (!TextUtils.isEmpty(text)) mTermSession.paste(text.toString(), null);
                     }
                 }
             } else if (mEmulator.isMouseTrackingActive()) { // BUTTON_PRIMARY.
@@ -962,6 +990,10 @@ public final class TerminalView extends View {
             return;
         }
 
+        // The time to record the frame, which with hardware acceleration excludes the time to draw it on the GPU:
+        final TerminalMetrics metrics = mTermSession.getMetrics();
+        final long startTime = metrics == null ? 0 : System.nanoTime();
+
         int selectionY1 = -1;
         int selectionY2 = -1;
         int selectionX1 = -1;
@@ -973,19 +1005,25 @@ public final class TerminalView extends View {
             selectionX2 = mTextSelectionCursorController.mSelX2;
         }
 
-        mRenderer.render(
-            mEmulator,
-            canvas,
-            mTopRow,
-            selectionY1,
-            selectionY2,
-            selectionX1,
-            selectionX2
-        );
+        synchronized (mEmulator) {
+            if (mSearch != null) mSearch.update();
+            mRenderer.render(
+                mEmulator,
+                canvas,
+                mTopRow,
+                selectionY1,
+                selectionY2,
+                selectionX1,
+                selectionX2,
+                mSearch
+            );
+        }
 
         if (mTextSelectionCursorController != null) {
             mTextSelectionCursorController.render();
         }
+
+        if (metrics != null) metrics.onFrameRendered(System.nanoTime() - startTime);
     }
 
     public TerminalSession getCurrentSession() {
@@ -993,7 +1031,9 @@ public final class TerminalView extends View {
     }
 
     private CharSequence getText() {
-        return mEmulator.getScreen().getSelectedText(0, mTopRow, mEmulator.mColumns, mTopRow + mEmulator.mRows);
+        synchronized (mEmulator) {
+            return mEmulator.getScreen().getSelectedText(0, mTopRow, mEmulator.mColumns, mTopRow + mEmulator.mRows);
+        }
     }
 
     public int getCursorX(float x) {
@@ -1023,6 +1063,34 @@ public final class TerminalView extends View {
         this.mTopRow = mTopRow;
     }
 
+    public TerminalSearch getSearch() {
+        return mSearch;
+    }
+
+    /**
+     * Set the search of the emulator of the current session whose matches to highlight, which is updated before each
+     * draw, or null to stop highlighting. The search is cleared when attaching another session.
+     */
+    public void setSearch(TerminalSearch search) {
+        mSearch = search;
+        invalidate();
+    }
+
+    /** Scroll to show the specified search match, such as one returned by {@link TerminalSearch#previous()}. */
+    public void showSearchMatch(TerminalSearch.Match match) {
+        if (mEmulator == null || mSearch == null || match == null) return;
+        synchronized (mEmulator) {
+            final int matchRow = mSearch.getExternalRow(match.mStartRow);
+            if (matchRow < mTopRow || matchRow >= mTopRow + mEmulator.mRows) {
+                // Show the match in the middle of the screen, if possible:
+                final int rowsInHistory = mEmulator.getScreen().getActiveTranscriptRows();
+                mTopRow = Math.min(0, Math.max(-rowsInHistory, matchRow - mEmulator.mRows / 2));
+            }
+        }
+        awakenScrollBars();
+        invalidate();
+    }
+
     public void requestAutoFill(String autoFillHint) {
         var autofillManager = getContext().getSystemService(AutofillManager.class);
         if (autofillManager != null && autofillManager.isEnabled()) {
@@ -90,14 +90,16 @@ public class TextSelectionCursorController implements ViewTreeObserver.OnTouchMo
         mSelX1 = mSelX2 = columnAndRow[0];
         mSelY1 = mSelY2 = columnAndRow[1];
 
-        TerminalBuffer screen = terminalView.mEmulator.getScreen();
-        if (!" ".equals(screen.getSelectedText(mSelX1, mSelY1, mSelX1, mSelY1))) {
-            // Selecting something other than whitespace. Expand to word.
-            while (mSelX1 > 0 && !screen.getSelectedText(mSelX1 - 1, mSelY1, mSelX1 - 1, mSelY1).isEmpty()) {
-                mSelX1--;
-            }
-            while (mSelX2 < terminalView.mEmulator.mColumns - 1 && !screen.getSelectedText(mSelX2 + 1, mSelY1, mSelX2 + 1, mSelY1).isEmpty()) {
-                mSelX2++;
+        synchronized (terminalView.mEmulator) {
+            TerminalBuffer screen = terminalView.mEmulator.getScreen();
+            if (!" ".equals(screen.getSelectedText(mSelX1, mSelY1, mSelX1, mSelY1))) {
+                // Selecting something other than whitespace. Expand to word.
+                while (mSelX1 > 0 && !screen.getSelectedText(mSelX1 - 1, mSelY1, mSelX1 - 1, mSelY1).isEmpty()) {
+                    mSelX1--;
+                }
+                while (mSelX2 < terminalView.mEmulator.mColumns - 1 && !screen.getSelectedText(mSelX2 + 1, mSelY1, mSelX2 + 1, mSelY1).isEmpty()) {
+                    mSelX2++;
+                }
             }
         }
     }
@@ -293,7 +295,10 @@ public class TextSelectionCursorController implements ViewTreeObserver.OnTouchMo
     }
 
     private int getValidCurX(TerminalBuffer screen, int cy, int cx) {
-        String line = screen.getSelectedText(0, cy, cx, cy);
+        String line;
+        synchronized (terminalView.mEmulator) {
+            line = screen.getSelectedText(0, cy, cx, cy);
+        }
         if (!TextUtils.isEmpty(line)) {
             int col = 0;
             for (int i = 0, len = line.length(); i < len; i++) {
@@ -348,7 +353,9 @@ public class TextSelectionCursorController implements ViewTreeObserver.OnTouchMo
 
     /** Get the currently selected text. */
     public String getSelectedText() {
-        return terminalView.mEmulator.getSelectedText(mSelX1, mSelY1, mSelX2, mSelY2);
+        synchronized (terminalView.mEmulator) {
+            return terminalView.mEmulator.getSelectedText(mSelX1, mSelY1, mSelX2, mSelY2);
+        }
     }
 
     /** Get the selected text stored before "MORE" button was pressed on the context menu. */
@@ -0,0 +1,145 @@
+package com.termux.api;
+
+import android.content.Intent;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Parcel;
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructCmsghdr;
+import android.system.StructMsghdr;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The end of the channel opened by Termux, over which API calls are received as frames instead of as messages to
+ * {@link TermuxApiService.IncomingHandler}, which are handled by posting them to it.
+ * <p/>
+ * Each frame is a request id and the marshalled intent of the call, with the file descriptors of the output and input
+ * sockets of the call attached as SCM_RIGHTS. The channel is acknowledged with a frame of request id 0 once it is read,
+ * before which Termux sends calls through the messenger.
+ * <p/>
+ * Requires Android 13, which added {@link Os#sendmsg} and {@link Os#recvmsg}.
+ */
+@RequiresApi(Build.VERSION_CODES.TIRAMISU)
+final class TermuxApiChannel implements Runnable {
+
+    private static final String LOG_TAG = "TermuxApiChannel";
+
+    /** From {@code <sys/socket.h>}, as not in {@link OsConstants}. */
+    private static final int SCM_RIGHTS = 1;
+
+    /** The max size of a frame, as sent by Termux. */
+    private static final int MAX_FRAME_SIZE = 64 * 1024;
+
+    private final ParcelFileDescriptor mSocket;
+    private final Handler mHandler;
+    private volatile boolean mClosed;
+
+    private TermuxApiChannel(ParcelFileDescriptor socket, Handler handler) {
+        mSocket = socket;
+        mHandler = handler;
+    }
+
+    /** Start reading calls from the socket of the channel, which is then owned by it. */
+    static TermuxApiChannel open(ParcelFileDescriptor socket, Handler handler) {
+        final TermuxApiChannel channel = new TermuxApiChannel(socket, handler);
+        new Thread(channel, LOG_TAG).start();
+        return channel;
+    }
+
+    @Override
+    public void run() {
+        final FileDescriptor socket = mSocket.getFileDescriptor();
+        final ByteBuffer frame = ByteBuffer.allocate(MAX_FRAME_SIZE);
+        try {
+            Os.write(socket, new byte[Integer.BYTES], 0, Integer.BYTES);
+
+            while (!mClosed) {
+                frame.clear();
+                final StructMsghdr message = new StructMsghdr(null, new ByteBuffer[]{frame}, null, 0);
+                final int length = Os.recvmsg(socket, message, 0);
+                if (length == 0) break;
+
+                final List<ParcelFileDescriptor> fileDescriptors = getFileDescriptors(message);
+                final Intent intent = (length >= Integer.BYTES && (message.msg_flags & OsConstants.MSG_TRUNC) == 0
+                    && fileDescriptors.size() == 2) ? unmarshallIntent(frame.array(), length) : null;
+                if (intent == null) {
+                    Log.e(LOG_TAG, "Ignoring malformed request " + (length >= Integer.BYTES ? frame.getInt(0) : -1)
+                        + " of " + length + " bytes with " + fileDescriptors.size() + " file descriptors");
+                    for (ParcelFileDescriptor fileDescriptor : fileDescriptors) fileDescriptor.close();
+                    continue;
+                }
+
+                intent.putExtra("com.termux.api.output_socket_fd", fileDescriptors.get(0));
+                intent.putExtra("com.termux.api.input_socket_fd", fileDescriptors.get(1));
+                mHandler.obtainMessage(TermuxApiService.MSG_PERFORM_API_INTENT, intent).sendToTarget();
+            }
+        } catch (ErrnoException | SocketException | InterruptedIOException e) {
+            if (!mClosed) Log.e(LOG_TAG, "Error reading channel", e);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to close", e);
+        } finally {
+            mClosed = true;
+            try {
+                mSocket.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to close", e);
+            }
+        }
+    }
+
+    /** The file descriptors received with a frame, in the order sent, which are owned by the caller. */
+    private static List<ParcelFileDescriptor> getFileDescriptors(StructMsghdr message) {
+        final List<ParcelFileDescriptor> fileDescriptors = new ArrayList<>(2);
+        if (message.msg_control == null) return fileDescriptors;
+        for (StructCmsghdr controlMessage : message.msg_control) {
+            if (controlMessage.cmsg_level != OsConstants.SOL_SOCKET || controlMessage.cmsg_type != SCM_RIGHTS) continue;
+            final ByteBuffer data = ByteBuffer.wrap(controlMessage.cmsg_data).order(ByteOrder.nativeOrder());
+            while (data.remaining() >= Integer.BYTES) {
+                fileDescriptors.add(ParcelFileDescriptor.adoptFd(data.getInt()));
+            }
+        }
+        return fileDescriptors;
+    }
+
+    /** The intent marshalled after the request id in the frame, or null if it could not be read. */
+    private static Intent unmarshallIntent(byte[] frame, int length) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(frame, Integer.BYTES, length - Integer.BYTES);
+            parcel.setDataPosition(0);
+            return Intent.CREATOR.createFromParcel(parcel);
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to unmarshall request " + ByteBuffer.wrap(frame).getInt(0), e);
+            return null;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /** Stop reading calls, as when Termux opens a new channel or the service is destroyed. */
+    void close() {
+        if (mClosed) return;
+        mClosed = true;
+        // Wakes up the reading thread, which closes the socket:
+        try {
+            Os.shutdown(mSocket.getFileDescriptor(), OsConstants.SHUT_RDWR);
+        } catch (ErrnoException e) {
+            Log.e(LOG_TAG, "Failed to shut down", e);
+        }
+    }
+
+}
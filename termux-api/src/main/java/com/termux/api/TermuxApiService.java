@@ -5,10 +5,12 @@ import android.app.Service;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Message;
 import android.os.Messenger;
+import android.os.ParcelFileDescriptor;
 import android.provider.Settings;
 import android.util.Log;
 import android.widget.Toast;
@@ -31,6 +33,8 @@ import com.termux.api.apis.TorchAPI;
 import com.termux.api.apis.WallpaperAPI;
 import com.termux.api.apis.WifiAPI;
 
+import java.io.IOException;
+
 public class TermuxApiService extends Service {
 
     private static final String LOG_TAG = "termux-api";
@@ -40,11 +44,17 @@ public class TermuxApiService extends Service {
      */
     static final int MSG_PERFORM_API_INTENT = 1;
 
+    /**
+     * Command to the service to read API calls from a {@link TermuxApiChannel} on the given socket.
+     */
+    static final int MSG_OPEN_CHANNEL = 2;
+
     /**
      * Handler of incoming messages from clients.
      */
     static class IncomingHandler extends Handler {
         private final Context applicationContext;
+        private TermuxApiChannel channel;
 
         IncomingHandler(TermuxApiService context) {
             applicationContext = context.getApplicationContext();
@@ -57,16 +67,39 @@ public class TermuxApiService extends Service {
                     var intent = (Intent) msg.obj;
                     doWork(applicationContext, intent);
                     break;
+                case MSG_OPEN_CHANNEL:
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                        // Termux opens a new channel each time it binds:
+                        closeChannel();
+                        channel = TermuxApiChannel.open((ParcelFileDescriptor) msg.obj, this);
+                    } else {
+                        // Never acknowledged, so Termux keeps sending calls through the messenger:
+                        Log.w(TermuxAPIConstants.LOG_TAG, "Ignoring channel before Android 13");
+                        try {
+                            ((ParcelFileDescriptor) msg.obj).close();
+                        } catch (IOException e) {
+                            Log.e(TermuxAPIConstants.LOG_TAG, "Failed to close channel", e);
+                        }
+                    }
+                    break;
                 default:
                     Log.e(TermuxAPIConstants.LOG_TAG, "Unhandled msg.what: " + msg.what);
             }
         }
+
+        void closeChannel() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU && channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
     }
 
     /**
      * Target we publish for clients to send messages to IncomingHandler.
      */
     Messenger mMessenger;
+    IncomingHandler mHandler;
 
     /**
      * When binding to the service, we return an interface to our messenger
@@ -74,10 +107,19 @@ public class TermuxApiService extends Service {
      */
     @Override
     public IBinder onBind(Intent intent) {
-        mMessenger = new Messenger(new IncomingHandler(this));
+        mHandler = new IncomingHandler(this);
+        mMessenger = new Messenger(mHandler);
         return mMessenger.getBinder();
     }
 
+    @Override
+    public void onDestroy() {
+        if (mHandler != null) {
+            mHandler.closeChannel();
+        }
+        super.onDestroy();
+    }
+
     private static void doWork(Context context, Intent intent) {
         String apiMethod = intent.getStringExtra("api_method");
         if (apiMethod == null) {
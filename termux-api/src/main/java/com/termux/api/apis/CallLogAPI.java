@@ -7,6 +7,7 @@ import android.database.Cursor;
 import android.provider.CallLog;
 import android.util.JsonWriter;
 
+import com.termux.api.util.ContactNameCache;
 import com.termux.api.util.ResultReturner;
 
 import java.io.IOException;
@@ -54,8 +55,9 @@ public class CallLogAPI {
             for (int j = 0, count = cur.getCount(); j < count; ++j) {
                 out.beginObject();
 
-                out.name("name").value(getCallerNameString(cur.getString(nameIndex)));
-                out.name("phone_number").value(cur.getString(numberIndex));
+                String number = cur.getString(numberIndex);
+                out.name("name").value(getCallerNameString(context, cur.getString(nameIndex), number));
+                out.name("phone_number").value(number);
                 out.name("type").value(getCallTypeString(cur.getInt(callTypeIndex)));
                 out.name("date").value(getDateString(cur.getLong(dateIndex), dateFormat));
                 out.name("duration").value(getTimeString(cur.getInt(durationIndex)));
@@ -80,7 +82,12 @@ public class CallLogAPI {
         };
     }
 
-    private static String getCallerNameString(String name) {
+    /**
+     * The name cached in the call log, which is missing for calls made before the number was added to the contacts,
+     * or else the name of the contact of the number if the READ_CONTACTS permission is granted.
+     */
+    private static String getCallerNameString(Context context, String name, String number) {
+        if (name == null) name = ContactNameCache.getDisplayName(context, number);
         return name == null ? "UNKNOWN_CALLER" : name;
     }
 
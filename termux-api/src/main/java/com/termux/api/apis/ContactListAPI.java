@@ -10,6 +10,7 @@ import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.util.JsonWriter;
 import android.util.SparseArray;
 
+import com.termux.api.util.ContactNameCache;
 import com.termux.api.util.ResultReturner;
 import com.termux.api.util.ResultReturner.ResultJsonWriter;
 
@@ -51,6 +52,7 @@ public class ContactListAPI {
                 String number = contactIdToNumberMap.get(contactId);
                 if (number != null) {
                     String contactName = cursor.getString(contactDisplayNameIdx);
+                    ContactNameCache.putDisplayName(context, number, contactName);
                     out.beginObject().name("name").value(contactName).name("number").value(number).endObject();
                 }
             }
@@ -6,19 +6,23 @@ import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
-import android.provider.ContactsContract.PhoneLookup;
 import android.provider.Telephony.Sms;
 import android.provider.Telephony.Sms.Conversations;
 import android.provider.Telephony.TextBasedSmsColumns;
+import android.text.TextUtils;
 import android.util.JsonWriter;
 
+import com.termux.api.util.ContactNameCache;
 import com.termux.api.util.ResultReturner;
 import com.termux.api.util.ResultReturner.ResultJsonWriter;
 
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static android.provider.Telephony.TextBasedSmsColumns.ADDRESS;
@@ -30,7 +34,13 @@ import static android.provider.Telephony.TextBasedSmsColumns.TYPE;
 
 public class SmsInboxAPI {
 
-    private static final String[] DISPLAY_NAME_PROJECTION = {PhoneLookup.DISPLAY_NAME};
+    private static final String[] THREAD_ID_PROJECTION = {THREAD_ID};
+
+    /** The columns read by {@link #writeElement}. */
+    private static final String[] MESSAGE_PROJECTION = {"_id", THREAD_ID, ADDRESS, BODY, READ, DATE, TYPE};
+
+    /** The max number of threads of which the latest messages are queried at once, below the limit of SQL variables. */
+    private static final int MAX_THREADS_PER_QUERY = 500;
 
     public static void onReceive(final Context context, Intent intent) {
         final int offset = intent.getIntExtra("offset", 0);
@@ -50,37 +60,52 @@ public class SmsInboxAPI {
         });
     }
 
-    @SuppressLint("SimpleDateFormat")
+    /**
+     * Write the latest message of each conversation in the page, oldest first as with {@link #getAllSms}. The page of
+     * conversations is queried first, and then the latest messages of its threads together.
+     */
     public static void getConversations(Context context, JsonWriter out, int offset, int limit) throws IOException {
         ContentResolver cr = context.getContentResolver();
-        String sortOrder = "date DESC";
-        try (Cursor c = cr.query(Conversations.CONTENT_URI, null, null, null , sortOrder)) {
-            c.moveToLast();
+        String sortOrder = "date DESC LIMIT " + limit + " OFFSET " + offset;
+        List<String> threadIds = new ArrayList<>();
+        try (Cursor c = cr.query(Conversations.CONTENT_URI, THREAD_ID_PROJECTION, null, null, sortOrder)) {
+            int threadIdIndex = c.getColumnIndexOrThrow(THREAD_ID);
+            while (c.moveToNext()) {
+                threadIds.add(c.getString(threadIdIndex));
+            }
+        }
 
-            Map<String, String> nameCache = new HashMap<>();
+        out.beginArray();
+        for (int end = threadIds.size(); end > 0; end -= MAX_THREADS_PER_QUERY) {
+            writeLatestMessages(cr, out, context, threadIds.subList(Math.max(0, end - MAX_THREADS_PER_QUERY), end));
+        }
+        out.endArray();
+    }
 
-            out.beginArray();
-            for (int i = 0, count = c.getCount(); i < count; i++) {
-                int id = c.getInt(c.getColumnIndexOrThrow(THREAD_ID));
-
-                Cursor cc = cr.query(Sms.CONTENT_URI, null,
-                        THREAD_ID + " == '" + id +"'",
-                        null, "date DESC");
-                if (cc.getCount() == 0) {
-                    c.moveToNext();
-                    continue;
+    /**
+     * Write the latest message of each of the threads, in reverse order of the threads. Messages of the threads are
+     * read newest first only until one of each thread has been seen.
+     */
+    private static void writeLatestMessages(ContentResolver cr, JsonWriter out, Context context, List<String> threadIds) throws IOException {
+        String selection = THREAD_ID + " IN (" + TextUtils.join(",", Collections.nCopies(threadIds.size(), "?")) + ")";
+        try (Cursor c = cr.query(Sms.CONTENT_URI, MESSAGE_PROJECTION, selection, threadIds.toArray(new String[0]), "date DESC")) {
+            int threadIdIndex = c.getColumnIndexOrThrow(THREAD_ID);
+            Map<String, Integer> latestMessagePositions = new HashMap<>();
+            while (latestMessagePositions.size() < threadIds.size() && c.moveToNext()) {
+                latestMessagePositions.putIfAbsent(c.getString(threadIdIndex), c.getPosition());
+            }
+
+            for (int i = threadIds.size() - 1; i >= 0; i--) {
+                Integer position = latestMessagePositions.get(threadIds.get(i));
+                if (position != null && c.moveToPosition(position)) {
+                    writeElement(c, out, context);
                 }
-                cc.moveToFirst();
-                writeElement(cc, out, nameCache, context);
-                cc.close();
-                c.moveToPrevious();
             }
-            out.endArray();
         }
     }
 
     @SuppressLint("SimpleDateFormat")
-    private static void writeElement(Cursor c, JsonWriter out, Map<String, String> nameCache, Context context) throws IOException {
+    private static void writeElement(Cursor c, JsonWriter out, Context context) throws IOException {
         SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 
         int threadID = c.getInt(c.getColumnIndexOrThrow(THREAD_ID));
@@ -91,7 +116,7 @@ public class SmsInboxAPI {
         // long smsSentDate = c.getLong(c.getColumnIndexOrThrow(TextBasedSmsColumns.DATE_SENT));
         int smsID = c.getInt(c.getColumnIndexOrThrow("_id"));
 
-        String smsSenderName = getContactNameFromNumber(nameCache, context, smsAddress);
+        String smsSenderName = ContactNameCache.getDisplayName(context, smsAddress);
         String messageType = getMessageType(c.getInt(c.getColumnIndexOrThrow(TYPE)));
 
         out.beginObject();
@@ -126,33 +151,19 @@ public class SmsInboxAPI {
     public static void getAllSms(Context context, JsonWriter out, int offset, int limit, String number, Uri contentURI) throws IOException {
         ContentResolver cr = context.getContentResolver();
         String sortOrder = "date DESC LIMIT + " + limit + " OFFSET " + offset;
-        try (Cursor c = cr.query(contentURI, null,
-                ADDRESS + " LIKE '%" + number + "%'", null, sortOrder)) {
+        try (Cursor c = cr.query(contentURI, MESSAGE_PROJECTION,
+                ADDRESS + " LIKE ?", new String[]{"%" + number + "%"}, sortOrder)) {
             c.moveToLast();
 
-            new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-            Map<String, String> nameCache = new HashMap<>();
-
             out.beginArray();
             for (int i = 0, count = c.getCount(); i < count; i++) {
-                writeElement(c, out, nameCache, context);
+                writeElement(c, out, context);
                 c.moveToPrevious();
             }
             out.endArray();
         }
     }
 
-    private static String getContactNameFromNumber(Map<String, String> cache, Context context, String number) {
-        if (cache.containsKey(number))
-            return cache.get(number);
-        Uri contactUri = Uri.withAppendedPath(PhoneLookup.CONTENT_FILTER_URI, Uri.encode(number));
-        try (Cursor c = context.getContentResolver().query(contactUri, DISPLAY_NAME_PROJECTION, null, null, null)) {
-            String name = c.moveToFirst() ? c.getString(c.getColumnIndexOrThrow(PhoneLookup.DISPLAY_NAME)) : null;
-            cache.put(number, name);
-            return name;
-        }
-    }
-
     private static String getMessageType(int type) {
         return switch (type) {
             case TextBasedSmsColumns.MESSAGE_TYPE_INBOX -> "inbox";
@@ -0,0 +1,170 @@
+package com.termux.api.util;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs API calls, as returned by {@link ResultReturner#returnData}, on a bounded pool of threads instead of a new
+ * thread per call, so that scripts firing bursts of calls do not create a thread for each.
+ * <p/>
+ * At most {@link #MAX_RUNNING_CALLS_PER_METHOD} calls of each API method run at a time, with further calls queued in
+ * order, so that calls blocking for long do not hold up calls of other methods. Calls beyond {@link #MAX_QUEUED_CALLS}
+ * waiting to run are rejected, with the error written by {@link #executeRejected(Runnable)}.
+ * <p/>
+ * Calls of {@link #OWN_THREAD_METHODS} run on a thread of their own, as before the pool, without limits.
+ */
+final class ApiCallExecutor {
+
+    private static final String LOG_TAG = "ApiCallExecutor";
+
+    private static final int MAX_THREADS = 16;
+    private static final int MAX_RUNNING_CALLS_PER_METHOD = 4;
+    private static final int MAX_QUEUED_CALLS = 256;
+
+    /**
+     * The API methods whose calls run on a thread of their own: those preparing a Looper on their thread, which a pool
+     * thread could only do once, such as CameraPhoto, and those which may run until the caller is done, such as Sensor,
+     * which would hold up the pool.
+     */
+    private static final Set<String> OWN_THREAD_METHODS = Set.of("CameraPhoto", "Location", "Sensor");
+
+    private static final ThreadPoolExecutor EXECUTOR;
+
+    static {
+        final AtomicInteger threadCount = new AtomicInteger();
+        EXECUTOR = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            runnable -> new Thread(runnable, "ApiCall-" + threadCount.incrementAndGet()));
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    /** Writes the errors of rejected calls, off the thread of the caller, which may be the main thread. */
+    private static final ThreadPoolExecutor REJECTED_CALL_EXECUTOR = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), runnable -> new Thread(runnable, "ApiCallRejected"));
+
+    static {
+        REJECTED_CALL_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    /** The calls of an API method, of which at most {@link #MAX_RUNNING_CALLS_PER_METHOD} are given to the pool. */
+    private static final class Method {
+        /** The number of calls given to the pool, running or waiting for a thread. */
+        int mSubmittedCalls;
+        final ArrayDeque<Runnable> mPendingCalls = new ArrayDeque<>();
+    }
+
+    private static final Object LOCK = new Object();
+    /** The API methods called, by name. Guarded by {@link #LOCK}, as are the counts below. */
+    private static final HashMap<String, Method> METHODS = new HashMap<>();
+    private static int sQueuedCalls;
+    private static int sPeakQueuedCalls;
+    private static int sRunningCalls;
+    private static long sRejectedCalls;
+
+    private ApiCallExecutor() {
+    }
+
+    /**
+     * Run the call of the specified API method on the pool, once fewer calls of the method are running than allowed, or
+     * on a thread of its own if one of {@link #OWN_THREAD_METHODS}.
+     *
+     * @return false if the call was rejected, as too many calls are queued.
+     */
+    static boolean execute(String methodName, Runnable call) {
+        if (methodName != null && OWN_THREAD_METHODS.contains(methodName)) {
+            synchronized (LOCK) {
+                sRunningCalls++;
+            }
+            new Thread(() -> {
+                try {
+                    call.run();
+                } finally {
+                    synchronized (LOCK) {
+                        sRunningCalls--;
+                    }
+                }
+            }, "ApiCall-" + methodName).start();
+            return true;
+        }
+
+        synchronized (LOCK) {
+            if (sQueuedCalls >= MAX_QUEUED_CALLS) {
+                sRejectedCalls++;
+                Log.w(LOG_TAG, "Rejecting call of " + methodName + " with " + sQueuedCalls + " calls queued, "
+                    + sRunningCalls + " running and " + sRejectedCalls + " rejected");
+                return false;
+            }
+            sQueuedCalls++;
+            sPeakQueuedCalls = Math.max(sPeakQueuedCalls, sQueuedCalls);
+            Method method = METHODS.computeIfAbsent(methodName == null ? "" : methodName, name -> new Method());
+            if (method.mSubmittedCalls < MAX_RUNNING_CALLS_PER_METHOD) {
+                method.mSubmittedCalls++;
+                submit(method, call);
+            } else {
+                method.mPendingCalls.addLast(call);
+            }
+        }
+        return true;
+    }
+
+    /** Give the call to the pool, after which the next pending call of the method is. Called with the lock held. */
+    private static void submit(Method method, Runnable call) {
+        EXECUTOR.execute(() -> {
+            synchronized (LOCK) {
+                sQueuedCalls--;
+                sRunningCalls++;
+            }
+            try {
+                call.run();
+            } finally {
+                synchronized (LOCK) {
+                    sRunningCalls--;
+                    Runnable nextCall = method.mPendingCalls.pollFirst();
+                    if (nextCall != null) {
+                        submit(method, nextCall);
+                    } else {
+                        method.mSubmittedCalls--;
+                    }
+                }
+            }
+        });
+    }
+
+    /** Run the call writing the error of a rejected call, one at a time, as connecting to the caller may block. */
+    static void executeRejected(Runnable call) {
+        REJECTED_CALL_EXECUTOR.execute(call);
+    }
+
+    /** The number of calls waiting to run. */
+    static int getQueuedCalls() {
+        synchronized (LOCK) {
+            return sQueuedCalls;
+        }
+    }
+
+    /** The max number of calls that have been waiting to run at once. */
+    static int getPeakQueuedCalls() {
+        synchronized (LOCK) {
+            return sPeakQueuedCalls;
+        }
+    }
+
+    static int getRunningCalls() {
+        synchronized (LOCK) {
+            return sRunningCalls;
+        }
+    }
+
+    static long getRejectedCalls() {
+        synchronized (LOCK) {
+            return sRejectedCalls;
+        }
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.termux.api.util;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.PhoneLookup;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A process-wide cache of the display names of the contacts of phone numbers, so that API calls listing messages and
+ * calls, as polled by scripts, do not look up the same numbers in the contacts provider on every call.
+ * <p/>
+ * At most {@link #MAX_SIZE} numbers are cached, evicting the least recently used, each for at most {@link #TTL_MILLIS}.
+ * The cache is cleared whenever the contacts change, as observed by a {@link ContentObserver} registered on first use,
+ * with the TTL bounding how stale names get should a change not be notified. Without the READ_CONTACTS permission no
+ * names are returned.
+ */
+public final class ContactNameCache {
+
+    private static final String LOG_TAG = "ContactNameCache";
+
+    private static final int MAX_SIZE = 1000;
+    private static final long TTL_MILLIS = 10 * 60 * 1000;
+
+    private static final String[] DISPLAY_NAME_PROJECTION = {PhoneLookup.DISPLAY_NAME};
+
+    private static final class Entry {
+        /** The display name, or null for a number without a contact. */
+        final String name;
+        final long expiryTime;
+
+        Entry(String name) {
+            this.name = name;
+            expiryTime = SystemClock.elapsedRealtime() + TTL_MILLIS;
+        }
+    }
+
+    /** The entries by number, in order of access. Guarded by itself, as are the fields below. */
+    private static final Map<String, Entry> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    /** Incremented when the cache is cleared, so that names looked up before are not cached after. */
+    private static long sGeneration;
+    private static ContentObserver sObserver;
+
+    private ContactNameCache() {
+    }
+
+    /**
+     * The display name of the contact of the number, or null if there is none.
+     */
+    public static String getDisplayName(Context context, String number) {
+        if (number == null || number.isEmpty() || !canReadContacts(context)) return null;
+
+        final boolean cacheable;
+        final long generation;
+        synchronized (CACHE) {
+            final Entry entry = CACHE.get(number);
+            if (entry != null) {
+                if (SystemClock.elapsedRealtime() < entry.expiryTime) return entry.name;
+                CACHE.remove(number);
+            }
+            cacheable = registerObserver(context);
+            generation = sGeneration;
+        }
+
+        final String name = lookUpDisplayName(context, number);
+        if (cacheable) {
+            synchronized (CACHE) {
+                if (generation == sGeneration) CACHE.put(number, new Entry(name));
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Cache the display name of the contact of a number as read from the contacts provider, such as when listing
+     * contacts, so that the number is not looked up again.
+     */
+    public static void putDisplayName(Context context, String number, String name) {
+        if (number == null || number.isEmpty() || !canReadContacts(context)) return;
+        synchronized (CACHE) {
+            if (registerObserver(context)) CACHE.put(number, new Entry(name));
+        }
+    }
+
+    private static boolean canReadContacts(Context context) {
+        return context.checkSelfPermission(Manifest.permission.READ_CONTACTS) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    private static String lookUpDisplayName(Context context, String number) {
+        Uri contactUri = Uri.withAppendedPath(PhoneLookup.CONTENT_FILTER_URI, Uri.encode(number));
+        try (Cursor c = context.getContentResolver().query(contactUri, DISPLAY_NAME_PROJECTION, null, null, null)) {
+            return (c != null && c.moveToFirst()) ? c.getString(c.getColumnIndexOrThrow(PhoneLookup.DISPLAY_NAME)) : null;
+        }
+    }
+
+    /**
+     * Register the observer clearing the cache if not already. Called with the lock held.
+     *
+     * @return false if it could not be registered, in which case names must not be cached.
+     */
+    private static boolean registerObserver(Context context) {
+        if (sObserver != null) return true;
+        final ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                synchronized (CACHE) {
+                    CACHE.clear();
+                    sGeneration++;
+                }
+            }
+        };
+        try {
+            context.getApplicationContext().getContentResolver()
+                .registerContentObserver(ContactsContract.AUTHORITY_URI, true, observer);
+        } catch (SecurityException e) {
+            Log.e(LOG_TAG, "Unable to observe contacts", e);
+            return false;
+        }
+        sObserver = observer;
+        return true;
+    }
+
+}
@@ -10,12 +10,15 @@ import android.os.ParcelFileDescriptor;
 import android.util.JsonWriter;
 import android.util.Log;
 
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 
 public abstract class ResultReturner {
@@ -34,6 +37,19 @@ public abstract class ResultReturner {
      */
     private static final String SOCKET_INPUT_EXTRA = "com.termux.api.input_socket_fd";
 
+    /**
+     * An optional extra intent parameter with the format of JSON results: "pretty" (the default) to indent them,
+     * "compact" to write them without whitespace, or "ndjson" to write each element of a result which is an array as
+     * compact JSON on a line of its own, so that consumers can process elements as they are written.
+     */
+    private static final String JSON_FORMAT_EXTRA = "json_format";
+
+    /** The size in chars of the buffer of output, which is written to the socket each time it is full. */
+    private static final int OUTPUT_BUFFER_SIZE = 16 * 1024;
+
+    /** The output of calls rejected by {@link ApiCallExecutor}. */
+    private static final String REJECTED_CALL_ERROR = "Too many API calls in progress, try again later";
+
     public interface ResultWriter {
         void writeResult(PrintWriter out) throws Exception;
     }
@@ -73,10 +89,21 @@ public abstract class ResultReturner {
     }
 
     public static abstract class ResultJsonWriter implements ResultWriter {
+        private String jsonFormat;
+
+        void setJsonFormat(String jsonFormat) {
+            this.jsonFormat = jsonFormat;
+        }
+
         @Override
         public final void writeResult(PrintWriter out) throws Exception {
-            JsonWriter writer = new JsonWriter(out);
-            writer.setIndent("  ");
+            JsonWriter writer;
+            if ("ndjson".equals(jsonFormat)) {
+                writer = new JsonWriter(new JsonLinesWriter(out));
+            } else {
+                writer = new JsonWriter(out);
+                if (!"compact".equals(jsonFormat)) writer.setIndent("  ");
+            }
             writeJson(writer);
             out.println(); // To add trailing newline.
         }
@@ -84,6 +111,62 @@ public abstract class ResultReturner {
         public abstract void writeJson(JsonWriter out) throws Exception;
     }
 
+    /**
+     * Writes compact JSON which is an array as its elements, each on a line of its own, by dropping the brackets of the
+     * array and replacing the commas between its elements by newlines. JSON which is not an array is written as is.
+     */
+    private static final class JsonLinesWriter extends Writer {
+        private final Writer out;
+        private int depth;
+        private boolean inArray;
+        private boolean inString;
+        private boolean escaped;
+
+        JsonLinesWriter(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            for (int i = offset; i < offset + length; i++) write(chars[i]);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '[' || c == '{') {
+                if (depth++ == 0 && c == '[') {
+                    inArray = true;
+                    return;
+                }
+            } else if (c == ']' || c == '}') {
+                if (--depth == 0 && inArray) return;
+            } else if (c == ',' && depth == 1 && inArray) {
+                c = '\n';
+            }
+            out.write(c);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
     /**
      * Just tell termux-api.c that we are done.
      */
@@ -95,18 +178,30 @@ public abstract class ResultReturner {
         newIntent.putExtra("api_method", origIntent.getStringExtra("api_method"));
         newIntent.putExtra(SOCKET_OUTPUT_EXTRA, origIntent.getStringExtra(SOCKET_OUTPUT_EXTRA));
         newIntent.putExtra(SOCKET_INPUT_EXTRA, origIntent.getStringExtra(SOCKET_INPUT_EXTRA));
+        newIntent.putExtra(JSON_FORMAT_EXTRA, origIntent.getStringExtra(JSON_FORMAT_EXTRA));
 
     }
 
     /**
-     * Run in a separate thread, unless the context is an IntentService.
+     * Run with {@link ApiCallExecutor}, unless the context is an IntentService. If the call is rejected as too many are
+     * queued, write an error instead of leaving the caller waiting.
      */
     public static void returnData(Object context, final Intent intent, final ResultWriter resultWriter) {
         final PendingResult asyncResult = (context instanceof BroadcastReceiver) ? ((BroadcastReceiver) context)
                 .goAsync() : null;
         final Activity activity = (Activity) ((context instanceof Activity) ? context : null);
 
-        final Runnable runnable = () -> {
+        final Runnable runnable = createCall(asyncResult, activity, intent, resultWriter);
+        if (context instanceof IntentService) {
+            runnable.run();
+        } else if (!ApiCallExecutor.execute(intent.getStringExtra("api_method"), runnable)) {
+            ApiCallExecutor.executeRejected(createCall(asyncResult, activity, intent, out -> out.println(REJECTED_CALL_ERROR)));
+        }
+    }
+
+    private static Runnable createCall(final PendingResult asyncResult, final Activity activity, final Intent intent,
+                                       final ResultWriter resultWriter) {
+        return () -> {
             PrintWriter writer = null;
             ParcelFileDescriptor outFd = null;
             ParcelFileDescriptor inFd = null;
@@ -116,9 +211,13 @@ public abstract class ResultReturner {
                     throw new IOException("Missing '" + SOCKET_OUTPUT_EXTRA + "' extra");
                 }
                 var outStream = new FileOutputStream(outFd.getFileDescriptor());
-                writer = new PrintWriter(outStream);
+                writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(outStream, StandardCharsets.UTF_8),
+                    OUTPUT_BUFFER_SIZE));
 
                 if (resultWriter != null) {
+                    if (resultWriter instanceof ResultJsonWriter jsonWriter) {
+                        jsonWriter.setJsonFormat(intent.getStringExtra(JSON_FORMAT_EXTRA));
+                    }
                     inFd = intent.getParcelableExtra(SOCKET_INPUT_EXTRA);
                     if (inFd == null) {
                         throw new IOException("Missing '" + SOCKET_INPUT_EXTRA + "' extra");
@@ -173,12 +272,6 @@ public abstract class ResultReturner {
                 }
             }
         };
-
-        if (context instanceof IntentService) {
-            runnable.run();
-        } else {
-            new Thread(runnable).start();
-        }
     }
 
 }
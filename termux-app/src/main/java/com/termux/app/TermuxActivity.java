@@ -178,6 +178,7 @@ public final class TermuxActivity extends AppCompatActivity implements ServiceCo
         mTerminalView = findViewById(R.id.terminal_view);
         mTerminalView.setTerminalViewClient(mTermuxTerminalViewClient);
         mTerminalView.setTextSize(mPreferences.getFontSize());
+        mTerminalView.setGlyphAtlasRendering(mProperties.isTerminalGlyphAtlasRendering());
 
         mTermuxTerminalSessionActivityClient.onCreate();
 
@@ -751,6 +752,7 @@ public final class TermuxActivity extends AppCompatActivity implements ServiceCo
         }
 
         setTerminalToolbarHeight();
+        mTerminalView.setGlyphAtlasRendering(mProperties.isTerminalGlyphAtlasRendering());
 
         mTermuxTerminalSessionActivityClient.onReloadActivityStyling();
     }
@@ -2,6 +2,8 @@ package com.termux.app;
 
 import android.util.Log;
 
+import com.termux.terminal.TerminalSession;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -48,6 +50,42 @@ public final class TermuxProperties {
         return properties.getProperty("volume-keys", "normal").equalsIgnoreCase("volume");
     }
 
+    /** If the terminal is drawn against a glyph atlas, with "terminal-renderer=atlas", instead of the default "canvas". */
+    boolean isTerminalGlyphAtlasRendering() {
+        return properties.getProperty("terminal-renderer", "canvas").trim().equalsIgnoreCase("atlas");
+    }
+
+    /** If sessions record throughput and latency metrics, as dumped by the TerminalMetrics API method. */
+    boolean isTerminalMetricsEnabled() {
+        return properties.getProperty("terminal-metrics", "false").trim().equalsIgnoreCase("true");
+    }
+
+    /** If sessions process their output on a thread of their own, with "terminal-emulation-thread=true", instead of the main thread. */
+    boolean isTerminalEmulationOnWorkerThread() {
+        return properties.getProperty("terminal-emulation-thread", "false").trim().equalsIgnoreCase("true");
+    }
+
+    int getTerminalFrameInputBudget() {
+        var prop = properties.getProperty("terminal-frame-input-budget", Integer.toString(TerminalSession.DEFAULT_FRAME_INPUT_BUDGET)).trim();
+        try {
+            return Integer.parseInt(prop);
+        } catch (NumberFormatException e) {
+            Log.w(TermuxConstants.LOG_TAG, "Invalid 'terminal-frame-input-budget' value: '" + prop + "'");
+            return TerminalSession.DEFAULT_FRAME_INPUT_BUDGET;
+        }
+    }
+
+    /** The max number of rows dropped from the transcript to keep in files in the cache directory, or 0 if none. */
+    int getTerminalTranscriptSpillRows() {
+        var prop = properties.getProperty("terminal-transcript-spill-rows", "0").trim();
+        try {
+            return Integer.parseInt(prop);
+        } catch (NumberFormatException e) {
+            Log.w(TermuxConstants.LOG_TAG, "Invalid 'terminal-transcript-spill-rows' value: '" + prop + "'");
+            return 0;
+        }
+    }
+
     public String getExtraKeys() {
         return properties.getProperty("extra-keys", EXTRA_KEYS_DEFAULT);
     }
@@ -28,7 +28,9 @@ import com.termux.terminal.TerminalSessionClient;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A service holding a list of {@link TerminalSession}:s in {@link #mTerminalSessions} and background {@link TermuxAppShell}
@@ -85,6 +87,9 @@ public final class TermuxService extends Service {
      */
     public final List<TerminalSession> mTerminalSessions = new ArrayList<>();
 
+    /** The URL trackers of the {@link #mTerminalSessions}, only accessed on the main thread. */
+    private final Map<TerminalSession, TermuxUrlTracker> mUrlTrackers = new HashMap<>();
+
     /**
      * The background TermuxTasks which this service manages.
      */
@@ -301,6 +306,8 @@ public final class TermuxService extends Service {
         var sessionClient = new TerminalSessionClient() {
             @Override
             public void onTextChanged(@NonNull TerminalSession changedSession) {
+                TermuxUrlTracker urlTracker = mUrlTrackers.get(changedSession);
+                if (urlTracker != null) urlTracker.onTextChanged();
                 if (mTerminalSessionClient != null) {
                     mTerminalSessionClient.onTextChanged(changedSession);
                 }
@@ -370,6 +377,7 @@ public final class TermuxService extends Service {
         newTermuxSession.mSessionName = sessionName;
 
         mTerminalSessions.add(newTermuxSession);
+        mUrlTrackers.put(newTermuxSession, new TermuxUrlTracker(newTermuxSession));
 
         if (mTerminalSessionClient != null) {
             mTerminalSessionClient.termuxSessionListNotifyUpdated();
@@ -400,12 +408,20 @@ public final class TermuxService extends Service {
      */
     public void onTermuxSessionExited(@NonNull final TerminalSession termuxSession) {
         mTerminalSessions.remove(termuxSession);
+        mUrlTrackers.remove(termuxSession);
+        termuxSession.closeTranscriptSpill();
         if (mTerminalSessionClient != null) {
             mTerminalSessionClient.termuxSessionListNotifyUpdated();
         }
         updateNotification();
     }
 
+    /** The URL tracker of a session of this service, or null if not one. */
+    @Nullable
+    public TermuxUrlTracker getUrlTracker(TerminalSession session) {
+        return mUrlTrackers.get(session);
+    }
+
     public synchronized void setTermuxTerminalSessionClient(TermuxTerminalSessionActivityClient termuxTerminalSessionActivityClient) {
         mTerminalSessionClient = termuxTerminalSessionActivityClient;
     }
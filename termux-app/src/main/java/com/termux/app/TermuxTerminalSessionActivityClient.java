@@ -242,8 +242,9 @@ public final class TermuxTerminalSessionActivityClient implements TerminalSessio
         if (!mActivity.isVisible()) return;
 
         String text = TermuxUrlUtils.getTextStringFromClipboardIfSet(mActivity, true);
-        if (text != null)
-            mActivity.getTerminalView().mEmulator.paste(text);
+        TerminalSession currentSession = mActivity.getCurrentSession();
+        if (text != null && currentSession != null)
+            currentSession.paste(text, null);
     }
 
     @Override
@@ -310,6 +311,13 @@ public final class TermuxTerminalSessionActivityClient implements TerminalSessio
      * Try switching to session.
      */
     public void setCurrentSession(TerminalSession session) {
+        // Note that the emulation thread and spill choices only apply to sessions not yet attached to the terminal view:
+        if (session != null) {
+            session.setEmulateOnWorkerThread(mActivity.mProperties.isTerminalEmulationOnWorkerThread());
+            session.setFrameInputBudget(mActivity.mProperties.getTerminalFrameInputBudget());
+            session.setTranscriptSpill(mActivity.getCacheDir(), mActivity.mProperties.getTerminalTranscriptSpillRows());
+            session.setMetricsEnabled(mActivity.mProperties.isTerminalMetricsEnabled());
+        }
         if (mActivity.getTerminalView().attachSession(session)) {
             // notify about switched session if not already displaying the session
             notifyOfSessionChange();
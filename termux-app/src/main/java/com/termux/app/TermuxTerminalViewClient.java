@@ -20,10 +20,6 @@ import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalSession;
 import com.termux.view.TerminalViewClient;
 
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.LinkedHashSet;
-
 import androidx.annotation.NonNull;
 import androidx.drawerlayout.widget.DrawerLayout;
 
@@ -370,7 +366,10 @@ public final class TermuxTerminalViewClient implements TerminalViewClient {
         if (terminalEmulator == null) return;
         TerminalBuffer terminalBuffer = terminalEmulator.getScreen();
         if (terminalBuffer == null) return;
-        String sessionTranscript = terminalBuffer.getTranscriptTextWithoutJoinedLines().trim();
+        String sessionTranscript;
+        synchronized (terminalEmulator) {
+            sessionTranscript = terminalBuffer.getTranscriptTextWithoutJoinedLines().trim();
+        }
         TermuxUrlUtils.shareText(mActivity, mActivity.getString(R.string.title_share_transcript),
             sessionTranscript, mActivity.getString(R.string.title_share_transcript_with));
     }
@@ -386,21 +385,18 @@ public final class TermuxTerminalViewClient implements TerminalViewClient {
     public void showUrlSelection() {
         TerminalSession session = mActivity.getCurrentSession();
         if (session == null) return;
-        TerminalEmulator terminalEmulator = session.getEmulator();
-        if (terminalEmulator == null) return;
-        TerminalBuffer terminalBuffer = terminalEmulator.getScreen();
-        if (terminalBuffer == null) return;
-        String sessionTranscript = terminalBuffer.getTranscriptTextWithFullLinesJoined().trim();
-
-        LinkedHashSet<CharSequence> urlSet = TermuxUrlUtils.extractUrls(sessionTranscript);
-        if (urlSet.isEmpty()) {
+        TermuxService service = mActivity.getTermuxService();
+        if (service == null) return;
+        TermuxUrlTracker urlTracker = service.getUrlTracker(session);
+        if (urlTracker == null) return;
+
+        // Latest first, with only the lines on the screen left to search:
+        final CharSequence[] urls = urlTracker.getUrls().toArray(new CharSequence[0]);
+        if (urls.length == 0) {
             new AlertDialog.Builder(mActivity).setMessage(R.string.title_select_url_none_found).show();
             return;
         }
 
-        final CharSequence[] urls = urlSet.toArray(new CharSequence[0]);
-        Collections.reverse(Arrays.asList(urls)); // Latest first.
-
         // Click to copy url to clipboard:
         final AlertDialog dialog = new AlertDialog.Builder(mActivity).setItems(urls, (di, which) -> {
             String url = (String) urls[which];
@@ -429,7 +425,7 @@ public final class TermuxTerminalViewClient implements TerminalViewClient {
 
         String text = TermuxUrlUtils.getTextStringFromClipboardIfSet(mActivity, true);
         if (text != null) {
-            session.getEmulator().paste(text);
+            session.paste(text, null);
         }
     }
 
@@ -0,0 +1,223 @@
+package com.termux.app;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.terminal.TerminalBuffer;
+import com.termux.terminal.TerminalEmulator;
+import com.termux.terminal.TerminalLineReader;
+import com.termux.terminal.TerminalSession;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+
+/**
+ * Tracker of the URLs in the output of a {@link TerminalSession}, for {@link TermuxTerminalViewClient#showUrlSelection()}.
+ * <p/>
+ * Lines are searched for URLs with {@link TermuxUrlUtils#getUrlMatchRegex()} on a background thread as they are
+ * completely scrolled into the transcript, as read by a {@link TerminalLineReader}, so that each line is only searched
+ * once. When the URLs are requested only the lines on the screen remain to be searched, instead of the whole transcript.
+ */
+public final class TermuxUrlTracker {
+
+    /** The max number of distinct URLs kept, dropping the least recently seen. */
+    private static final int MAX_URLS = 1000;
+    /** The max number of URL spans kept for {@link #getUrlAt(int, int)}, dropping the oldest. */
+    private static final int MAX_URL_SPANS = 5000;
+
+    /** The thread searching for URLs in the output of all sessions. */
+    private static final ThreadPoolExecutor EXECUTOR;
+
+    static {
+        EXECUTOR = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            runnable -> new Thread(runnable, "TermuxUrlTracker"));
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    /** A URL in the terminal, from the start to the end (exclusive) absolute row and column. */
+    private static final class UrlSpan {
+        final String mUrl;
+        final long mStartRow;
+        final int mStartColumn;
+        final long mEndRow;
+        final int mEndColumn;
+
+        UrlSpan(String url, long startRow, int startColumn, long endRow, int endColumn) {
+            mUrl = url;
+            mStartRow = startRow;
+            mStartColumn = startColumn;
+            mEndRow = endRow;
+            mEndColumn = endColumn;
+        }
+
+        boolean contains(long row, int column) {
+            if (row < mStartRow || row > mEndRow) return false;
+            return (row != mStartRow || column >= mStartColumn) && (row != mEndRow || column < mEndColumn);
+        }
+    }
+
+    private final TerminalSession mSession;
+    private final AtomicBoolean mUpdateScheduled = new AtomicBoolean();
+
+    /** Lock held while reading lines with {@link #mReader}, which is briefly also done on the main thread. */
+    private final Object mReadLock = new Object();
+    private final TerminalLineReader mReader = new TerminalLineReader();
+
+    /** The URLs found in the transcript, least recently seen first. Guarded by this. */
+    private final LinkedHashSet<String> mUrls = new LinkedHashSet<>();
+    /** Where the URLs in the transcript are, oldest first. Guarded by this. */
+    private final ArrayDeque<UrlSpan> mUrlSpans = new ArrayDeque<>();
+    /** The {@link TerminalBuffer#getLayoutGeneration()} the rows of {@link #mUrlSpans} are from. Guarded by this. */
+    private int mUrlSpansLayoutGeneration;
+    /** Lines read from the transcript but not yet searched on the background thread. Guarded by this. */
+    private List<TerminalLineReader.Line> mPendingLines = Collections.emptyList();
+
+    public TermuxUrlTracker(@NonNull TerminalSession session) {
+        mSession = session;
+    }
+
+    /** Schedule a search of the lines scrolled into the transcript for URLs, called when the session text changed. */
+    public void onTextChanged() {
+        if (mSession.getEmulator() == null) return;
+        if (!mUpdateScheduled.getAndSet(true)) EXECUTOR.execute(this::update);
+    }
+
+    private void update() {
+        mUpdateScheduled.set(false);
+        final TerminalEmulator emulator = mSession.getEmulator();
+        final List<TerminalLineReader.Line> lines = new ArrayList<>();
+        synchronized (mReadLock) {
+            final boolean startOver;
+            final int layoutGeneration;
+            synchronized (emulator) {
+                startOver = mReader.readNewLines(emulator.getScreen(), lines);
+                layoutGeneration = emulator.getScreen().getLayoutGeneration();
+            }
+            synchronized (this) {
+                if (startOver) {
+                    // All rows have moved, so forget the URLs and find the ones remaining again:
+                    mUrls.clear();
+                    mUrlSpans.clear();
+                    mUrlSpansLayoutGeneration = layoutGeneration;
+                }
+                // Published while holding the read lock, so that getUrls() sees the lines either as pending or as not read.
+                mPendingLines = lines;
+            }
+        }
+
+        final List<UrlSpan> spans = new ArrayList<>();
+        for (TerminalLineReader.Line line : lines) findUrls(line, spans);
+
+        synchronized (this) {
+            for (UrlSpan span : spans) {
+                addUrl(mUrls, span.mUrl);
+                if (mUrls.size() > MAX_URLS) {
+                    Iterator<String> iterator = mUrls.iterator();
+                    iterator.next();
+                    iterator.remove();
+                }
+                mUrlSpans.addLast(span);
+                if (mUrlSpans.size() > MAX_URL_SPANS) mUrlSpans.removeFirst();
+            }
+            mPendingLines = Collections.emptyList();
+        }
+    }
+
+    /** Add the url as the most recently seen one. */
+    private static void addUrl(LinkedHashSet<String> urls, String url) {
+        urls.remove(url);
+        urls.add(url);
+    }
+
+    private static void findUrls(TerminalLineReader.Line line, List<UrlSpan> spans) {
+        final String text = line.mText;
+        final Matcher matcher = TermuxUrlUtils.getUrlMatchRegex().matcher(text);
+        while (matcher.find()) {
+            final int start = matcher.start(1);
+            final int end = matcher.end();
+            final int startRowIndex = line.getRowIndex(start);
+            final int endRowIndex = line.getRowIndex(end - 1);
+            spans.add(new UrlSpan(text.substring(start, end),
+                line.mFirstRow + startRowIndex, line.getColumn(startRowIndex, start),
+                line.mFirstRow + endRowIndex, line.getColumn(endRowIndex, end)));
+        }
+    }
+
+    /**
+     * Find the URLs in the lines not yet searched in the background, which are the ones pending and the ones on the
+     * screen, as they may still change.
+     */
+    private List<UrlSpan> findUrlsInUnsearchedLines() {
+        final TerminalEmulator emulator = mSession.getEmulator();
+        final List<TerminalLineReader.Line> lines = new ArrayList<>();
+        final List<TerminalLineReader.Line> pendingLines;
+        synchronized (mReadLock) {
+            if (emulator != null) {
+                synchronized (emulator) {
+                    mReader.readScreenLines(emulator.getScreen(), lines);
+                }
+            }
+            synchronized (this) {
+                pendingLines = mPendingLines;
+            }
+        }
+
+        final List<UrlSpan> spans = new ArrayList<>();
+        for (TerminalLineReader.Line line : pendingLines) findUrls(line, spans);
+        for (TerminalLineReader.Line line : lines) findUrls(line, spans);
+        return spans;
+    }
+
+    /** The URLs in the transcript and on the screen, most recently seen first. */
+    @NonNull
+    public List<String> getUrls() {
+        final List<UrlSpan> screenSpans = findUrlsInUnsearchedLines();
+        final LinkedHashSet<String> urls;
+        synchronized (this) {
+            urls = new LinkedHashSet<>(mUrls);
+        }
+        for (UrlSpan span : screenSpans) addUrl(urls, span.mUrl);
+
+        final List<String> result = new ArrayList<>(urls);
+        Collections.reverse(result);
+        return result;
+    }
+
+    /** The URL at the specified external row and column of the terminal, as when tapped, or null if none. */
+    @Nullable
+    public String getUrlAt(int externalRow, int column) {
+        final TerminalEmulator emulator = mSession.getEmulator();
+        if (emulator == null) return null;
+        final long row;
+        final int layoutGeneration;
+        synchronized (emulator) {
+            row = emulator.getScreen().getScrollCount() + externalRow;
+            layoutGeneration = emulator.getScreen().getLayoutGeneration();
+        }
+
+        synchronized (this) {
+            if (layoutGeneration == mUrlSpansLayoutGeneration) {
+                Iterator<UrlSpan> iterator = mUrlSpans.descendingIterator();
+                while (iterator.hasNext()) {
+                    UrlSpan span = iterator.next();
+                    if (span.contains(row, column)) return span.mUrl;
+                    if (span.mEndRow < row) break;
+                }
+            }
+        }
+        for (UrlSpan span : findUrlsInUnsearchedLines()) {
+            if (span.contains(row, column)) return span.mUrl;
+        }
+        return null;
+    }
+
+}
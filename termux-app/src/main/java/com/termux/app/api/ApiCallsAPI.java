@@ -0,0 +1,26 @@
+package com.termux.app.api;
+
+import android.content.Intent;
+import android.util.JsonWriter;
+
+/**
+ * Dumps the state of the pool running API calls as JSON, to see whether scripts making bursts of calls are queuing up
+ * behind each other. The call dumping it is itself counted as running.
+ */
+public class ApiCallsAPI {
+
+    public static void onReceive(Intent intent) {
+        ResultReturner.returnData(intent, new ResultReturner.ResultJsonWriter() {
+            @Override
+            public void writeJson(JsonWriter out) throws Exception {
+                out.beginObject();
+                out.name("running").value(ApiCallExecutor.getRunningCalls());
+                out.name("queued").value(ApiCallExecutor.getQueuedCalls());
+                out.name("peak_queued").value(ApiCallExecutor.getPeakQueuedCalls());
+                out.name("rejected").value(ApiCallExecutor.getRejectedCalls());
+                out.endObject();
+            }
+        });
+    }
+
+}
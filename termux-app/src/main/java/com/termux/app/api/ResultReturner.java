@@ -7,12 +7,15 @@ import android.os.ParcelFileDescriptor;
 import android.util.JsonWriter;
 import android.util.Log;
 
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 
 public abstract class ResultReturner {
@@ -31,6 +34,19 @@ public abstract class ResultReturner {
      */
     static final String SOCKET_INPUT_EXTRA = "socket_input";
 
+    /**
+     * An optional extra intent parameter with the format of JSON results: "pretty" (the default) to indent them,
+     * "compact" to write them without whitespace, or "ndjson" to write each element of a result which is an array as
+     * compact JSON on a line of its own, so that consumers can process elements as they are written.
+     */
+    static final String JSON_FORMAT_EXTRA = "json_format";
+
+    /** The size in chars of the buffer of output, which is written to the socket each time it is full. */
+    private static final int OUTPUT_BUFFER_SIZE = 16 * 1024;
+
+    /** The output of calls rejected by {@link ApiCallExecutor}. */
+    private static final String REJECTED_CALL_ERROR = "Too many API calls in progress, try again later";
+
     public interface ResultWriter {
         void writeResult(PrintWriter out) throws Exception;
     }
@@ -143,10 +159,21 @@ public abstract class ResultReturner {
 
 
     public static abstract class ResultJsonWriter implements ResultWriter {
+        private String jsonFormat;
+
+        void setJsonFormat(String jsonFormat) {
+            this.jsonFormat = jsonFormat;
+        }
+
         @Override
         public final void writeResult(PrintWriter out) throws Exception {
-            JsonWriter writer = new JsonWriter(out);
-            writer.setIndent("  ");
+            JsonWriter writer;
+            if ("ndjson".equals(jsonFormat)) {
+                writer = new JsonWriter(new JsonLinesWriter(out));
+            } else {
+                writer = new JsonWriter(out);
+                if (!"compact".equals(jsonFormat)) writer.setIndent("  ");
+            }
             writeJson(writer);
             out.println(); // To add trailing newline.
         }
@@ -154,6 +181,62 @@ public abstract class ResultReturner {
         public abstract void writeJson(JsonWriter out) throws Exception;
     }
 
+    /**
+     * Writes compact JSON which is an array as its elements, each on a line of its own, by dropping the brackets of the
+     * array and replacing the commas between its elements by newlines. JSON which is not an array is written as is.
+     */
+    private static final class JsonLinesWriter extends Writer {
+        private final Writer out;
+        private int depth;
+        private boolean inArray;
+        private boolean inString;
+        private boolean escaped;
+
+        JsonLinesWriter(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            for (int i = offset; i < offset + length; i++) write(chars[i]);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '[' || c == '{') {
+                if (depth++ == 0 && c == '[') {
+                    inArray = true;
+                    return;
+                }
+            } else if (c == ']' || c == '}') {
+                if (--depth == 0 && inArray) return;
+            } else if (c == ',' && depth == 1 && inArray) {
+                c = '\n';
+            }
+            out.write(c);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
     /**
      * Just tell termux-api.c that we are done.
      */
@@ -165,13 +248,21 @@ public abstract class ResultReturner {
         newIntent.putExtra("api_method", origIntent.getStringExtra("api_method"));
         newIntent.putExtra(SOCKET_OUTPUT_EXTRA, origIntent.getStringExtra(SOCKET_OUTPUT_EXTRA));
         newIntent.putExtra(SOCKET_INPUT_EXTRA, origIntent.getStringExtra(SOCKET_INPUT_EXTRA));
+        newIntent.putExtra(JSON_FORMAT_EXTRA, origIntent.getStringExtra(JSON_FORMAT_EXTRA));
     }
 
     /**
-     * Run in a separate thread, unless the context is an IntentService.
+     * Run with {@link ApiCallExecutor}, or if the call is rejected as too many are queued, write an error instead of
+     * leaving the caller waiting.
      */
     public static void returnData(final Intent intent, final ResultWriter resultWriter) {
-        final Runnable runnable = () -> {
+        if (!ApiCallExecutor.execute(intent.getStringExtra("api_method"), createCall(intent, resultWriter))) {
+            ApiCallExecutor.executeRejected(createCall(intent, out -> out.println(REJECTED_CALL_ERROR)));
+        }
+    }
+
+    private static Runnable createCall(final Intent intent, final ResultWriter resultWriter) {
+        return () -> {
             PrintWriter writer = null;
             LocalSocket outputSocket = null;
             try {
@@ -181,9 +272,13 @@ public abstract class ResultReturner {
                     throw new IOException("Missing '" + SOCKET_OUTPUT_EXTRA + "' extra");
                 }
                 outputSocket.connect(new LocalSocketAddress(outputSocketAddress));
-                writer = new PrintWriter(outputSocket.getOutputStream());
+                writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(outputSocket.getOutputStream(),
+                    StandardCharsets.UTF_8), OUTPUT_BUFFER_SIZE));
 
                 if (resultWriter != null) {
+                    if (resultWriter instanceof ResultJsonWriter jsonWriter) {
+                        jsonWriter.setJsonFormat(intent.getStringExtra(JSON_FORMAT_EXTRA));
+                    }
                     if (resultWriter instanceof WithAncillaryFd) {
                         ((WithAncillaryFd) resultWriter).setOutputSocketForFds(outputSocket);
                     }
@@ -224,8 +319,6 @@ public abstract class ResultReturner {
                 }
             }
         };
-
-        new Thread(runnable).start();
     }
 
 }
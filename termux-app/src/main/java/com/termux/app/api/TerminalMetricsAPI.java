@@ -0,0 +1,79 @@
+package com.termux.app.api;
+
+import android.content.Intent;
+import android.util.JsonWriter;
+
+import com.termux.app.TermuxService;
+import com.termux.terminal.TerminalMetrics;
+import com.termux.terminal.TerminalSession;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Dumps the throughput and latency metrics of the terminal sessions as JSON, as recorded when enabled with
+ * "terminal-metrics=true" in termux.properties. With the "reset" boolean extra the metrics are cleared after the dump,
+ * so that a workload can be measured by itself:
+ * <pre>
+ * termux-api TerminalMetrics --ez reset true > /dev/null; some-workload; termux-api TerminalMetrics
+ * </pre>
+ */
+public class TerminalMetricsAPI {
+
+    public static void onReceive(final TermuxService service, final Intent intent) {
+        final boolean reset = intent.getBooleanExtra("reset", false);
+        // Copied, as the result is written on another thread:
+        final List<TerminalSession> sessions = new ArrayList<>(service.getTermuxSessions());
+        ResultReturner.returnData(intent, new ResultReturner.ResultJsonWriter() {
+            @Override
+            public void writeJson(JsonWriter out) throws Exception {
+                out.beginArray();
+                for (TerminalSession session : sessions) {
+                    out.beginObject();
+                    out.name("handle").value(session.mHandle);
+                    out.name("pid").value(session.getPid());
+                    out.name("title").value(session.getTitle());
+                    final TerminalMetrics metrics = session.getMetrics();
+                    out.name("metrics");
+                    if (metrics == null) {
+                        out.nullValue();
+                    } else {
+                        writeMetrics(out, metrics);
+                        if (reset) metrics.reset();
+                    }
+                    out.endObject();
+                }
+                out.endArray();
+            }
+        });
+    }
+
+    private static void writeMetrics(JsonWriter out, TerminalMetrics metrics) throws IOException {
+        out.beginObject();
+        out.name("elapsed_ms").value(metrics.getElapsedNanos() / 1_000_000);
+        out.name("bytes_read").value(metrics.getBytesRead());
+        out.name("bytes_parsed").value(metrics.getBytesParsed());
+        out.name("bytes_parsed_per_second").value(metrics.getBytesParsedPerSecond());
+        out.name("parse_speed_bytes_per_second").value(metrics.getParseSpeedBytesPerSecond());
+        writeHistogram(out, "read_bytes", metrics.getReadSizes());
+        writeHistogram(out, "queued_bytes", metrics.getQueuedBytes());
+        writeHistogram(out, "append_ns", metrics.getAppendNanos());
+        writeHistogram(out, "frame_ns", metrics.getFrameNanos());
+        writeHistogram(out, "input_to_echo_ns", metrics.getInputToEchoNanos());
+        out.endObject();
+    }
+
+    private static void writeHistogram(JsonWriter out, String name, TerminalMetrics.Histogram histogram) throws IOException {
+        out.name(name).beginObject();
+        out.name("count").value(histogram.getCount());
+        out.name("sum").value(histogram.getSum());
+        out.name("mean").value(histogram.getMean());
+        out.name("p50").value(histogram.getPercentile(50));
+        out.name("p90").value(histogram.getPercentile(90));
+        out.name("p99").value(histogram.getPercentile(99));
+        out.name("max").value(histogram.getMax());
+        out.endObject();
+    }
+
+}
@@ -0,0 +1,181 @@
+package com.termux.app.api;
+
+import android.content.Intent;
+import android.os.Build;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.Parcel;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructCmsghdr;
+import android.system.StructMsghdr;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+
+import com.termux.app.TermuxConstants;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A long-lived channel to Termux:API, over which an API call is sent as a single write instead of as a {@link Message}
+ * through the {@link Messenger}, which costs binder transactions to parcel the intent and the sockets of the call.
+ * <p/>
+ * The channel is a pair of connected SOCK_SEQPACKET sockets, one end of which is given to Termux:API once bound. Each
+ * call is sent as one frame of a request id and the marshalled intent, with the file descriptors of the sockets of the
+ * call attached as SCM_RIGHTS, so that Termux:API still writes the output of each call directly to its caller. The
+ * request id identifies the call in the logs of both apps.
+ * <p/>
+ * Termux:API acknowledges the channel with a frame of request id 0, so that versions of it without the channel are
+ * never sent frames. Until then, and for calls that cannot be sent as their frame is too large or the socket is full,
+ * {@link #send} returns false and the {@link Messenger} should be used instead.
+ * <p/>
+ * Requires Android 13, which added {@link Os#sendmsg} and {@link Os#recvmsg}.
+ */
+@RequiresApi(Build.VERSION_CODES.TIRAMISU)
+final class TermuxApiChannel {
+
+    /** The message to Termux:API with its end of the channel, after {@code MSG_PERFORM_API_INTENT}. */
+    private static final int MSG_OPEN_CHANNEL = 2;
+
+    /** From {@code <sys/socket.h>}, as not in {@link OsConstants}. */
+    private static final int SCM_RIGHTS = 1;
+
+    /** The max size of a frame, which Termux:API reads into a buffer of this size. */
+    private static final int MAX_FRAME_SIZE = 64 * 1024;
+
+    private final FileDescriptor mSocket;
+    private volatile boolean mAcknowledged;
+    private volatile boolean mClosed;
+    private int mNextRequestId = 1;
+
+    private TermuxApiChannel(FileDescriptor socket) {
+        mSocket = socket;
+    }
+
+    /**
+     * Create a channel and give its other end to Termux:API through the messenger.
+     *
+     * @return the channel, or null if it could not be created.
+     */
+    static TermuxApiChannel open(Messenger messenger) {
+        final FileDescriptor socket = new FileDescriptor();
+        final FileDescriptor remoteSocket = new FileDescriptor();
+        try {
+            Os.socketpair(OsConstants.AF_UNIX, OsConstants.SOCK_SEQPACKET, 0, socket, remoteSocket);
+        } catch (ErrnoException e) {
+            Log.e(TermuxConstants.LOG_TAG, "Unable to create Termux:API channel", e);
+            return null;
+        }
+
+        try (var remoteParcel = ParcelFileDescriptor.dup(remoteSocket)) {
+            messenger.send(Message.obtain(null, MSG_OPEN_CHANNEL, 0, 0, remoteParcel));
+        } catch (IOException | RemoteException e) {
+            Log.e(TermuxConstants.LOG_TAG, "Unable to open Termux:API channel", e);
+            tryClose(socket);
+            return null;
+        } finally {
+            tryClose(remoteSocket);
+        }
+
+        final TermuxApiChannel channel = new TermuxApiChannel(socket);
+        new Thread(channel::readUntilClosed, "TermuxApiChannel").start();
+        return channel;
+    }
+
+    /**
+     * Wait for the acknowledgement of the channel, and then for Termux:API to close it, as it sends nothing else.
+     */
+    private void readUntilClosed() {
+        final byte[] frame = new byte[4];
+        try {
+            while (!mClosed && Os.read(mSocket, frame, 0, frame.length) > 0) {
+                if (!mAcknowledged) {
+                    Log.i(TermuxConstants.LOG_TAG, "Termux:API channel acknowledged");
+                    mAcknowledged = true;
+                }
+            }
+        } catch (ErrnoException | InterruptedIOException e) {
+            if (!mClosed) Log.e(TermuxConstants.LOG_TAG, "Error reading Termux:API channel", e);
+        } finally {
+            // Not while a call is being sent, which could then be sent to another file reusing the descriptor:
+            synchronized (this) {
+                mClosed = true;
+                tryClose(mSocket);
+            }
+        }
+    }
+
+    /**
+     * Send an API call over the channel without blocking. The file descriptors are duplicated by the sending, so
+     * remain owned by the caller.
+     *
+     * @return false if the call was not sent, and should be sent through the {@link Messenger} instead.
+     */
+    synchronized boolean send(Intent intent, ParcelFileDescriptor output, ParcelFileDescriptor input) {
+        if (!mAcknowledged || mClosed) return false;
+
+        final byte[] marshalledIntent;
+        final Parcel parcel = Parcel.obtain();
+        try {
+            intent.writeToParcel(parcel, 0);
+            marshalledIntent = parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+        if (Integer.BYTES + marshalledIntent.length > MAX_FRAME_SIZE) return false;
+
+        final int requestId = mNextRequestId++;
+        final ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + marshalledIntent.length);
+        frame.putInt(requestId).put(marshalledIntent).flip();
+        final byte[] fileDescriptors = ByteBuffer.allocate(2 * Integer.BYTES).order(ByteOrder.nativeOrder())
+            .putInt(output.getFd()).putInt(input.getFd()).array();
+        final StructMsghdr message = new StructMsghdr(null, new ByteBuffer[]{frame},
+            new StructCmsghdr[]{new StructCmsghdr(OsConstants.SOL_SOCKET, SCM_RIGHTS, fileDescriptors)}, 0);
+        try {
+            Os.sendmsg(mSocket, message, OsConstants.MSG_DONTWAIT);
+            return true;
+        } catch (ErrnoException e) {
+            if (e.errno == OsConstants.EAGAIN || e.errno == OsConstants.EMSGSIZE) {
+                Log.w(TermuxConstants.LOG_TAG, "Unable to send request " + requestId + " over Termux:API channel: " + e.getMessage());
+            } else {
+                Log.e(TermuxConstants.LOG_TAG, "Error sending request " + requestId + " over Termux:API channel", e);
+                close();
+            }
+            return false;
+        } catch (SocketException e) {
+            Log.e(TermuxConstants.LOG_TAG, "Error sending request " + requestId + " over Termux:API channel", e);
+            close();
+            return false;
+        }
+    }
+
+    /** Close the channel, after which {@link #send} always returns false. */
+    void close() {
+        if (mClosed) return;
+        mClosed = true;
+        // Wakes up the reading thread, which closes the socket:
+        try {
+            Os.shutdown(mSocket, OsConstants.SHUT_RDWR);
+        } catch (ErrnoException e) {
+            Log.e(TermuxConstants.LOG_TAG, "Unable to shut down Termux:API channel", e);
+        }
+    }
+
+    private static void tryClose(FileDescriptor fileDescriptor) {
+        try {
+            Os.close(fileDescriptor);
+        } catch (ErrnoException e) {
+            Log.e(TermuxConstants.LOG_TAG, "Unable to close Termux:API channel", e);
+        }
+    }
+
+}
@@ -8,6 +8,7 @@ import android.content.Intent;
 import android.content.ServiceConnection;
 import android.net.LocalSocket;
 import android.net.LocalSocketAddress;
+import android.os.Build;
 import android.os.IBinder;
 import android.os.Message;
 import android.os.Messenger;
@@ -45,6 +46,12 @@ public class TermuxApiHandler {
      */
     boolean mServiceConnected;
 
+    /**
+     * Channel over which calls are sent instead of through the messenger once acknowledged, or null if not bound or
+     * before Android 13, which added the socket calls it uses.
+     */
+    TermuxApiChannel mChannel = null;
+
     public void sendToTermuxApi(Intent intent) {
         ParcelFileDescriptor parcelOut;
         ParcelFileDescriptor parcelIn;
@@ -57,7 +64,6 @@ public class TermuxApiHandler {
             outputSocket.connect(new LocalSocketAddress(outputSocketAdress));
             var outFileDescriptor = outputSocket.getFileDescriptor();
             parcelOut = ParcelFileDescriptor.dup(outFileDescriptor);
-            intent.putExtra("com.termux.api.output_socket_fd", parcelOut);
             Os.close(outFileDescriptor);
 
             String inputSocketAddress = intent.getStringExtra(ResultReturner.SOCKET_INPUT_EXTRA);
@@ -68,7 +74,6 @@ public class TermuxApiHandler {
             inputSocket.connect(new LocalSocketAddress(inputSocketAddress));
             var inFileDescriptor = inputSocket.getFileDescriptor();
             parcelIn = ParcelFileDescriptor.dup(inFileDescriptor);
-            intent.putExtra("com.termux.api.input_socket_fd", parcelIn);
             Os.close(inFileDescriptor);
         } catch (Throwable t) {
             throw new RuntimeException(t);
@@ -83,7 +88,10 @@ public class TermuxApiHandler {
                 }
             }
             Log.e(TermuxConstants.LOG_TAG, "Not bound to Termux:API yet, ignoring intent");
-        } else {
+        } else if (Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU || mChannel == null
+            || !mChannel.send(intent, parcelOut, parcelIn)) {
+            intent.putExtra("com.termux.api.output_socket_fd", parcelOut);
+            intent.putExtra("com.termux.api.input_socket_fd", parcelIn);
             var msg = Message.obtain(null, 1, 0, 0, intent);
             try {
                 mMessenger.send(msg);
@@ -96,6 +104,13 @@ public class TermuxApiHandler {
         tryClose(parcelIn);
     }
 
+    private void closeChannel() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU && mChannel != null) {
+            mChannel.close();
+            mChannel = null;
+        }
+    }
+
     private static void tryClose(@NonNull Closeable c) {
         try {
             c.close();
@@ -117,6 +132,9 @@ public class TermuxApiHandler {
             // representation of that from the raw IBinder object.
             mMessenger = new Messenger(service);
             mServiceConnected = true;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                mChannel = TermuxApiChannel.open(mMessenger);
+            }
         }
 
         public void onServiceDisconnected(ComponentName className) {
@@ -124,6 +142,7 @@ public class TermuxApiHandler {
             // This is called when the connection with the service has been
             // unexpectedly disconnected&mdash;that is, its process crashed.
             mMessenger = null;
+            closeChannel();
             mServiceBindingInitiated = false;
             mServiceConnected = false;
         }
@@ -140,6 +159,9 @@ public class TermuxApiHandler {
             // without sharedUserId) that does not require extra permissions
             // ourselves, and call out to Termux:API in the default case.
             switch (apiMethod) {
+                case "ApiCalls":
+                    ApiCallsAPI.onReceive(intent);
+                    break;
                 case "AudioInfo":
                     AudioAPI.onReceive(context, intent);
                     break;
@@ -203,6 +225,9 @@ public class TermuxApiHandler {
                 case "StorageGet":
                     StorageGetAPI.onReceive(context, intent);
                     break;
+                case "TerminalMetrics":
+                    TerminalMetricsAPI.onReceive(mTermuxService, intent);
+                    break;
                 case "TextToSpeech":
                     TextToSpeechAPI.onReceive(context, intent);
                     break;
@@ -247,6 +272,7 @@ public class TermuxApiHandler {
     }
 
     public void onDestroy() {
+        closeChannel();
         if (mServiceConnected) {
             mTermuxService.unbindService(mConnection);
             mServiceConnected = false;